@@ -0,0 +1,122 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Buffered output stream whose buffer size can be changed while in use, so that it can be sized to its sensor's rate
+ * Also counts the bytes passed through it, for the BufferScheduler to measure its sensor's rate
+ * Not thread safe, used only from the thread data is delivered on
+ */
+class AdaptiveBufferedOutputStream extends OutputStream {
+
+    private final OutputStream out;
+    private byte[] buffer;
+    private int count = 0;
+    private int limit;
+    private long totalBytes = 0;
+
+    /**
+     * Constructor
+     * @param out OutputStream: the unbuffered destination
+     * @param limit int: initial buffer size in bytes
+     */
+    AdaptiveBufferedOutputStream(OutputStream out, int limit) {
+        this.out = out;
+        this.limit = limit;
+        this.buffer = new byte[limit];
+    }
+
+    /**
+     * Changes the buffer size, writing out any buffered data that no longer fits
+     * The buffer is reallocated when it shrinks by more than half, so that memory is actually released
+     * @param limit int: the new buffer size in bytes
+     */
+    void setLimit(int limit) throws IOException {
+        if (limit == this.limit) {
+            return;
+        }
+        if (count > limit) {
+            flushBuffer();
+        }
+
+        if (limit > buffer.length || limit < buffer.length / 2) {
+            byte[] resized = new byte[limit];
+            System.arraycopy(buffer, 0, resized, 0, count);
+            buffer = resized;
+        }
+        this.limit = limit;
+    }
+
+    /**
+     * @return int: the buffer size in bytes
+     */
+    int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return long: number of bytes written to this stream since it was created
+     */
+    long getTotalBytes() {
+        return totalBytes;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (count >= limit) {
+            flushBuffer();
+        }
+        buffer[count++] = (byte) b;
+        totalBytes++;
+    }
+
+    @Override
+    public void write(byte[] b, int offset, int length) throws IOException {
+        totalBytes += length;
+
+        if (length >= limit) {
+            // Larger than the buffer, e.g. a compressed block, so written straight out
+            flushBuffer();
+            out.write(b, offset, length);
+            return;
+        }
+        if (count + length > limit) {
+            flushBuffer();
+        }
+
+        System.arraycopy(b, offset, buffer, count, length);
+        count += length;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBuffer();
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (count > 0) {
+            out.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+}
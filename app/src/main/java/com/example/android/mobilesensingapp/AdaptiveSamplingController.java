@@ -0,0 +1,180 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp;
+
+import android.util.Log;
+
+import org.sensingkit.sensingkitlib.SKException;
+import org.sensingkit.sensingkitlib.SKSensorDataListener;
+import org.sensingkit.sensingkitlib.SKSensorModuleType;
+import org.sensingkit.sensingkitlib.data.SKAbstractData;
+import org.sensingkit.sensingkitlib.data.SKAccelerometerData;
+import org.sensingkit.sensingkitlib.data.SKSensorData;
+
+import java.util.EnumSet;
+import java.util.Locale;
+
+/**
+ * Class to reduce sampling while the device is idle, listening to the cheap accelerometer and step detector streams
+ * SensingKit always samples at the fastest rate, so while idle the accelerometer is written at a reduced rate
+ * and the other high rate sensors are suspended entirely. Both are restored as soon as motion is detected
+ */
+class AdaptiveSamplingController implements SKSensorDataListener {
+
+    // Debug Tag for use logging debug output to LogCat
+    private static final String TAG = "AdaptiveSampling";
+    // Length of the accelerometer window variance is computed over, bounds the latency of returning to full rate
+    static final long WINDOW_MILLIS = 2000;
+    // Variance of accelerometer magnitude, in (m/s^2)^2, below which a window is considered still
+    static final double IDLE_VARIANCE = 0.05;
+    // Time without motion before the device is considered idle
+    static final long IDLE_DELAY_MILLIS = 30000;
+    // Only every nth accelerometer sample is written while idle
+    static final int IDLE_DECIMATION = 10;
+    // High rate sensors that are suspended while idle
+    private static final EnumSet<SKSensorModuleType> SUSPENDABLE_SENSORS = EnumSet.of(
+            SKSensorModuleType.GRAVITY,
+            SKSensorModuleType.LINEAR_ACCELERATION,
+            SKSensorModuleType.GYROSCOPE,
+            SKSensorModuleType.ROTATION,
+            SKSensorModuleType.MAGNETOMETER);
+
+    private final SensorSession session;
+    private boolean idle = false;
+    private long lastMotion = -1;
+    private long windowStart = -1;
+    private int windowCount = 0;
+    private double windowMean = 0;
+    private double windowM2 = 0;
+
+    /**
+     * Constructor
+     * @param session SensorSession: the session whose sensors are suspended and restored
+     */
+    AdaptiveSamplingController(SensorSession session) {
+        this.session = session;
+    }
+
+    /**
+     * Checks whether the controller currently considers the device idle
+     * @return boolean: true if idle
+     */
+    synchronized boolean isIdle() {
+        return idle;
+    }
+
+    /**
+     * Resets the controller to full rate, called when the session is (re)started
+     */
+    synchronized void reset() {
+        idle = false;
+        lastMotion = -1;
+        windowStart = -1;
+        windowCount = 0;
+        windowMean = 0;
+        windowM2 = 0;
+    }
+
+    /**
+     * Tracks motion from step detector events and accelerometer variance, switching sampling as required
+     * @param moduleType The type of sensor module the data came from
+     * @param moduleData The incoming sensor data
+     */
+    @Override
+    public synchronized void onDataReceived(SKSensorModuleType moduleType, SKSensorData moduleData) {
+
+        if (session.isPaused()) {
+            return;
+        }
+
+        long timestamp = ((SKAbstractData) moduleData).getTimestamp();
+
+        if (lastMotion < 0) {
+            lastMotion = timestamp;
+        }
+
+        if (moduleType == SKSensorModuleType.STEP_DETECTOR) {
+            onMotion(timestamp, "step");
+            return;
+        }
+
+        if (moduleType != SKSensorModuleType.ACCELEROMETER) {
+            return;
+        }
+
+        SKAccelerometerData data = (SKAccelerometerData) moduleData;
+        double magnitude = Math.sqrt(data.getX() * data.getX() + data.getY() * data.getY() + data.getZ() * data.getZ());
+
+        if (windowStart < 0) {
+            windowStart = timestamp;
+        }
+
+        // Welford's online variance, so no samples need to be kept
+        windowCount++;
+        double delta = magnitude - windowMean;
+        windowMean += delta / windowCount;
+        windowM2 += delta * (magnitude - windowMean);
+
+        if (timestamp - windowStart < WINDOW_MILLIS) {
+            return;
+        }
+
+        double variance = windowCount > 1 ? windowM2 / (windowCount - 1) : 0;
+        windowStart = timestamp;
+        windowCount = 0;
+        windowMean = 0;
+        windowM2 = 0;
+
+        if (variance > IDLE_VARIANCE) {
+            onMotion(timestamp, String.format(Locale.UK, "variance=%.4f", variance));
+        }
+        else if (!idle && timestamp - lastMotion >= IDLE_DELAY_MILLIS) {
+            setIdle(timestamp, true, String.format(Locale.UK, "variance=%.4f", variance));
+        }
+    }
+
+    /**
+     * Records motion, restoring full rate sampling if currently idle
+     * @param timestamp long: time of the motion in milliseconds
+     * @param detail String: the signal that detected motion, written to the transition marker
+     */
+    private void onMotion(long timestamp, String detail) {
+        lastMotion = timestamp;
+
+        if (idle) {
+            setIdle(timestamp, false, detail);
+        }
+    }
+
+    /**
+     * Suspends or restores the high rate sensors and writes a transition marker
+     * @param timestamp long: time of the transition in milliseconds
+     * @param idle boolean: true to switch to idle sampling, false to restore full rate
+     * @param detail String: the signal that caused the transition
+     */
+    private void setIdle(long timestamp, boolean idle, String detail) {
+        this.idle = idle;
+
+        try {
+            for (SKSensorModuleType sensorType : SUSPENDABLE_SENSORS) {
+                if (idle) {
+                    session.suspendSensor(sensorType);
+                } else {
+                    session.resumeSensor(sensorType);
+                }
+            }
+            session.setDecimation(SKSensorModuleType.ACCELEROMETER, idle ? IDLE_DECIMATION : 1);
+        }
+        catch (SKException ex) {
+            Log.e(TAG, ex.getMessage());
+        }
+
+        session.logEvent(timestamp, idle ? "idle" : "active", detail);
+    }
+}
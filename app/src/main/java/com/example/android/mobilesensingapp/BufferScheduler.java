@@ -0,0 +1,135 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp;
+
+import android.os.Handler;
+import android.util.Log;
+
+import org.sensingkit.sensingkitlib.SKException;
+
+import java.util.List;
+
+/**
+ * Class to size each data writer's buffer to its sensor's observed data rate, and to flush slow sensors on a timer
+ * Buffers are sized to fill in about TARGET_FLUSH_MILLIS, scaled down together if that would exceed MEMORY_BUDGET_BYTES
+ * across all sensors, so that fast sensors write out in large blocks and slow sensors do not hold data for long
+ * Ticks are posted to the delivery handler, as the data writers are not thread safe. SensorDelivery writes every
+ * reading on that same thread, including Audio Level readings arriving on SensingKit's own thread, so a resize or
+ * flush never runs during a write
+ */
+class BufferScheduler {
+
+    // Debug Tag for use logging debug output to LogCat
+    private static final String TAG = "BufferScheduler";
+    // How often rates are measured and buffers resized
+    static final long TICK_MILLIS = 2000;
+    // Time a buffer should take to fill, and the longest any data waits unflushed
+    static final long TARGET_FLUSH_MILLIS = 10000;
+    // Memory all of a session's buffers may take up together
+    static final int MEMORY_BUDGET_BYTES = 512 * 1024;
+    static final int MIN_BUFFER_BYTES = 512;
+    static final int MAX_BUFFER_BYTES = 128 * 1024;
+    // Weight of the latest measurement in each sensor's smoothed rate
+    private static final double RATE_SMOOTHING = 0.3;
+
+    private final List<SensorDataWriter> dataWriters;
+    private final Handler handler;
+    private final long[] lastBytes;
+    private final double[] bytesPerSecond;
+    private long lastTick;
+    private boolean measured = false;
+    private final Runnable begin = new Runnable() {
+        @Override
+        public void run() {
+            for (int i = 0; i < dataWriters.size(); i++) {
+                lastBytes[i] = dataWriters.get(i).getBytesWritten();
+            }
+            lastTick = System.currentTimeMillis();
+            handler.postDelayed(tick, TICK_MILLIS);
+        }
+    };
+    private final Runnable tick = new Runnable() {
+        @Override
+        public void run() {
+            onTick();
+            handler.postDelayed(this, TICK_MILLIS);
+        }
+    };
+
+    /**
+     * Constructor
+     * @param dataWriters List: the session's data writers
+     * @param handler Handler: handler on the thread data is delivered on
+     */
+    BufferScheduler(List<SensorDataWriter> dataWriters, Handler handler) {
+        this.dataWriters = dataWriters;
+        this.handler = handler;
+        this.lastBytes = new long[dataWriters.size()];
+        this.bytesPerSecond = new double[dataWriters.size()];
+    }
+
+    /**
+     * Starts measuring rates and flushing on a timer, when the session starts sensing
+     */
+    void start() {
+        handler.removeCallbacks(begin);
+        handler.removeCallbacks(tick);
+        handler.post(begin);
+    }
+
+    /**
+     * Stops the timer, when the session stops sensing. Rates measured so far are kept for the next start
+     */
+    void stop() {
+        handler.removeCallbacks(begin);
+        handler.removeCallbacks(tick);
+    }
+
+    private void onTick() {
+        long now = System.currentTimeMillis();
+        double seconds = Math.max(1, now - lastTick) / 1000.0;
+        lastTick = now;
+
+        double totalDesired = 0;
+        double[] desired = new double[dataWriters.size()];
+
+        for (int i = 0; i < dataWriters.size(); i++) {
+            long bytes = dataWriters.get(i).getBytesWritten();
+            double rate = (bytes - lastBytes[i]) / seconds;
+            lastBytes[i] = bytes;
+
+            bytesPerSecond[i] = measured ? RATE_SMOOTHING * rate + (1 - RATE_SMOOTHING) * bytesPerSecond[i] : rate;
+            desired[i] = bytesPerSecond[i] * TARGET_FLUSH_MILLIS / 1000.0;
+            totalDesired += desired[i];
+        }
+        measured = true;
+
+        double scale = totalDesired > MEMORY_BUDGET_BYTES ? MEMORY_BUDGET_BYTES / totalDesired : 1;
+
+        for (int i = 0; i < dataWriters.size(); i++) {
+            SensorDataWriter writer = dataWriters.get(i);
+            int size = (int) Math.max(MIN_BUFFER_BYTES, Math.min(MAX_BUFFER_BYTES, desired[i] * scale));
+
+            try {
+                // Small changes are ignored, so that buffers are not reallocated on every tick
+                int current = writer.getBufferSize();
+                if (size > current * 5 / 4 || size < current * 3 / 4) {
+                    writer.setBufferSize(size);
+                }
+
+                if (writer.getUnflushedMillis(now) >= TARGET_FLUSH_MILLIS) {
+                    writer.flush();
+                }
+            }
+            catch (SKException ex) {
+                Log.e(TAG, ex.getMessage());
+            }
+        }
+    }
+}
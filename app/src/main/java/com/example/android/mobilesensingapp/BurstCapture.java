@@ -0,0 +1,202 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp;
+
+import android.util.Log;
+
+import org.sensingkit.sensingkitlib.SKSensorModuleType;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Class to plan and hold the memory buffers of a burst capture session, in which data is kept in memory while sensing
+ * and written out when the session is closed, see BurstOutputStream
+ * Each sensor's buffer is sized from its expected rate, record size and the planned duration, scaled down together to
+ * fit within MAX_BYTES and a share of the free heap. A sensor whose buffer fills falls back to writing to its file,
+ * as do all sensors on memory pressure
+ * Data held in memory is written out on a background thread of its own, both on falling back and once the session is
+ * closed, so that neither capture nor closing waits for it, see shutdown
+ * On Android, direct buffers are allocated within the app's heap, so the heap limit also bounds their size
+ */
+class BurstCapture {
+
+    // Debug Tag for use logging debug output to LogCat
+    private static final String TAG = "BurstCapture";
+    // Most memory all of a session's buffers may take up together
+    static final long MAX_BYTES = 256L * 1024 * 1024;
+    // Share of the free heap buffers may take up, leaving the rest for the app
+    static final double HEAP_SHARE = 0.5;
+    // Allowance over the estimated size, as CSV lines vary in length
+    private static final double MARGIN = 1.25;
+    // Estimated bytes per reading of a sensor whose data is not numeric
+    private static final int TEXT_RECORD_BYTES = 64;
+
+    /**
+     * Notified when a stream falls back to writing to its file before it is closed
+     */
+    interface Listener {
+        /**
+         * @param file File: the stream's file
+         * @param reason String: "full", "memory", or "allocation" if the buffer could not be allocated
+         */
+        void onSpill(File file, String reason);
+    }
+
+    private final int[] capacities;
+    private final Listener listener;
+    private final List<BurstOutputStream> streams = new ArrayList<>();
+    private final ExecutorService spillExecutor = Executors.newSingleThreadExecutor();
+    // Streams opened and not yet written out in full
+    private int unpersisted = 0;
+    // Run once every stream is written out after shutdown, null if not set or already run
+    private Runnable persistedTask;
+    private boolean shutdown = false;
+    private final BurstOutputStream.Listener streamListener = new BurstOutputStream.Listener() {
+        @Override
+        public void onSpill(File file, String reason) {
+            listener.onSpill(file, reason);
+        }
+
+        @Override
+        public void onPersisted(File file, IOException failure) {
+            if (failure != null) {
+                Log.e(TAG, file.getName() + ": " + failure.getMessage());
+            }
+            synchronized (BurstCapture.this) {
+                unpersisted--;
+                finishIfPersisted();
+            }
+        }
+    };
+
+    /**
+     * Constructor
+     * Plans each sensor's buffer size, buffers are allocated as streams are opened
+     * @param sensorTypes List: the session's sensors
+     * @param compressed boolean: true if numeric data is written in the compressed format, which is far smaller
+     * @param durationSeconds int: planned length of the session
+     * @param listener Listener: notified when a stream falls back to writing to its file
+     */
+    BurstCapture(List<SKSensorModuleType> sensorTypes, boolean compressed, int durationSeconds, Listener listener) {
+        this.listener = listener;
+        capacities = new int[sensorTypes.size()];
+        double[] desired = new double[sensorTypes.size()];
+        double total = 0;
+
+        for (int i = 0; i < desired.length; i++) {
+            SKSensorModuleType sensorType = sensorTypes.get(i);
+            int rate = SensorValues.getExpectedRate(sensorType);
+            desired[i] = MARGIN * rate * durationSeconds * estimateRecordBytes(sensorType, compressed);
+            total += desired[i];
+        }
+
+        Runtime runtime = Runtime.getRuntime();
+        long freeHeap = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        double budget = Math.min(MAX_BYTES, freeHeap * HEAP_SHARE);
+        double scale = total > budget ? budget / total : 1;
+
+        for (int i = 0; i < desired.length; i++) {
+            capacities[i] = (int) Math.min(Integer.MAX_VALUE, desired[i] * scale);
+        }
+    }
+
+    /**
+     * @param index int: index of the sensor
+     * @return int: the sensor's planned buffer size in bytes
+     */
+    int getCapacity(int index) {
+        return capacities[index];
+    }
+
+    /**
+     * @return int: the planned size of all buffers together, for a single session log
+     */
+    int getTotalCapacity() {
+        long total = 0;
+        for (int capacity : capacities) {
+            total += capacity;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, total);
+    }
+
+    /**
+     * Opens a stream holding a file's data in memory
+     * @param file File: the file
+     * @param capacity int: size of the stream's buffer
+     * @return BurstOutputStream: the stream
+     */
+    synchronized BurstOutputStream open(File file, int capacity) throws IOException {
+        BurstOutputStream stream = new BurstOutputStream(file, capacity, spillExecutor, streamListener);
+        streams.add(stream);
+        unpersisted++;
+        return stream;
+    }
+
+    /**
+     * Writes every stream's data out and falls back to writing to files, e.g. on memory pressure
+     * Returns straight away, the data being written out on the spill thread while writes carry on
+     */
+    void spillAll() {
+        List<BurstOutputStream> spilling;
+        synchronized (this) {
+            spilling = new ArrayList<>(streams);
+        }
+
+        for (BurstOutputStream stream : spilling) {
+            stream.spill("memory");
+        }
+    }
+
+    /**
+     * Stops the spill thread once every stream is closed and written out, after the session is closed
+     * Streams still to be closed, e.g. by a delivery thread that did not respond in time, are written out first
+     * @param persistedTask Runnable: run on the spill thread once every stream is written out, or null
+     */
+    synchronized void shutdown(Runnable persistedTask) {
+        this.persistedTask = persistedTask;
+        shutdown = true;
+        finishIfPersisted();
+    }
+
+    /**
+     * Runs the persisted task and stops the spill thread, once shut down and every stream is written out
+     */
+    private void finishIfPersisted() {
+        if (!shutdown || unpersisted > 0 || spillExecutor.isShutdown()) {
+            return;
+        }
+
+        if (persistedTask != null) {
+            spillExecutor.execute(persistedTask);
+            persistedTask = null;
+        }
+        spillExecutor.shutdown();
+    }
+
+    /**
+     * Estimates the bytes written per reading of a sensor
+     * @param sensorType SKSensorModuleType: the sensor
+     * @param compressed boolean: true if numeric data is written in the compressed format
+     * @return int: the estimate
+     */
+    static int estimateRecordBytes(SKSensorModuleType sensorType, boolean compressed) {
+        int fields = SensorValues.getFieldCount(sensorType);
+        if (fields < 0) {
+            return TEXT_RECORD_BYTES;
+        }
+        // A CSV line is a 13 digit timestamp and about 11 characters per field, compressed records take a few
+        // bytes per field at worst
+        return compressed ? 2 + 4 * fields : 14 + 12 * fields;
+    }
+}
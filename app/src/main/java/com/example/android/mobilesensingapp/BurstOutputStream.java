@@ -0,0 +1,231 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+
+/**
+ * Output stream holding a file's data in a preallocated direct buffer, so that capture causes no file writes
+ * The data is written to the file in one sequential pass once the stream is closed. If the buffer fills, or spill is
+ * called on memory pressure, the data so far is written out and the stream falls back to writing to the file
+ * Data held in memory, up to BurstCapture.MAX_BYTES, is always written out on the given executor, so that neither
+ * closing nor spilling holds up the caller. Writes made while it is written out are held in a small buffer of their
+ * own and appended after it, so writers never wait for the file
+ * Synchronized, as a spill may come from any thread
+ */
+class BurstOutputStream extends OutputStream {
+
+    /**
+     * Notified when a stream falls back to writing to its file, and once its data is all written
+     */
+    interface Listener {
+        /**
+         * @param file File: the stream's file
+         * @param reason String: "full", "memory", or "allocation" if the buffer could not be allocated
+         */
+        void onSpill(File file, String reason);
+
+        /**
+         * Called once the stream is closed and all of its data written, on the executor or the closing thread
+         * @param file File: the stream's file
+         * @param failure IOException: the first error writing the file, or null if it was written in full
+         */
+        void onPersisted(File file, IOException failure);
+    }
+
+    private final File file;
+    private final Executor executor;
+    private final Listener listener;
+    // Data held in memory, null once written out or if it could not be allocated
+    private ByteBuffer buffer;
+    // Set once the data held in memory has been written out, or straight away if it could not be allocated
+    private FileOutputStream out;
+    // Data written while the data held in memory is written out, null otherwise
+    private ByteArrayOutputStream pending;
+    private IOException failure;
+    private boolean closed = false;
+
+    /**
+     * Constructor
+     * Allocates the buffer, falling back to writing to the file straight away if there is not enough memory
+     * @param file File: the file to write to
+     * @param capacity int: size of the buffer in bytes
+     * @param executor Executor: runs each write out of the data held in memory, in order
+     * @param listener Listener: notified on falling back to writing to the file, and once the file is written
+     */
+    BurstOutputStream(File file, int capacity, Executor executor, Listener listener) throws IOException {
+        this.file = file;
+        this.executor = executor;
+        this.listener = listener;
+
+        try {
+            buffer = ByteBuffer.allocateDirect(capacity);
+        }
+        catch (OutOfMemoryError ex) {
+            out = new FileOutputStream(file);
+            listener.onSpill(file, "allocation");
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (failure != null) {
+            throw new IOException(failure.getMessage(), failure);
+        }
+
+        if (buffer != null) {
+            if (buffer.remaining() >= len) {
+                buffer.put(b, off, len);
+                return;
+            }
+            spill("full");
+        }
+
+        if (pending != null) {
+            pending.write(b, off, len);
+        } else {
+            out.write(b, off, len);
+        }
+    }
+
+    /**
+     * Flushes to the file once fallen back to writing to it, does nothing while data is held in memory
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        if (out != null && pending == null) {
+            out.flush();
+        }
+    }
+
+    /**
+     * Starts writing the data held in memory to the file on the executor, and writes to the file from then on
+     * Does nothing if already writing to the file. Returns straight away, so may be called on any thread
+     * @param reason String: why, passed to the listener
+     */
+    synchronized void spill(String reason) {
+        if (buffer == null || closed) {
+            return;
+        }
+
+        writeOutAsync();
+        listener.onSpill(file, reason);
+    }
+
+    /**
+     * @return boolean: true if data is being written to the file rather than held in memory
+     */
+    synchronized boolean isSpilled() {
+        return buffer == null;
+    }
+
+    /**
+     * Closes the stream, writing any data held in memory to the file in one pass on the executor, then closing the
+     * file. Returns without waiting for the file to be written, see Listener.onPersisted
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        if (buffer != null) {
+            writeOutAsync();
+        } else if (pending == null) {
+            finish();
+        }
+        // Otherwise the write out in progress finishes the file
+    }
+
+    /**
+     * Hands the data held in memory to the executor to be written out, holding later writes until it is done
+     */
+    private void writeOutAsync() {
+        final ByteBuffer held = buffer;
+        buffer = null;
+        pending = new ByteArrayOutputStream();
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                writeOut(held);
+            }
+        });
+    }
+
+    /**
+     * Writes the data held in memory to the file, then the data written meanwhile, on the executor
+     * The file is only written by this thread until pending is cleared, so the held data is written without the lock
+     * @param held ByteBuffer: the data held in memory
+     */
+    private void writeOut(ByteBuffer held) {
+        FileOutputStream stream = null;
+        IOException error = null;
+
+        try {
+            stream = new FileOutputStream(file);
+            held.flip();
+            while (held.hasRemaining()) {
+                stream.getChannel().write(held);
+            }
+        }
+        catch (IOException ex) {
+            error = ex;
+        }
+
+        synchronized (this) {
+            out = stream;
+            try {
+                if (error == null) {
+                    pending.writeTo(out);
+                }
+            }
+            catch (IOException ex) {
+                error = ex;
+            }
+            pending = null;
+            failure = error;
+
+            if (closed) {
+                finish();
+            }
+        }
+    }
+
+    /**
+     * Closes the file once all data is written, and notifies the listener
+     */
+    private void finish() {
+        IOException error = failure;
+        try {
+            if (out != null) {
+                out.close();
+            }
+        }
+        catch (IOException ex) {
+            error = error != null ? error : ex;
+        }
+        listener.onPersisted(file, error);
+    }
+}
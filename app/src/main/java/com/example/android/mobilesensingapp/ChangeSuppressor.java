@@ -0,0 +1,141 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp;
+
+import com.example.android.mobilesensingapp.format.RunLengthCsvReader;
+
+import org.sensingkit.sensingkitlib.SKSensorModuleType;
+import org.sensingkit.sensingkitlib.data.SKSensorData;
+
+/**
+ * Class to drop readings of slow sensors that repeat the last reading written, recording them in a run record instead
+ * By default a reading is a repeat only if every field is identical to the last written value, so that, with the
+ * time of each repeat kept in the run record, files are read back exactly as if every reading had been written.
+ * An explicitly lossy deadband can also count small changes in light and temperature as repeats, which are then read
+ * back with the last written value.
+ * A reading is written regardless once the heartbeat interval has passed or the run is MAX_RUN_LENGTH long, so that
+ * gaps in a file and the length of run records are bounded.
+ * See RunLengthCsvReader for the run record format and how files are read back at full resolution
+ * Used only from the thread data is delivered on
+ */
+class ChangeSuppressor {
+
+    // Longest run, so that a run record stays well within a session log record
+    static final int MAX_RUN_LENGTH = 1000;
+
+    private final float deadbandFraction;
+    private final long heartbeatMillis;
+    private final float[] values;
+    private final float[] lastValues;
+    private boolean hasLast = false;
+    private long lastWritten;
+    private int runCount = 0;
+    private long runEnd;
+    // Timestamp the next repeat's delta is measured from: the last written reading, or the last repeat, even of a
+    // run already ended by takeRun, as that is the timestamp the reader has just rebuilt
+    private long deltaAnchor;
+    // Time from the delta anchor to each repeat, then between repeats, separated by ';'
+    private final StringBuilder runDeltas = new StringBuilder();
+
+    /**
+     * Constructor
+     * @param sensorType SKSensorModuleType: the sensor, one for which isSuppressible is true
+     * @param deadbandPercent float: change in a field, as a percentage of its last written value, still counted as a
+     *                        repeat, losing the change. 0 for lossless suppression. Applies to light and ambient
+     *                        temperature only, other sensors must repeat exactly
+     * @param heartbeatMillis long: longest time between written readings
+     */
+    ChangeSuppressor(SKSensorModuleType sensorType, float deadbandPercent, long heartbeatMillis) {
+        boolean continuous = sensorType == SKSensorModuleType.LIGHT || sensorType == SKSensorModuleType.AMBIENT_TEMPERATURE;
+        this.deadbandFraction = continuous ? Math.max(0, deadbandPercent) / 100 : 0;
+        this.heartbeatMillis = heartbeatMillis;
+        this.values = new float[SensorValues.getFieldCount(sensorType)];
+        this.lastValues = new float[values.length];
+    }
+
+    /**
+     * Checks whether change suppression applies to a sensor
+     * @param sensorType SKSensorModuleType: the sensor
+     * @return boolean: true for slow sensors that often report the same value
+     */
+    static boolean isSuppressible(SKSensorModuleType sensorType) {
+        switch (sensorType) {
+            case BATTERY:
+            case LIGHT:
+            case AMBIENT_TEMPERATURE:
+            case STEP_COUNTER:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Decides whether a reading is written, counting it into the current run if not
+     * When true is returned, any run ended by the reading must be written first, see takeRun
+     * @param data SKSensorData: the reading
+     * @return boolean: true if the reading should be written
+     */
+    boolean accept(SKSensorData data) {
+        long timestamp = SensorValues.getTimestamp(data);
+        SensorValues.getValues(data, values);
+
+        if (hasLast && isRepeat() && timestamp - lastWritten < heartbeatMillis && runCount < MAX_RUN_LENGTH) {
+            if (runCount > 0) {
+                runDeltas.append(';');
+            }
+            runDeltas.append(timestamp - deltaAnchor);
+            runCount++;
+            runEnd = timestamp;
+            deltaAnchor = timestamp;
+            return false;
+        }
+
+        System.arraycopy(values, 0, lastValues, 0, values.length);
+        hasLast = true;
+        lastWritten = timestamp;
+        deltaAnchor = timestamp;
+        return true;
+    }
+
+    /**
+     * Ends the current run, e.g. before writing a reading or flushing
+     * A run ended by a flush may be followed by another run of the same value, whose first delta is then measured from
+     * this run's last repeat
+     * @return String: the run record, or null if no readings have been dropped since the last call
+     */
+    String takeRun() {
+        if (runCount == 0) {
+            return null;
+        }
+
+        String run = RunLengthCsvReader.formatRun(runEnd, runCount, runDeltas);
+        runCount = 0;
+        runDeltas.setLength(0);
+        return run;
+    }
+
+    private boolean isRepeat() {
+        for (int i = 0; i < values.length; i++) {
+            // Compared as bits when lossless, as 0 and -0 are written differently
+            if (deadbandFraction == 0) {
+                if (Float.floatToIntBits(values[i]) != Float.floatToIntBits(lastValues[i])) {
+                    return false;
+                }
+                continue;
+            }
+            float difference = Math.abs(values[i] - lastValues[i]);
+            // Written as a negated comparison so that NaN values never count as repeats
+            if (!(difference <= deadbandFraction * Math.abs(lastValues[i]))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Post session stage converting a session's numeric CSV files to the compressed series format, see SessionCompactor
+ * Safe to repeat, as files already converted are no longer CSV. Fails, to be retried, if any file can not be converted
+ */
+class CompactionStage implements PostSessionStage {
+
+    @Override
+    public String getName() {
+        return "compact";
+    }
+
+    @Override
+    public void run(File sessionFolder) throws IOException {
+        if (!SessionCompactor.isCompacted(sessionFolder)) {
+            SessionCompactor.compact(sessionFolder);
+        }
+    }
+}
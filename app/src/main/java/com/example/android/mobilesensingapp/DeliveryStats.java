@@ -0,0 +1,144 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp;
+
+import org.sensingkit.sensingkitlib.SKSensorModuleType;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Class to measure how promptly sensor data is delivered, see SensorDelivery
+ *   handoff: time data waits in the delivery thread's queue, in milliseconds
+ *   main_us: time SensingKit's calling thread spends on each reading, in microseconds, including writing it if
+ *   delivered directly, as on the main thread if there is no delivery thread
+ *   stalls: gaps of over STALL_MILLIS between readings of a high rate sensor, as when the main thread is too busy to
+ *   take readings from SensingKit, with the longest gap as max_gap
+ * Arrivals and their cost are recorded on the thread SensingKit calls on, the main thread or its own thread for
+ * Audio Level, and handoff on the delivery thread, so every method is synchronized
+ */
+class DeliveryStats {
+
+    // Gap between readings of a high rate sensor counted as a stall, far above the interval of any high rate sensor
+    static final long STALL_MILLIS = 100;
+    // Latencies are counted in 1 ms buckets up to this, longer latencies in the last bucket
+    private static final int MAX_BUCKET_MILLIS = 1000;
+
+    private final boolean[] highRate;
+    private final long[] lastArrival;
+    private final long[] handoffCounts = new long[MAX_BUCKET_MILLIS + 1];
+    private long handoffMax = 0;
+    private long mainNanos = 0;
+    private long mainMaxNanos = 0;
+    private long mainCount = 0;
+    private int stalls = 0;
+    private long maxGap = 0;
+
+    /**
+     * Constructor
+     * @param sensorTypes List: the session's sensors
+     */
+    DeliveryStats(List<SKSensorModuleType> sensorTypes) {
+        highRate = new boolean[sensorTypes.size()];
+        lastArrival = new long[sensorTypes.size()];
+
+        for (int i = 0; i < highRate.length; i++) {
+            highRate[i] = SensorValues.isHighRate(sensorTypes.get(i));
+        }
+    }
+
+    /**
+     * Records a reading arriving from SensingKit
+     * @param index int: index of the reading's sensor
+     * @param uptimeMillis long: time of arrival, on the uptime clock
+     */
+    synchronized void onArrival(int index, long uptimeMillis) {
+        if (highRate[index] && lastArrival[index] > 0) {
+            long gap = uptimeMillis - lastArrival[index];
+            if (gap > STALL_MILLIS) {
+                stalls++;
+            }
+            maxGap = Math.max(maxGap, gap);
+        }
+        lastArrival[index] = uptimeMillis;
+    }
+
+    /**
+     * Records the time SensingKit's calling thread spent on a reading
+     * @param nanos long: the time in nanoseconds
+     */
+    synchronized void onMainThreadCost(long nanos) {
+        mainNanos += nanos;
+        mainMaxNanos = Math.max(mainMaxNanos, nanos);
+        mainCount++;
+    }
+
+    /**
+     * Records the time a reading waited for the delivery thread
+     * @param millis long: the time in milliseconds
+     */
+    synchronized void onHandoff(long millis) {
+        handoffCounts[(int) Math.max(0, Math.min(MAX_BUCKET_MILLIS, millis))]++;
+        handoffMax = Math.max(handoffMax, millis);
+    }
+
+    /**
+     * @return String: the measurements as space separated name=value pairs
+     */
+    synchronized String summarise() {
+        long mainMean = mainCount > 0 ? mainNanos / mainCount / 1000 : 0;
+        return "readings=" + mainCount
+                + " handoff_p50=" + percentile(0.5)
+                + " handoff_p99=" + percentile(0.99)
+                + " handoff_max=" + handoffMax
+                + " main_us_mean=" + mainMean
+                + " main_us_max=" + mainMaxNanos / 1000
+                + " stalls=" + stalls
+                + " max_gap=" + maxGap;
+    }
+
+    /**
+     * Clears the measurements, including the time of each sensor's last reading, so that the first reading after the
+     * session is stopped and restarted is not measured as a stall
+     */
+    synchronized void reset() {
+        for (int i = 0; i < handoffCounts.length; i++) {
+            handoffCounts[i] = 0;
+        }
+        Arrays.fill(lastArrival, 0);
+        handoffMax = 0;
+        mainNanos = 0;
+        mainMaxNanos = 0;
+        mainCount = 0;
+        stalls = 0;
+        maxGap = 0;
+    }
+
+    /**
+     * Reads a percentile of the handoff latency from its histogram
+     * @param fraction double: the percentile as a fraction, e.g. 0.99
+     * @return int: the latency in milliseconds, at most MAX_BUCKET_MILLIS, 0 if nothing was handed off
+     */
+    private int percentile(double fraction) {
+        long total = 0;
+        for (long count : handoffCounts) {
+            total += count;
+        }
+
+        long target = (long) Math.ceil(total * fraction);
+        long seen = 0;
+        for (int i = 0; i < handoffCounts.length; i++) {
+            seen += handoffCounts[i];
+            if (seen >= target && seen > 0) {
+                return i;
+            }
+        }
+        return 0;
+    }
+}
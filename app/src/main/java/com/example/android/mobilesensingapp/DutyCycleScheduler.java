@@ -0,0 +1,287 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Build;
+import android.os.Handler;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.sensingkit.sensingkitlib.SKException;
+import org.sensingkit.sensingkitlib.SKSensorModuleType;
+
+import java.util.EnumSet;
+
+/**
+ * Class to duty cycle a sensor session, sensing with each group of sensors for a window of X seconds every Y seconds
+ * Windows are opened by wake up alarms, so the CPU is only kept awake (by wake lock) while a window is open
+ * Window boundaries are written to the session event file
+ */
+class DutyCycleScheduler extends BroadcastReceiver {
+
+    // Debug Tag for use logging debug output to LogCat
+    private static final String TAG = "DutyCycleScheduler";
+    private static final String ACTION_WINDOW = "com.example.android.mobilesensingapp.DUTY_CYCLE_WINDOW";
+    private static final String EXTRA_GROUP = "group";
+    // Extra time the wake lock is held beyond the end of a window, in case the window end is delayed
+    private static final long WAKE_LOCK_MARGIN_MILLIS = 10000;
+
+    private final Context context;
+    private final SensorSession session;
+    private final AlarmManager alarmManager;
+    private final Handler handler = new Handler();
+    private final SensorGroup[] groups;
+    private PowerManager.WakeLock wakeLock;
+    private long wakeLockUntil = 0;
+    private boolean running = false;
+
+    /**
+     * Constructor
+     * Reads window length and period for each sensor group from shared preferences
+     * @param context Sensor service context, used to schedule alarms and hold the wake lock
+     * @param session SensorSession: the session to duty cycle, started with all sensors suspended
+     */
+    DutyCycleScheduler(Context context, SensorSession session) {
+        this.context = context;
+        this.session = session;
+        this.alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+
+        PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        if (pm != null) {
+            wakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "DutyCycleWakeLock");
+            wakeLock.setReferenceCounted(false);
+        }
+
+        SharedPreferenceManager preferenceManager = new SharedPreferenceManager();
+        groups = new SensorGroup[] {
+                new SensorGroup(0, "motion", EnumSet.of(
+                        SKSensorModuleType.ACCELEROMETER,
+                        SKSensorModuleType.GRAVITY,
+                        SKSensorModuleType.LINEAR_ACCELERATION,
+                        SKSensorModuleType.GYROSCOPE,
+                        SKSensorModuleType.ROTATION,
+                        SKSensorModuleType.MAGNETOMETER,
+                        SKSensorModuleType.STEP_DETECTOR),
+                        preferenceManager.getDutyCycleSeconds(context, SharedPreferenceManager.DUTY_MOTION_ON, 30),
+                        preferenceManager.getDutyCycleSeconds(context, SharedPreferenceManager.DUTY_MOTION_PERIOD, 300)),
+                new SensorGroup(1, "environment", EnumSet.of(
+                        SKSensorModuleType.AMBIENT_TEMPERATURE,
+                        SKSensorModuleType.LIGHT,
+                        SKSensorModuleType.STEP_COUNTER,
+                        SKSensorModuleType.BATTERY,
+                        SKSensorModuleType.AUDIO_LEVEL),
+                        preferenceManager.getDutyCycleSeconds(context, SharedPreferenceManager.DUTY_ENVIRONMENT_ON, 10),
+                        preferenceManager.getDutyCycleSeconds(context, SharedPreferenceManager.DUTY_ENVIRONMENT_PERIOD, 600))
+        };
+    }
+
+    /**
+     * Starts duty cycling, opening the first window of every group immediately
+     */
+    void start() {
+        if (running) {
+            return;
+        }
+
+        running = true;
+        context.registerReceiver(this, new IntentFilter(ACTION_WINDOW));
+
+        long now = SystemClock.elapsedRealtime();
+        for (SensorGroup group : groups) {
+            group.nextStart = now;
+            openWindow(group);
+        }
+    }
+
+    /**
+     * Stops duty cycling, cancelling pending alarms and closing any open windows
+     */
+    void stop() {
+        if (!running) {
+            return;
+        }
+
+        running = false;
+        context.unregisterReceiver(this);
+
+        for (SensorGroup group : groups) {
+            alarmManager.cancel(group.alarmIntent);
+            handler.removeCallbacks(group.closeWindow);
+            if (group.active) {
+                closeWindow(group);
+            }
+        }
+
+        releaseWakeLock();
+    }
+
+    /**
+     * Receives the wake up alarm for the start of a group's window
+     * The alarm manager holds a wake lock until this returns, so the scheduler's own wake lock is acquired here
+     * @param context The context in which the receiver is running
+     * @param intent The alarm intent, identifying the group
+     */
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        int index = intent.getIntExtra(EXTRA_GROUP, -1);
+
+        if (!running || index < 0 || index >= groups.length) {
+            return;
+        }
+
+        SensorGroup group = groups[index];
+
+        // Only possible when a window is as long as its period, in which case the windows run back to back
+        if (group.active) {
+            handler.removeCallbacks(group.closeWindow);
+            closeWindow(group);
+        }
+
+        openWindow(group);
+    }
+
+    /**
+     * Opens a window: holds the wake lock until the window ends, starts the group's sensors, schedules the window end
+     * and the alarm for the next window
+     * @param group SensorGroup: the group to start sensing with
+     */
+    private void openWindow(SensorGroup group) {
+        long now = SystemClock.elapsedRealtime();
+        acquireWakeLock(now + group.onMillis + WAKE_LOCK_MARGIN_MILLIS);
+
+        group.active = true;
+        session.logEvent(System.currentTimeMillis(), "window_start", group.name);
+
+        try {
+            for (SKSensorModuleType sensorType : group.sensors) {
+                session.resumeSensor(sensorType);
+            }
+        }
+        catch (SKException ex) {
+            Log.e(TAG, ex.getMessage());
+        }
+
+        handler.postDelayed(group.closeWindow, group.onMillis);
+
+        // Schedule from the planned start rather than now, so that late alarms do not accumulate drift
+        do {
+            group.nextStart += group.periodMillis;
+        } while (group.nextStart <= now);
+
+        setAlarm(group.nextStart, group.alarmIntent);
+    }
+
+    /**
+     * Closes a window: suspends the group's sensors, releasing the wake lock if no other window is open
+     * @param group SensorGroup: the group to stop sensing with
+     */
+    private void closeWindow(SensorGroup group) {
+        try {
+            for (SKSensorModuleType sensorType : group.sensors) {
+                session.suspendSensor(sensorType);
+            }
+        }
+        catch (SKException ex) {
+            Log.e(TAG, ex.getMessage());
+        }
+
+        group.active = false;
+        session.logEvent(System.currentTimeMillis(), "window_end", group.name);
+
+        for (SensorGroup other : groups) {
+            if (other.active) {
+                return;
+            }
+        }
+
+        releaseWakeLock();
+    }
+
+    /**
+     * Sets a wake up alarm, exact where the platform allows it
+     * Note that from Marshmallow, alarms allowed while idle fire at most every ~9 minutes in Doze
+     * @param triggerAtMillis long: elapsed realtime to fire the alarm at
+     * @param operation PendingIntent: the broadcast to send
+     */
+    private void setAlarm(long triggerAtMillis, PendingIntent operation) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            alarmManager.setExactAndAllowWhileIdle(AlarmManager.ELAPSED_REALTIME_WAKEUP, triggerAtMillis, operation);
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            alarmManager.setExact(AlarmManager.ELAPSED_REALTIME_WAKEUP, triggerAtMillis, operation);
+        } else {
+            alarmManager.set(AlarmManager.ELAPSED_REALTIME_WAKEUP, triggerAtMillis, operation);
+        }
+    }
+
+    /**
+     * Holds the wake lock until at least the given time, extending it if already held
+     * @param untilMillis long: elapsed realtime the wake lock should be held until
+     */
+    private void acquireWakeLock(long untilMillis) {
+        if (wakeLock == null) {
+            return;
+        }
+
+        if (!wakeLock.isHeld() || untilMillis > wakeLockUntil) {
+            wakeLockUntil = untilMillis;
+            wakeLock.acquire(untilMillis - SystemClock.elapsedRealtime());
+        }
+    }
+
+    /**
+     * Releases the wake lock, called when no window is open
+     */
+    private void releaseWakeLock() {
+        if (wakeLock != null && wakeLock.isHeld()) {
+            wakeLock.release();
+        }
+        wakeLockUntil = 0;
+    }
+
+    /**
+     * A group of sensors duty cycled together, with its own window length and period
+     */
+    private class SensorGroup {
+        final String name;
+        final EnumSet<SKSensorModuleType> sensors;
+        final long onMillis;
+        final long periodMillis;
+        final PendingIntent alarmIntent;
+        final Runnable closeWindow;
+        long nextStart;
+        boolean active = false;
+
+        SensorGroup(int index, String name, EnumSet<SKSensorModuleType> sensors, int onSeconds, int periodSeconds) {
+            this.name = name;
+            this.sensors = sensors;
+            this.periodMillis = Math.max(1, periodSeconds) * 1000L;
+            // A window can not be longer than its period, in which case the group is effectively continuous
+            this.onMillis = Math.min(Math.max(1, onSeconds) * 1000L, periodMillis);
+
+            Intent intent = new Intent(ACTION_WINDOW);
+            intent.setPackage(context.getPackageName());
+            intent.putExtra(EXTRA_GROUP, index);
+            this.alarmIntent = PendingIntent.getBroadcast(context, index, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+
+            this.closeWindow = new Runnable() {
+                @Override
+                public void run() {
+                    closeWindow(SensorGroup.this);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp;
+
+import java.io.File;
+
+/**
+ * Class to measure and delete folders of session data, shared by StorageManager and SessionMigrator
+ * Uses no Android APIs, so that it can be tested on the JVM
+ */
+final class Folders {
+
+    private Folders() {
+    }
+
+    /**
+     * Measures a file, or a folder and all of its contents
+     * @param file File: the file or folder
+     * @return long: the size in bytes, 0 if it does not exist
+     */
+    static long sizeOf(File file) {
+        if (file.isFile()) {
+            return file.length();
+        }
+
+        long size = 0;
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                size += sizeOf(child);
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Deletes a file, or a folder and all of its contents
+     * @param file File: the file or folder
+     * @return boolean: true if it was deleted
+     */
+    static boolean delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        return file.delete();
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * Synthetic load keeping the main thread busy for a share of each PERIOD_MILLIS, as UI jank or slow lifecycle work would,
+ * for measuring how sensor delivery copes with a busy main thread, see DeliveryStats
+ * For diagnostics only, enabled via settings screen
+ */
+class MainThreadLoad {
+
+    // Length of each busy and idle cycle, similar to a burst of heavy UI work
+    static final long PERIOD_MILLIS = 200;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final long busyMillis;
+    private final Runnable cycle = new Runnable() {
+        @Override
+        public void run() {
+            long end = SystemClock.uptimeMillis() + busyMillis;
+            while (SystemClock.uptimeMillis() < end) {
+                // Busy wait, holding the main thread as heavy work would
+            }
+            handler.postDelayed(this, PERIOD_MILLIS - busyMillis);
+        }
+    };
+
+    /**
+     * Constructor
+     * @param percent int: share of each period the main thread is kept busy, from 0 to 90
+     */
+    MainThreadLoad(int percent) {
+        this.busyMillis = PERIOD_MILLIS * Math.max(0, Math.min(90, percent)) / 100;
+    }
+
+    /**
+     * Starts the load, does nothing if the load is 0 percent
+     */
+    void start() {
+        handler.removeCallbacks(cycle);
+        if (busyMillis > 0) {
+            handler.postDelayed(cycle, PERIOD_MILLIS);
+        }
+    }
+
+    /**
+     * Stops the load
+     */
+    void stop() {
+        handler.removeCallbacks(cycle);
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp;
+
+import android.annotation.TargetApi;
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.os.Build;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Job running the post session pipeline on a background thread once the device is charging or idle
+ * If the job is stopped because the device is unplugged or in use, the pipeline stops after its current stage,
+ * and the job is rescheduled to resume from its checkpoint
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class PostSessionJobService extends JobService {
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private volatile boolean stopped = false;
+
+    /**
+     * Starts the pipeline on the background thread
+     * @param params JobParameters: the job, passed back when finished
+     * @return boolean: true as the work continues on the background thread
+     */
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        stopped = false;
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean done = PostSessionScheduler.runPipeline(getApplicationContext(), new PostSessionPipeline.Condition() {
+                    @Override
+                    public boolean canContinue() {
+                        return !stopped;
+                    }
+                });
+
+                if (!stopped) {
+                    // Reschedule if sessions remain, e.g. after a failed stage, unless deferred for a session being
+                    // recorded, which schedules the pipeline again once closed
+                    jobFinished(params, !done && hasPendingWork() && !SensorService.hasActiveSession());
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Called when the job's constraint is no longer met
+     * @param params JobParameters: the job
+     * @return boolean: true to reschedule the job
+     */
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        stopped = true;
+        return true;
+    }
+
+    @Override
+    public void onDestroy() {
+        executor.shutdown();
+        super.onDestroy();
+    }
+
+    private boolean hasPendingWork() {
+        try {
+            return PostSessionScheduler.hasPendingWork(getApplicationContext());
+        }
+        catch (IOException ex) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Runs an ordered list of PostSessionStages on closed sessions queued in a PostSessionQueue
+ * Each completed stage is recorded in a checkpoint file in the session folder, so that a pipeline killed part way
+ * through resumes at the stage it was running. A failed stage is recorded there too, and its session retried after
+ * a delay doubling with each failure, while the sessions queued after it are processed
+ * Uses no Android APIs, see PostSessionScheduler for when it is run
+ */
+class PostSessionPipeline {
+
+    // Checkpoint file in each session folder, listing the stages completed and the last failure
+    static final String CHECKPOINT_FILE = ".pipeline";
+    // Starts the checkpoint line of a failure: failed,<attempts>,<time of next attempt>,<error>
+    private static final String FAILURE_PREFIX = "failed,";
+    // Delay before retrying a session after its first failure, as often as the pre-Lollipop alarm
+    static final long RETRY_DELAY_MS = 30 * 60 * 1000L;
+    static final long MAX_RETRY_DELAY_MS = 24 * 60 * 60 * 1000L;
+
+    /**
+     * The last failure recorded on a session, cleared once a stage completes
+     */
+    static final class Failure {
+
+        final int attempts;
+        final long retryAt;
+        final String error;
+
+        Failure(int attempts, long retryAt, String error) {
+            this.attempts = attempts;
+            this.retryAt = retryAt;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Checked between stages, so that the pipeline stops once it may no longer run, e.g. when unplugged
+     */
+    interface Condition {
+        boolean canContinue();
+    }
+
+    private final List<PostSessionStage> stages;
+
+    /**
+     * Constructor
+     * @param stages List: the stages, run in order
+     */
+    PostSessionPipeline(List<PostSessionStage> stages) {
+        this.stages = new ArrayList<>(stages);
+    }
+
+    /**
+     * Processes queued sessions in order until the queue is empty or the condition fails
+     * Sessions that no longer exist, e.g. deleted to free storage, are dropped from the queue
+     * @param queue PostSessionQueue: the queue of closed sessions
+     * @param condition Condition: checked before each stage
+     * @return boolean: true if every queued session was processed
+     * @throws IOException if the queue or a checkpoint can not be read or written
+     */
+    boolean runQueue(PostSessionQueue queue, Condition condition) throws IOException {
+        return runQueue(queue, condition, System.currentTimeMillis());
+    }
+
+    /**
+     * Processes queued sessions in order until the queue is empty or the condition fails
+     * A session whose stage fails stays queued, with the failure recorded in its checkpoint, and is skipped until
+     * its retry is due, so that it does not hold up the sessions queued after it
+     * @param queue PostSessionQueue: the queue of closed sessions
+     * @param condition Condition: checked before each stage
+     * @param now long: the current time in milliseconds, to which retries are compared
+     * @return boolean: true if every queued session was processed, false if stopped by the condition, or if a
+     *                  session failed or awaits its retry
+     * @throws IOException if the queue or a checkpoint can not be read or written
+     */
+    boolean runQueue(PostSessionQueue queue, Condition condition, long now) throws IOException {
+        boolean processedAll = true;
+
+        for (File session : queue.getSessions()) {
+            if (!session.isDirectory()) {
+                queue.remove(session);
+                continue;
+            }
+
+            Failure failure = readFailure(session);
+            if (failure != null && failure.retryAt > now) {
+                processedAll = false;
+                continue;
+            }
+
+            try {
+                if (!process(session, condition)) {
+                    return false;
+                }
+            }
+            catch (IOException ex) {
+                recordFailure(session, failure == null ? 1 : failure.attempts + 1, now, ex);
+                processedAll = false;
+                continue;
+            }
+            queue.remove(session);
+        }
+        return processedAll;
+    }
+
+    /**
+     * Runs the stages not yet completed on a session
+     * @param sessionFolder File: folder of the closed session
+     * @param condition Condition: checked before each stage
+     * @return boolean: true if every stage has completed
+     * @throws IOException if a stage fails
+     */
+    boolean process(File sessionFolder, Condition condition) throws IOException {
+        Set<String> completed = readCheckpoint(sessionFolder);
+
+        for (PostSessionStage stage : stages) {
+            if (completed.contains(stage.getName())) {
+                continue;
+            }
+            if (!condition.canContinue()) {
+                return false;
+            }
+
+            stage.run(sessionFolder);
+            completed.add(stage.getName());
+            writeCheckpoint(sessionFolder, completed, null);
+        }
+        return true;
+    }
+
+    /**
+     * Reads the names of the stages completed on a session
+     * @param sessionFolder File: folder of the session
+     * @return Set: the stage names, empty if none have completed
+     */
+    static Set<String> readCheckpoint(File sessionFolder) throws IOException {
+        Set<String> completed = new HashSet<>();
+        for (String line : readCheckpointLines(sessionFolder)) {
+            if (!line.startsWith(FAILURE_PREFIX)) {
+                completed.add(line);
+            }
+        }
+        return completed;
+    }
+
+    /**
+     * Reads the last failure recorded on a session
+     * @param sessionFolder File: folder of the session
+     * @return Failure: the failure, or null if none was recorded since a stage last completed
+     */
+    static Failure readFailure(File sessionFolder) throws IOException {
+        for (String line : readCheckpointLines(sessionFolder)) {
+            if (line.startsWith(FAILURE_PREFIX)) {
+                String[] fields = line.split(",", 4);
+                try {
+                    return new Failure(Integer.parseInt(fields[1]), Long.parseLong(fields[2]),
+                            fields.length > 3 ? fields[3] : "");
+                }
+                catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+                    // Retried straight away
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Records a failed attempt in the checkpoint, keeping the stages completed
+     */
+    private static void recordFailure(File sessionFolder, int attempts, long now, IOException ex) throws IOException {
+        long delay = Math.min(RETRY_DELAY_MS << Math.min(attempts - 1, 16), MAX_RETRY_DELAY_MS);
+        String error = String.valueOf(ex.getMessage()).replace('\n', ' ').replace('\r', ' ');
+        writeCheckpoint(sessionFolder, readCheckpoint(sessionFolder),
+                FAILURE_PREFIX + attempts + "," + (now + delay) + "," + error);
+    }
+
+    private static List<String> readCheckpointLines(File sessionFolder) throws IOException {
+        File checkpoint = new File(sessionFolder, CHECKPOINT_FILE);
+        List<String> lines = new ArrayList<>();
+        if (!checkpoint.exists()) {
+            return lines;
+        }
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(checkpoint), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    lines.add(line);
+                }
+            }
+        }
+        finally {
+            reader.close();
+        }
+        return lines;
+    }
+
+    /**
+     * Replaces the checkpoint through a temporary file, so that it is never left half written
+     * @param failure String: the failure line, or null if the last attempt did not fail
+     */
+    private static void writeCheckpoint(File sessionFolder, Set<String> completed, String failure) throws IOException {
+        File temporary = new File(sessionFolder, CHECKPOINT_FILE + ".tmp");
+        List<String> names = new ArrayList<>(completed);
+        Collections.sort(names);
+
+        FileOutputStream out = new FileOutputStream(temporary);
+        try {
+            Writer writer = new OutputStreamWriter(out, "UTF-8");
+            for (String name : names) {
+                writer.write(name);
+                writer.write('\n');
+            }
+            if (failure != null) {
+                writer.write(failure);
+                writer.write('\n');
+            }
+            writer.flush();
+            out.getFD().sync();
+        }
+        finally {
+            out.close();
+        }
+
+        if (!temporary.renameTo(new File(sessionFolder, CHECKPOINT_FILE))) {
+            throw new IOException("Checkpoint could not be written in " + sessionFolder);
+        }
+    }
+}
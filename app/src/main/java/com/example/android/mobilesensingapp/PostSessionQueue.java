@@ -0,0 +1,115 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Persistent queue of closed sessions waiting for the PostSessionPipeline, one session folder path per line of a file
+ * Uses no Android APIs, so that it can be tested on the JVM
+ */
+class PostSessionQueue {
+
+    static final String FILENAME = "post_session_queue";
+
+    private final File file;
+
+    /**
+     * Constructor
+     * @param file File: the queue file, created when the first session is added
+     */
+    PostSessionQueue(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Adds a session to the end of the queue, if not already queued
+     * @param sessionFolder File: folder of the closed session
+     */
+    synchronized void add(File sessionFolder) throws IOException {
+        List<File> sessions = getSessions();
+        if (!sessions.contains(sessionFolder)) {
+            sessions.add(sessionFolder);
+            write(sessions);
+        }
+    }
+
+    /**
+     * Removes a session from the queue
+     * @param sessionFolder File: folder of the session
+     */
+    synchronized void remove(File sessionFolder) throws IOException {
+        List<File> sessions = getSessions();
+        if (sessions.remove(sessionFolder)) {
+            write(sessions);
+        }
+    }
+
+    /**
+     * @return List: the queued sessions, oldest first
+     */
+    synchronized List<File> getSessions() throws IOException {
+        List<File> sessions = new ArrayList<>();
+        if (!file.exists()) {
+            return sessions;
+        }
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    sessions.add(new File(line));
+                }
+            }
+        }
+        finally {
+            reader.close();
+        }
+        return sessions;
+    }
+
+    /**
+     * @return boolean: true if no sessions are queued
+     */
+    boolean isEmpty() throws IOException {
+        return getSessions().isEmpty();
+    }
+
+    private void write(List<File> sessions) throws IOException {
+        File temporary = new File(file.getPath() + ".tmp");
+
+        FileOutputStream out = new FileOutputStream(temporary);
+        try {
+            Writer writer = new OutputStreamWriter(out, "UTF-8");
+            for (File session : sessions) {
+                writer.write(session.getAbsolutePath());
+                writer.write('\n');
+            }
+            writer.flush();
+            out.getFD().sync();
+        }
+        finally {
+            out.close();
+        }
+
+        if (!temporary.renameTo(file)) {
+            throw new IOException("Queue could not be written to " + file);
+        }
+    }
+}
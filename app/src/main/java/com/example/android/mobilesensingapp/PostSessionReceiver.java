@@ -0,0 +1,81 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.os.PowerManager;
+import android.util.Log;
+
+import java.io.IOException;
+
+/**
+ * Receives the post session alarm on devices without JobScheduler (before Lollipop)
+ * If the device is charging or its screen is off, runs the pipeline on a background thread for up to TIME_BUDGET_MILLIS,
+ * holding a wake lock. Work left over resumes from its checkpoint on the next alarm
+ */
+public class PostSessionReceiver extends BroadcastReceiver {
+
+    // Debug Tag for use logging debug output to LogCat
+    private static final String TAG = "PostSessionReceiver";
+    // Kept well within the time the system allows a broadcast receiver
+    private static final long TIME_BUDGET_MILLIS = 50000;
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        final Context appContext = context.getApplicationContext();
+
+        try {
+            if (!PostSessionScheduler.hasPendingWork(appContext)) {
+                PostSessionScheduler.cancelAlarm(appContext);
+                return;
+            }
+        }
+        catch (IOException ex) {
+            Log.e(TAG, ex.getMessage());
+            return;
+        }
+
+        if (!PostSessionScheduler.canRun(appContext)) {
+            return;
+        }
+
+        PowerManager pm = (PowerManager) appContext.getSystemService(Context.POWER_SERVICE);
+        final PowerManager.WakeLock wakeLock = pm != null ? pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "PostSessionWakeLock") : null;
+        if (wakeLock != null) {
+            wakeLock.acquire(TIME_BUDGET_MILLIS + 10000);
+        }
+
+        final PendingResult result = goAsync();
+        final long deadline = System.currentTimeMillis() + TIME_BUDGET_MILLIS;
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (PostSessionScheduler.runPipeline(appContext, new PostSessionPipeline.Condition() {
+                        @Override
+                        public boolean canContinue() {
+                            return System.currentTimeMillis() < deadline && PostSessionScheduler.canRun(appContext);
+                        }
+                    })) {
+                        PostSessionScheduler.cancelAlarm(appContext);
+                    }
+                }
+                finally {
+                    if (wakeLock != null && wakeLock.isHeld()) {
+                        wakeLock.release();
+                    }
+                    result.finish();
+                }
+            }
+        }, "PostSessionPipeline").start();
+    }
+}
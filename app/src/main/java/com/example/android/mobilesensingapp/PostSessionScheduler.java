@@ -0,0 +1,274 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp;
+
+import android.annotation.TargetApi;
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Class to queue closed sessions for the PostSessionPipeline, and to run it only while the device is charging or idle
+ * and no session is being recorded, so that heavy work never competes with live sensing. A pipeline that is deferred
+ * or stopped by a session starting is scheduled again when that session closes
+ * From Lollipop, the pipeline is run by PostSessionJobService, scheduled with charging and idle constraints.
+ * Before Lollipop, an inexact alarm wakes PostSessionReceiver, which runs it if the device is charging or the screen is off
+ * Sessions staged in internal storage are first moved to external storage, straight away on a background thread
+ * rather than waiting for the device to charge or idle, as they take up internal storage until moved. Moves that
+ * fail, e.g. while external storage is unavailable, are retried each time the pipeline runs
+ */
+final class PostSessionScheduler {
+
+    // Debug Tag for use logging debug output to LogCat
+    private static final String TAG = "PostSessionScheduler";
+    static final int JOB_CHARGING = 1;
+    static final int JOB_IDLE = 2;
+    // Ensures the queue is only processed by one job or receiver at a time
+    private static final AtomicBoolean running = new AtomicBoolean(false);
+    // Ensures staged sessions are only moved by one thread at a time
+    private static final Object migrationLock = new Object();
+
+    private PostSessionScheduler() {
+    }
+
+    /**
+     * Queues a closed session and schedules the pipeline, first moving the session out of staging if staged
+     * @param context Application context
+     * @param sessionFolder File: folder of the closed session
+     */
+    static void enqueue(Context context, File sessionFolder) {
+        try {
+            if (StorageManager.isStaged(context, sessionFolder)) {
+                getMigrationQueue(context).add(sessionFolder);
+                migrateAsync(context);
+                return;
+            }
+            getQueue(context).add(sessionFolder);
+        }
+        catch (IOException ex) {
+            Log.e(TAG, ex.getMessage());
+            return;
+        }
+        schedule(context);
+    }
+
+    /**
+     * Schedules the pipeline to run once the device is charging or idle
+     * @param context Application context
+     */
+    static void schedule(Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            scheduleJobs(context);
+        } else {
+            AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+            if (alarmManager != null) {
+                alarmManager.setInexactRepeating(AlarmManager.ELAPSED_REALTIME,
+                        SystemClock.elapsedRealtime() + AlarmManager.INTERVAL_HALF_HOUR,
+                        AlarmManager.INTERVAL_HALF_HOUR, getAlarmIntent(context));
+            }
+        }
+    }
+
+    /**
+     * Cancels the pre-Lollipop alarm once the queue is empty
+     * @param context Application context
+     */
+    static void cancelAlarm(Context context) {
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        if (alarmManager != null) {
+            alarmManager.cancel(getAlarmIntent(context));
+        }
+    }
+
+    /**
+     * Runs the pipeline over every queued session, unless it is already running or a session is being recorded
+     * Stops after the current stage if a session is started
+     * Called on a background thread by PostSessionJobService or PostSessionReceiver
+     * @param context Application context
+     * @param condition PostSessionPipeline.Condition: checked before each stage
+     * @return boolean: true if the queue was emptied, false if stopped by the condition or a session, a failed stage,
+     *                  or already running
+     */
+    static boolean runPipeline(Context context, final PostSessionPipeline.Condition condition) {
+        if (SensorService.hasActiveSession() || !running.compareAndSet(false, true)) {
+            return false;
+        }
+
+        PostSessionPipeline.Condition notSensing = new PostSessionPipeline.Condition() {
+            @Override
+            public boolean canContinue() {
+                return !SensorService.hasActiveSession() && condition.canContinue();
+            }
+        };
+
+        try {
+            boolean migrated = migrateQueued(context, notSensing);
+            return createPipeline(context).runQueue(getQueue(context), notSensing) && migrated;
+        }
+        catch (IOException ex) {
+            Log.e(TAG, ex.getMessage());
+            return false;
+        }
+        finally {
+            running.set(false);
+        }
+    }
+
+    /**
+     * Checks whether the device is charging or not in use, and no session is being recorded, for devices without
+     * JobScheduler
+     * @param context Application context
+     * @return boolean: true if the pipeline may run
+     */
+    @SuppressWarnings("deprecation")
+    static boolean canRun(Context context) {
+        if (SensorService.hasActiveSession()) {
+            return false;
+        }
+
+        Intent battery = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery != null && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0) {
+            return true;
+        }
+
+        PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        return pm != null && !pm.isScreenOn();
+    }
+
+    /**
+     * Moves queued staged sessions to external storage, queueing each for the pipeline once moved
+     * @param context Application context
+     * @param condition PostSessionPipeline.Condition: checked before each session
+     * @return boolean: true if every staged session was moved
+     */
+    static boolean migrateQueued(Context context, PostSessionPipeline.Condition condition) {
+        synchronized (migrationLock) {
+            try {
+                PostSessionQueue migrationQueue = getMigrationQueue(context);
+
+                for (File session : migrationQueue.getSessions()) {
+                    File migrated = new File(StorageManager.getAppFolder(), session.getName());
+                    if (!session.isDirectory()) {
+                        // Moved by an earlier attempt that was killed before updating the queues
+                        if (migrated.isDirectory()) {
+                            getQueue(context).add(migrated);
+                        }
+                        migrationQueue.remove(session);
+                        continue;
+                    }
+                    if (!StorageManager.isExternalAvailable() || !condition.canContinue()) {
+                        return false;
+                    }
+
+                    migrated = SessionMigrator.migrate(session, StorageManager.getAppFolder(), StorageManager.LOW_FREE_BYTES);
+                    getQueue(context).add(migrated);
+                    migrationQueue.remove(session);
+                }
+                return true;
+            }
+            catch (IOException ex) {
+                Log.e(TAG, ex.getMessage());
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Checks whether any closed session is waiting to be moved or processed
+     * @param context Application context
+     * @return boolean: true if either queue holds a session
+     */
+    static boolean hasPendingWork(Context context) throws IOException {
+        return !getQueue(context).isEmpty() || !getMigrationQueue(context).isEmpty();
+    }
+
+    static PostSessionQueue getQueue(Context context) {
+        return new PostSessionQueue(new File(context.getFilesDir(), PostSessionQueue.FILENAME));
+    }
+
+    static PostSessionQueue getMigrationQueue(Context context) {
+        return new PostSessionQueue(new File(context.getFilesDir(), SessionMigrator.QUEUE_FILENAME));
+    }
+
+    /**
+     * Moves queued staged sessions on a background thread, then schedules the pipeline, which also retries moves
+     * that failed
+     */
+    private static void migrateAsync(final Context context) {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                migrateQueued(context, new PostSessionPipeline.Condition() {
+                    @Override
+                    public boolean canContinue() {
+                        return true;
+                    }
+                });
+                schedule(context);
+            }
+        }, "SessionMigration").start();
+    }
+
+    /**
+     * Creates the pipeline with the stages enabled by the user
+     * Compaction, if enabled, runs first so that the index lists the session's final files
+     * @param context Application context
+     * @return PostSessionPipeline: the pipeline
+     */
+    static PostSessionPipeline createPipeline(Context context) {
+        List<PostSessionStage> stages = new ArrayList<>();
+        if (new SharedPreferenceManager().postSessionCompactionIsEnabled(context)) {
+            stages.add(new CompactionStage());
+        }
+        stages.add(new SessionIndexStage());
+        return new PostSessionPipeline(stages);
+    }
+
+    /**
+     * Schedules one job requiring charging and one requiring device idle, whichever is met first runs the pipeline
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static void scheduleJobs(Context context) {
+        JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (jobScheduler == null) {
+            return;
+        }
+
+        ComponentName service = new ComponentName(context, PostSessionJobService.class);
+        jobScheduler.schedule(new JobInfo.Builder(JOB_CHARGING, service)
+                .setRequiresCharging(true)
+                .setPersisted(true)
+                .build());
+        jobScheduler.schedule(new JobInfo.Builder(JOB_IDLE, service)
+                .setRequiresDeviceIdle(true)
+                .setPersisted(true)
+                .build());
+    }
+
+    private static PendingIntent getAlarmIntent(Context context) {
+        Intent intent = new Intent(context, PostSessionReceiver.class);
+        return PendingIntent.getBroadcast(context, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+}
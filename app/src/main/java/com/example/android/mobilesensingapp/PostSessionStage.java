@@ -0,0 +1,32 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A step of work run on a closed session by the PostSessionPipeline, e.g. compaction or indexing
+ * Stages use no Android APIs, so that they can be run and tested on the JVM against a session folder.
+ * A stage may be killed part way through and is then run again from the start, so must be safe to repeat
+ */
+interface PostSessionStage {
+
+    /**
+     * @return String: name of the stage, recorded in the session's checkpoint once it has completed
+     */
+    String getName();
+
+    /**
+     * Runs the stage on a session
+     * @param sessionFolder File: folder of the closed session
+     * @throws IOException if the stage fails, to be retried later
+     */
+    void run(File sessionFolder) throws IOException;
+}
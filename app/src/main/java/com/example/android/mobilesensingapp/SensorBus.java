@@ -0,0 +1,272 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp;
+
+import android.os.Looper;
+import android.os.Process;
+
+import org.sensingkit.sensingkitlib.SKSensorDataListener;
+import org.sensingkit.sensingkitlib.SKSensorModuleType;
+import org.sensingkit.sensingkitlib.data.SKSensorData;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Single producer, multiple consumer ring of a session's sensor readings, in the manner of the LMAX Disruptor
+ * Readings are published once, as references to SensingKit's own (immutable) data objects, so are not copied
+ * Readings are published from a single thread, the session's delivery thread, see SensorDelivery
+ * Each consumer, e.g. a live chart or an analytics feature, runs on a thread of its own with its own sequence
+ * cursor, reading the readings of the sensors it subscribed to in batches, at its own pace
+ * The producer never waits for consumers to catch up: a consumer that falls more than the ring's capacity behind
+ * is lapped, skipping to the oldest reading still held and counting those it missed. Persistence is not one of
+ * these consumers, as it must not lose data, so the data writers are called by the producer before publishing,
+ * see SensorDelivery
+ */
+class SensorBus {
+
+    // Readings held for consumers, at the expected rate of every sensor
+    static final int CAPACITY_SECONDS = 2;
+    // Smallest ring, for sessions with only slow sensors
+    private static final int MIN_CAPACITY = 1024;
+
+    // Looper of the only thread readings may be published from
+    private final Looper producer;
+    private final int capacity;
+    private final int mask;
+    private final SKSensorModuleType[] types;
+    private final SKSensorData[] readings;
+    // Number of readings ever published, reading n being held in slot n & mask
+    private volatile long published = 0;
+    private final List<Consumer> consumers = new CopyOnWriteArrayList<>();
+    // Consumers waiting for readings, so that the producer only takes the lock when one is waiting
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+
+    /**
+     * Constructor
+     * Sizes the ring to hold CAPACITY_SECONDS of readings of every sensor at its expected rate
+     * @param sensorTypes Collection: the session's sensors
+     * @param producer Looper: looper of the only thread readings are published from
+     */
+    SensorBus(Collection<SKSensorModuleType> sensorTypes, Looper producer) {
+        this.producer = producer;
+        int expected = 0;
+        for (SKSensorModuleType sensorType : sensorTypes) {
+            expected += SensorValues.getExpectedRate(sensorType);
+        }
+
+        int size = MIN_CAPACITY;
+        while (size < expected * CAPACITY_SECONDS) {
+            size <<= 1;
+        }
+        this.capacity = size;
+        this.mask = size - 1;
+        this.types = new SKSensorModuleType[size];
+        this.readings = new SKSensorData[size];
+    }
+
+    /**
+     * @return int: number of readings held for consumers
+     */
+    int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Publishes a reading to every consumer. Must only be called on the producer's thread, and never waits
+     * Does nothing while there are no consumers, so that readings are not held in memory needlessly
+     * @param moduleType SKSensorModuleType: the reading's sensor
+     * @param moduleData SKSensorData: the reading
+     */
+    void publish(SKSensorModuleType moduleType, SKSensorData moduleData) {
+        if (Looper.myLooper() != producer) {
+            throw new IllegalStateException("Readings published off the producer thread");
+        }
+        if (consumers.isEmpty()) {
+            return;
+        }
+
+        long sequence = published;
+        int slot = (int) (sequence & mask);
+        types[slot] = moduleType;
+        readings[slot] = moduleData;
+        published = sequence + 1;
+
+        if (waiting.get() > 0) {
+            lock.lock();
+            try {
+                available.signalAll();
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Starts a consumer of the readings of a set of sensors, from the next reading published
+     * @param name String: name of the consumer, for its thread and the session event file
+     * @param listener SKSensorDataListener: called with each reading on the consumer's own thread
+     * @param sensorTypes Collection: the sensors whose readings the consumer receives
+     * @return Consumer: the consumer, stopped by remove or shutdown
+     */
+    Consumer subscribe(String name, SKSensorDataListener listener, Collection<SKSensorModuleType> sensorTypes) {
+        Consumer consumer = new Consumer(name, listener, sensorTypes, published);
+        consumers.add(consumer);
+        consumer.thread.start();
+        return consumer;
+    }
+
+    /**
+     * Stops a consumer once it has finished its current batch
+     * @param consumer Consumer: the consumer, from subscribe
+     */
+    void remove(Consumer consumer) {
+        consumers.remove(consumer);
+        consumer.running = false;
+        wakeAll();
+    }
+
+    /**
+     * Stops every consumer, e.g. when the session is closed
+     */
+    void shutdown() {
+        for (Consumer consumer : consumers) {
+            remove(consumer);
+        }
+    }
+
+    /**
+     * Summarises each consumer's readings received and missed from being lapped, for the session event file
+     * @return String: the summary, without commas, empty if there are no consumers
+     */
+    String summarise() {
+        StringBuilder summary = new StringBuilder();
+        for (Consumer consumer : consumers) {
+            if (summary.length() > 0) {
+                summary.append(' ');
+            }
+            summary.append(consumer.name).append('=').append(consumer.received).append('/').append(consumer.missed);
+        }
+        return summary.toString();
+    }
+
+    private void wakeAll() {
+        lock.lock();
+        try {
+            available.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A consumer's thread and sequence cursor
+     */
+    final class Consumer implements Runnable {
+
+        private final String name;
+        private final SKSensorDataListener listener;
+        private final boolean[] subscribed = new boolean[SKSensorModuleType.values().length];
+        private final Thread thread;
+        // Batch of readings copied out of the ring before being passed to the listener
+        private final SKSensorModuleType[] batchTypes = new SKSensorModuleType[capacity];
+        private final SKSensorData[] batch = new SKSensorData[capacity];
+        // Sequence of the next reading to consume
+        private long next;
+        private volatile boolean running = true;
+        // Readings passed to the listener, and readings of any sensor missed from being lapped
+        private volatile long received = 0;
+        private volatile long missed = 0;
+        // Written after copying a batch, so that the copy is ordered before re-reading published
+        @SuppressWarnings("unused")
+        private volatile int copyFence;
+
+        private Consumer(String name, SKSensorDataListener listener, Collection<SKSensorModuleType> sensorTypes,
+                         long next) {
+            this.name = name;
+            this.listener = listener;
+            this.next = next;
+            for (SKSensorModuleType sensorType : sensorTypes) {
+                subscribed[sensorType.ordinal()] = true;
+            }
+            this.thread = new Thread(this, "SensorBus " + name);
+        }
+
+        @Override
+        public void run() {
+            // Consumers serve live views and features, so give way to sensor delivery and the UI
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+
+            while (running) {
+                long end = awaitReadings();
+                if (end <= next) {
+                    continue;
+                }
+
+                // The slot of reading end may be mid-write once lapped, so the oldest readable is end - capacity + 1
+                long start = Math.max(next, end - capacity + 1);
+                int count = (int) (end - start);
+                for (int i = 0; i < count; i++) {
+                    int slot = (int) ((start + i) & mask);
+                    batchTypes[i] = types[slot];
+                    batch[i] = readings[slot];
+                }
+
+                // Readings the producer reached while copying may have been overwritten, so are dropped
+                copyFence = 0;
+                long firstValid = Math.max(start, published - capacity + 1);
+                missed += firstValid - next;
+                next = Math.max(end, firstValid);
+
+                for (int i = (int) Math.min(count, firstValid - start); i < count; i++) {
+                    if (subscribed[batchTypes[i].ordinal()]) {
+                        listener.onDataReceived(batchTypes[i], batch[i]);
+                        received++;
+                    }
+                }
+                // Released, so that readings are not kept alive by a consumer after the ring moves on
+                Arrays.fill(batch, 0, count, null);
+            }
+        }
+
+        /**
+         * Waits until readings past the cursor are published, or the consumer is stopped
+         * @return long: the number of readings published
+         */
+        private long awaitReadings() {
+            long end = published;
+            if (end > next || !running) {
+                return end;
+            }
+
+            lock.lock();
+            waiting.incrementAndGet();
+            try {
+                // Checked after registering as waiting, so that a reading published meanwhile is not missed
+                while ((end = published) <= next && running) {
+                    available.awaitUninterruptibly();
+                }
+            }
+            finally {
+                waiting.decrementAndGet();
+                lock.unlock();
+            }
+            return end;
+        }
+    }
+}
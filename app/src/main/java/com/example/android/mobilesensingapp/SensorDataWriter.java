@@ -10,75 +10,237 @@ package com.example.android.mobilesensingapp;
 
 import android.util.Log;
 
+import com.example.android.mobilesensingapp.format.CompressedSeriesWriter;
+import com.example.android.mobilesensingapp.format.SessionLogWriter;
+
 import org.sensingkit.sensingkitlib.SKException;
 import org.sensingkit.sensingkitlib.SKExceptionErrorCode;
 import org.sensingkit.sensingkitlib.SKSensorDataListener;
 import org.sensingkit.sensingkitlib.SKSensorModuleType;
 import org.sensingkit.sensingkitlib.data.SKSensorData;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 
 /**
  * Class responsible for writing out incoming data from each active sensor
+ * Not thread safe: data, flushes, resizes and close must all come from the session's delivery thread, see
+ * SensorDelivery. Only decimation and the write failure flag may be used from other threads
  */
 public class SensorDataWriter implements SKSensorDataListener {
 
     // Debug Tag for use logging debug output to LogCat
     private static final String TAG = "SensorDataWriter";
+    // Initial buffer size, until the BufferScheduler has measured the sensor's rate
+    static final int DEFAULT_BUFFER_BYTES = 8192;
     @SuppressWarnings("FieldCanBeLocal UnusedDeclaration")
     private final SKSensorModuleType moduleType;
     @SuppressWarnings("FieldCanBeLocal")
     private File file;
-    private BufferedOutputStream fileBuffer;
+    private AdaptiveBufferedOutputStream fileBuffer;
+    private CompressedSeriesWriter seriesWriter;
+    // Shared with the session's other sensors when saving to a single session log, owned by the session
+    private SessionLogWriter sessionLog;
+    private int stream;
+    private float[] values;
+    // Drops repeated readings of slow sensors when change suppression is enabled, null otherwise
+    private ChangeSuppressor suppressor;
+    private volatile int decimation = 1;
+    private int eventCount = 0;
+    // Set on the first failed write, e.g. when storage is full, so that the failure is logged once
+    private volatile boolean writeFailed = false;
+    // Time data was first written since the last flush, 0 if none, used only on the delivery thread
+    private long unflushedSince = 0;
 
     /**
      * Constructor
      * Establishes module type, creates file to save data to, starts buffered output stream
+     * Sensors without numeric data are always written as CSV
+     * @param moduleType The type of sensor module this sensor data writer will listen to and save data from
+     * @param sessionFolder File: The folder to save data to for the current sensor session
+     * @param filename String: The name of the file to save data to
+     * @param compressed boolean: true to write compressed columns (see CompressedSeriesWriter) rather than CSV
+     */
+    SensorDataWriter (SKSensorModuleType moduleType, File sessionFolder, String filename, boolean compressed) throws SKException {
+        this(moduleType, sessionFolder, filename, compressed, null, 0);
+    }
+
+    /**
+     * Constructor
+     * As above, but holds the data in memory until closed when a burst capture is given, see BurstCapture
      * @param moduleType The type of sensor module this sensor data writer will listen to and save data from
      * @param sessionFolder File: The folder to save data to for the current sensor session
      * @param filename String: The name of the file to save data to
+     * @param compressed boolean: true to write compressed columns (see CompressedSeriesWriter) rather than CSV
+     * @param burstCapture BurstCapture: the session's burst capture, or null to write to file as data arrives
+     * @param burstBytes int: size of the memory buffer when a burst capture is given
      */
-    SensorDataWriter (SKSensorModuleType moduleType, File sessionFolder, String filename) throws SKException {
+    SensorDataWriter (SKSensorModuleType moduleType, File sessionFolder, String filename, boolean compressed,
+                      BurstCapture burstCapture, int burstBytes) throws SKException {
 
         this.moduleType = moduleType;
-        this.file = createFile(sessionFolder, filename);
+        int fieldCount = SensorValues.getFieldCount(moduleType);
+        compressed = compressed && fieldCount >= 0;
+        this.file = createFile(sessionFolder, filename + (compressed ? CompressedSeriesWriter.EXTENSION : ".csv"));
 
         try {
-            this.fileBuffer = new BufferedOutputStream(new FileOutputStream(file));
+            OutputStream out = burstCapture != null ? burstCapture.open(file, burstBytes) : new FileOutputStream(file);
+            this.fileBuffer = new AdaptiveBufferedOutputStream(out, DEFAULT_BUFFER_BYTES);
+            if (compressed) {
+                this.values = new float[fieldCount];
+                this.seriesWriter = new CompressedSeriesWriter(fileBuffer, fieldCount);
+            }
         }
         catch (FileNotFoundException ex) {
             throw new SKException(TAG, "File could not be found.", SKExceptionErrorCode.UNKNOWN_ERROR);
         }
+        catch (IOException ex) {
+            throw new SKException(TAG, ex.getMessage(), SKExceptionErrorCode.UNKNOWN_ERROR);
+        }
+
+    }
 
+    /**
+     * Constructor
+     * Establishes module type and the stream of the session log to append data to, in place of a file of its own
+     * @param moduleType The type of sensor module this sensor data writer will listen to and save data from
+     * @param sessionLog SessionLogWriter: the session log, shared with the session's other sensors
+     * @param stream int: index of this sensor's stream in the session log
+     */
+    SensorDataWriter (SKSensorModuleType moduleType, SessionLogWriter sessionLog, int stream) {
+        this.moduleType = moduleType;
+        this.sessionLog = sessionLog;
+        this.stream = stream;
     }
 
     /**
-     * Writes out any buffered data
+     * Writes out any buffered data. Data appended to the session log is written out by its committer thread, once for
+     * every sensor flushing in the same tick, see SessionLogWriter.flush
      * flush() and close() implemented separately as some JDK implementations swallow exceptions thrown by flush when closing
      * Best practice to make a habit of calling flush() before close() for this reason, even if not required here, so as not to be
      * caught out in future
      */
     void flush() throws SKException {
 
+        unflushedSince = 0;
+
         try {
-            fileBuffer.flush();
+            // End any run of dropped readings, so that they are not lost if the app is killed
+            String run = suppressor != null ? suppressor.takeRun() : null;
+            if (run != null) {
+                writeLine(run);
+            }
+
+            if (sessionLog != null) {
+                sessionLog.flush();
+            } else if (seriesWriter != null) {
+                seriesWriter.flush();
+            } else {
+                fileBuffer.flush();
+            }
         }
         catch (IOException ex) {
             throw new SKException(TAG, ex.getMessage(), SKExceptionErrorCode.UNKNOWN_ERROR);
         }
     }
 
+    /**
+     * Number of bytes written to this sensor's file so far, for measuring its data rate
+     * @return long: the number of bytes, 0 when saving to a session log
+     */
+    long getBytesWritten() {
+        return fileBuffer != null ? fileBuffer.getTotalBytes() : 0;
+    }
+
+    /**
+     * Time that the oldest data not yet flushed has been waiting
+     * @param now long: the current time in milliseconds
+     * @return long: milliseconds waited, or 0 if all data has been flushed
+     */
+    long getUnflushedMillis(long now) {
+        return unflushedSince > 0 ? now - unflushedSince : 0;
+    }
+
+    /**
+     * Resizes the buffer data is collected in before being written to file
+     * Does nothing when saving to a session log, which is committed on a timer of its own
+     * @param bytes int: the buffer size
+     */
+    void setBufferSize(int bytes) throws SKException {
+        if (fileBuffer == null) {
+            return;
+        }
+
+        try {
+            fileBuffer.setLimit(bytes);
+        }
+        catch (IOException ex) {
+            throw new SKException(TAG, ex.getMessage(), SKExceptionErrorCode.UNKNOWN_ERROR);
+        }
+    }
+
+    /**
+     * @return int: the size of the buffer data is collected in, 0 when saving to a session log
+     */
+    int getBufferSize() {
+        return fileBuffer != null ? fileBuffer.getLimit() : 0;
+    }
+
+    /**
+     * Enables change suppression, dropping readings that repeat the last written reading
+     * Ignored when writing compressed columns, which already store repeated values in a bit each
+     * @param suppressor ChangeSuppressor: the suppressor for this writer's sensor
+     */
+    void setChangeSuppressor(ChangeSuppressor suppressor) {
+        if (seriesWriter == null) {
+            this.suppressor = suppressor;
+        }
+    }
+
+    /**
+     * Sets the rate at which incoming data is written out, used to reduce sampling while the device is idle
+     * @param decimation int: 1 writes every sample, n writes every nth sample
+     */
+    void setDecimation(int decimation) {
+        this.decimation = Math.max(1, decimation);
+    }
+
+    /**
+     * Checks whether writing data out has failed since the writer was created
+     * @return boolean: true if a write has failed
+     */
+    boolean hasWriteFailed() {
+        return writeFailed;
+    }
+
     /**
      * Closes the buffered output stream
+     * The session log, if used, is left open, to be closed by the session once all of its sensors are closed
      */
     void close() throws SKException {
 
+        if (sessionLog != null) {
+            return;
+        }
+
         try {
-            fileBuffer.close();
+            String run = suppressor != null ? suppressor.takeRun() : null;
+            try {
+                if (run != null) {
+                    writeLine(run);
+                }
+            }
+            finally {
+                // Closed even if the last write fails, so that a burst capture's data is still written out
+                if (seriesWriter != null) {
+                    seriesWriter.close();
+                } else {
+                    fileBuffer.close();
+                }
+            }
         }
         catch (IOException ex) {
             throw new SKException(TAG, ex.getMessage(), SKExceptionErrorCode.UNKNOWN_ERROR);
@@ -88,12 +250,12 @@ public class SensorDataWriter implements SKSensorDataListener {
     /**
      * Creates file to save data to
      * @param sessionFolder File: The folder to save data to for the current sensor session
-     * @param filename String: The name of the file to save data to
+     * @param filename String: The name of the file to save data to, including extension
      * @return file: the file to save data to
      */
     private File createFile(File sessionFolder, String filename) throws SKException {
 
-        File file = new File(sessionFolder, filename + ".csv");
+        File file = new File(sessionFolder, filename);
 
         try {
             if (!file.createNewFile()) {
@@ -108,22 +270,57 @@ public class SensorDataWriter implements SKSensorDataListener {
     }
 
     /**
-     * Writes buffered data out as a CSV
+     * Writes buffered data out as a CSV, as compressed columns, or to the session log
      * @param moduleType The type of sensor module this sensor data writer will listen to and save data from
      * @param moduleData The incoming sensor data
      */
     @Override
     public void onDataReceived(SKSensorModuleType moduleType, SKSensorData moduleData) {
 
-        if (fileBuffer != null) {
+        if (fileBuffer != null || sessionLog != null) {
 
-            String dataLine = moduleData.getDataInCSV() + "\n";
+            if (decimation > 1 && (eventCount++ % decimation) != 0) {
+                return;
+            }
+
+            if (suppressor != null && !suppressor.accept(moduleData)) {
+                return;
+            }
 
             try {
-                fileBuffer.write(dataLine.getBytes());
+                if (seriesWriter != null) {
+                    SensorValues.getValues(moduleData, values);
+                    seriesWriter.append(SensorValues.getTimestamp(moduleData), values);
+                } else {
+                    String run = suppressor != null ? suppressor.takeRun() : null;
+                    if (run != null) {
+                        writeLine(run);
+                    }
+                    writeLine(moduleData.getDataInCSV());
+                }
+
+                if (unflushedSince == 0) {
+                    unflushedSince = System.currentTimeMillis();
+                }
             } catch (IOException ex) {
-                Log.e(TAG, ex.getMessage());
+                if (!writeFailed) {
+                    writeFailed = true;
+                    Log.e(TAG, ex.getMessage());
+                }
             }
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Writes a line of CSV to this sensor's file, or to its stream of the session log
+     * @param line String: the line, without a line break
+     */
+    private void writeLine(String line) throws IOException {
+        if (sessionLog != null) {
+            byte[] record = line.getBytes();
+            sessionLog.append(stream, record, 0, record.length);
+        } else {
+            fileBuffer.write((line + "\n").getBytes());
+        }
+    }
+}
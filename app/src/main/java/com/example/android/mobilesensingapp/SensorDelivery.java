@@ -0,0 +1,284 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Process;
+import android.os.SystemClock;
+
+import org.sensingkit.sensingkitlib.SKException;
+import org.sensingkit.sensingkitlib.SKExceptionErrorCode;
+import org.sensingkit.sensingkitlib.SKSensorDataListener;
+import org.sensingkit.sensingkitlib.SKSensorModuleType;
+import org.sensingkit.sensingkitlib.data.SKSensorData;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class to deliver incoming sensor data to the session's data writers, either directly on the main thread, or on a
+ * dedicated delivery thread
+ * SensingKit calls its listeners on the main thread, shared with the UI and the service lifecycle. With a delivery thread,
+ * the main thread only queues each reading, and the writers' work (formatting, compression, file writes) is done on a
+ * thread of its own, optionally at a priority above the main thread, so that it neither delays nor is delayed by UI work
+ * SensingKit calls most listeners on the main thread, but Audio Level on a thread of its own, so every reading not
+ * already on the delivery thread (the main thread if there is none) is queued for it. Readings are then written on
+ * one thread only, in the order queued
+ * Everything touching the data writers, e.g. flushes and the BufferScheduler, must run on the delivery thread,
+ * see getHandler and runSync
+ * Delivery latency and main thread cost are measured as DeliveryStats, and logged by the session when it stops
+ * Once written, each reading is published on a SensorBus, from which any number of other consumers read it at their
+ * own pace without holding up delivery
+ */
+class SensorDelivery implements SKSensorDataListener, Handler.Callback {
+
+    // Debug Tag for use logging debug output to LogCat
+    private static final String TAG = "SensorDelivery";
+    // Longest the main thread waits for a task on the delivery thread, e.g. a flush when stopping
+    private static final long SYNC_TIMEOUT_MILLIS = 5000;
+
+    /**
+     * Task run on the delivery thread by runSync
+     */
+    interface Task {
+        void run() throws SKException;
+    }
+
+    private final List<SKSensorModuleType> sensorTypes;
+    private final List<SensorDataWriter> dataWriters;
+    private final int[] writerIndex = new int[SKSensorModuleType.values().length];
+    private final String mode;
+    // Null when delivering on the main thread
+    private final HandlerThread thread;
+    private final Handler handler;
+    private final DeliveryStats stats;
+    private final SessionQuality quality;
+    // Decides which readings are written, null unless capturing on a trigger
+    private final TriggeredCapture triggeredCapture;
+    private final SensorBus bus;
+    // Set once the data writers are closed, after which readings still arriving are dropped
+    private volatile boolean stopped = false;
+    // Set while the session is paused with its sensors still running, see setPaused
+    private volatile boolean paused = false;
+
+    /**
+     * Constructor
+     * Must be created on the main thread, on which SensingKit delivers data
+     * @param sensorTypes List: the session's sensors
+     * @param dataWriters List: the data writer of each sensor, in the order of sensorTypes
+     * @param quality SessionQuality: measures the sampling quality of every reading delivered
+     * @param triggeredCapture TriggeredCapture: passes on only the readings around triggers, or null to write every reading
+     * @param mode String: one of the DELIVERY_ constants of SharedPreferenceManager
+     */
+    SensorDelivery(List<SKSensorModuleType> sensorTypes, List<SensorDataWriter> dataWriters, SessionQuality quality,
+                   TriggeredCapture triggeredCapture, String mode) {
+        this.sensorTypes = sensorTypes;
+        this.dataWriters = dataWriters;
+        this.quality = quality;
+        this.triggeredCapture = triggeredCapture;
+        this.mode = mode;
+        this.stats = new DeliveryStats(sensorTypes);
+
+        Arrays.fill(writerIndex, -1);
+        for (int i = 0; i < sensorTypes.size(); i++) {
+            writerIndex[sensorTypes.get(i).ordinal()] = i;
+        }
+
+        if (mode.equals(SharedPreferenceManager.DELIVERY_MAIN)) {
+            thread = null;
+            handler = new Handler(this);
+        } else {
+            // Urgent display priority is above the main thread and UI rendering, but below audio
+            int priority = mode.equals(SharedPreferenceManager.DELIVERY_HIGH_PRIORITY)
+                    ? Process.THREAD_PRIORITY_URGENT_DISPLAY
+                    : Process.THREAD_PRIORITY_DEFAULT;
+            thread = new HandlerThread("SensorDelivery", priority);
+            thread.start();
+            handler = new Handler(thread.getLooper(), this);
+        }
+        bus = new SensorBus(sensorTypes, handler.getLooper());
+    }
+
+    /**
+     * Handler on the delivery thread, for work on the data writers, e.g. the BufferScheduler
+     * @return Handler: the handler, on the main thread if there is no delivery thread
+     */
+    Handler getHandler() {
+        return handler;
+    }
+
+    /**
+     * Bus readings are published on once delivered, for consumers other than the data writers
+     * @return SensorBus: the bus
+     */
+    SensorBus getBus() {
+        return bus;
+    }
+
+    /**
+     * Runs a task on the delivery thread after all data queued so far, and waits for it to finish
+     * Runs the task directly if there is no delivery thread, or if called on it
+     * @param task Task: the task, e.g. flushing the data writers
+     */
+    void runSync(final Task task) throws SKException {
+        if (thread == null || Looper.myLooper() == thread.getLooper()) {
+            task.run();
+            return;
+        }
+
+        final CountDownLatch done = new CountDownLatch(1);
+        final SKException[] failure = new SKException[1];
+
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                }
+                catch (SKException ex) {
+                    failure[0] = ex;
+                }
+                finally {
+                    done.countDown();
+                }
+            }
+        });
+
+        try {
+            if (!done.await(SYNC_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                throw new SKException(TAG, "Delivery thread did not respond.", SKExceptionErrorCode.UNKNOWN_ERROR);
+            }
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SKException(TAG, "Interrupted waiting for delivery thread.", SKExceptionErrorCode.UNKNOWN_ERROR);
+        }
+
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+    }
+
+    /**
+     * Summarises and resets the delivery measurements, for the session event file
+     * Call from the main thread once queued data has been delivered, e.g. after runSync
+     * @return String: the summary, without commas
+     */
+    String takeSummary() {
+        String summary = "thread=" + mode + " " + stats.summarise();
+        stats.reset();
+        return summary;
+    }
+
+    /**
+     * Gates readings at the entry of the pipeline while the session is paused with its sensors still running
+     * Paused readings are not written, measured for the quality report or checked for triggers, but are still
+     * published on the bus for live consumers
+     * @param paused boolean: true to drop incoming data
+     */
+    void setPaused(boolean paused) {
+        this.paused = paused;
+    }
+
+    /**
+     * Drops every reading from now on, including those already queued, e.g. readings from SensingKit's own threads
+     * arriving after the sensors are unsubscribed
+     * Call on the delivery thread, e.g. in runSync, before closing the data writers
+     */
+    void stopDelivering() {
+        stopped = true;
+    }
+
+    /**
+     * Stops the delivery thread once data queued so far has been delivered, and the bus's consumers,
+     * after the session is closed
+     */
+    void quit() {
+        bus.shutdown();
+        if (thread != null) {
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    thread.quit();
+                }
+            });
+        }
+    }
+
+    /**
+     * Called by SensingKit, on the main thread or on a thread of its own, queues the data for the delivery thread
+     * or delivers it directly if already on it
+     * @param moduleType The type of sensor module the data is from
+     * @param moduleData The incoming sensor data
+     */
+    @Override
+    public void onDataReceived(SKSensorModuleType moduleType, SKSensorData moduleData) {
+        long start = System.nanoTime();
+        int index = writerIndex[moduleType.ordinal()];
+
+        if (index < 0 || stopped) {
+            return;
+        }
+
+        stats.onArrival(index, SystemClock.uptimeMillis());
+
+        if (Looper.myLooper() == handler.getLooper()) {
+            deliver(index, moduleData);
+        } else {
+            handler.sendMessage(handler.obtainMessage(index, moduleData));
+        }
+
+        stats.onMainThreadCost(System.nanoTime() - start);
+    }
+
+    /**
+     * Delivers queued data on the delivery thread
+     * @param msg Message: index of the sensor's data writer as what, and the data as obj
+     * @return boolean: true, as every message is handled
+     */
+    @Override
+    public boolean handleMessage(Message msg) {
+        if (stopped) {
+            return true;
+        }
+        stats.onHandoff(SystemClock.uptimeMillis() - msg.getWhen());
+        deliver(msg.what, (SKSensorData) msg.obj);
+        return true;
+    }
+
+    /**
+     * Writes a reading, evaluating triggers first if capturing on a trigger, then publishes it on the bus
+     * Only published while paused
+     * The quality report, the triggered capture and the data writers are not thread safe, so this must only run on
+     * the delivery thread, to which onDataReceived routes every reading
+     * @param index int: index of the reading's sensor
+     * @param moduleData SKSensorData: the reading
+     */
+    private void deliver(int index, SKSensorData moduleData) {
+        if (Looper.myLooper() != handler.getLooper()) {
+            throw new IllegalStateException("Sensor data delivered off the delivery thread");
+        }
+
+        if (!paused) {
+            quality.record(index, SensorValues.getTimestamp(moduleData));
+
+            if (triggeredCapture != null) {
+                triggeredCapture.onDataReceived(index, moduleData);
+            } else {
+                dataWriters.get(index).onDataReceived(sensorTypes.get(index), moduleData);
+            }
+        }
+        bus.publish(sensorTypes.get(index), moduleData);
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp;
+
+import org.sensingkit.sensingkitlib.SKSensorDataListener;
+import org.sensingkit.sensingkitlib.SKSensorModuleType;
+import org.sensingkit.sensingkitlib.data.SKSensorData;
+
+import java.util.Collection;
+import java.util.EnumMap;
+
+/**
+ * Sensor data listener keeping the recent history of each of a session's sensors in a SensorRingBuffer,
+ * for live consumers such as charts, features or activity detection
+ * Subscribed to the session's SensorBus, see SensorSession.createHistory, so readings are appended on the bus
+ * consumer's thread and copied into primitive arrays there, rather than the SKSensorData objects being kept
+ * e.g. five minutes of 200 Hz accelerometer data takes 60000 records of 20 bytes, a little over 1 MB
+ */
+class SensorHistory implements SKSensorDataListener {
+
+    private final EnumMap<SKSensorModuleType, SensorRingBuffer> buffers = new EnumMap<>(SKSensorModuleType.class);
+    // Producer side scratch record per sensor, so that appending does not allocate
+    private final EnumMap<SKSensorModuleType, float[]> records = new EnumMap<>(SKSensorModuleType.class);
+
+    /**
+     * Constructor
+     * Allocates a buffer for each sensor with numeric data, sized to hold the requested duration at its expected rate
+     * @param sensorTypes Collection: the sensors to keep history for
+     * @param historySeconds int: how much history to keep
+     */
+    SensorHistory(Collection<SKSensorModuleType> sensorTypes, int historySeconds) {
+        for (SKSensorModuleType sensorType : sensorTypes) {
+            int fieldCount = SensorValues.getFieldCount(sensorType);
+            if (fieldCount < 0) {
+                continue;
+            }
+
+            int rate = SensorValues.getExpectedRate(sensorType);
+            buffers.put(sensorType, new SensorRingBuffer(rate * historySeconds, fieldCount));
+            records.put(sensorType, new float[fieldCount]);
+        }
+    }
+
+    /**
+     * Buffer holding a sensor's history
+     * @param sensorType SKSensorModuleType: the sensor
+     * @return SensorRingBuffer: the buffer, or null if no history is kept for the sensor
+     */
+    SensorRingBuffer getBuffer(SKSensorModuleType sensorType) {
+        return buffers.get(sensorType);
+    }
+
+    /**
+     * Appends incoming sensor data to its sensor's buffer
+     * @param moduleType The type of sensor module the data came from
+     * @param moduleData The incoming sensor data
+     */
+    @Override
+    public void onDataReceived(SKSensorModuleType moduleType, SKSensorData moduleData) {
+        SensorRingBuffer buffer = buffers.get(moduleType);
+
+        if (buffer != null) {
+            float[] record = records.get(moduleType);
+            SensorValues.getValues(moduleData, record);
+            buffer.append(SensorValues.getTimestamp(moduleData), record);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp;
+
+/**
+ * Fixed capacity history of one sensor's recent records, held in primitive arrays
+ * Appending never allocates or locks. It is written by a single producer (e.g. a SensorBus consumer's thread) and
+ * any number of consumers copy windows out of it, retrying or trimming if the producer overwrote records
+ * while they were being copied, in the manner of a seqlock
+ */
+class SensorRingBuffer {
+
+    private final int capacity;
+    private final int mask;
+    private final int fieldCount;
+    private final long[] timestamps;
+    private final float[] values;
+    // Number of records ever appended, record n being held in slot n & mask
+    private volatile long published = 0;
+    // Written by consumers after copying, so that their copy is ordered before re-reading published
+    @SuppressWarnings("unused")
+    private volatile int copyFence;
+
+    /**
+     * Constructor
+     * @param capacity int: number of records to hold, rounded up to a power of two
+     * @param fieldCount int: number of float fields per record
+     */
+    SensorRingBuffer(int capacity, int fieldCount) {
+        int size = 2;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.capacity = size;
+        this.mask = size - 1;
+        this.fieldCount = fieldCount;
+        this.timestamps = new long[size];
+        this.values = new float[size * fieldCount];
+    }
+
+    /**
+     * @return int: number of records held once full
+     */
+    int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return int: number of float fields per record
+     */
+    int getFieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * @return long: number of records appended since creation, for consumers to detect new data cheaply
+     */
+    long getSequence() {
+        return published;
+    }
+
+    /**
+     * Appends a record, overwriting the oldest once full. Must only be called from one thread
+     * @param timestamp long: time of the record in milliseconds
+     * @param record float[]: the record's fields, at least getFieldCount() long
+     */
+    void append(long timestamp, float[] record) {
+        long sequence = published;
+        int slot = (int) (sequence & mask);
+        timestamps[slot] = timestamp;
+        System.arraycopy(record, 0, values, slot * fieldCount, fieldCount);
+        published = sequence + 1;
+    }
+
+    /**
+     * Creates a window to copy records into, to be reused for every snapshot
+     * @param maxRecords int: largest number of records the window can hold
+     * @return Window: the window
+     */
+    Window newWindow(int maxRecords) {
+        return new Window(Math.min(maxRecords, capacity), fieldCount);
+    }
+
+    /**
+     * Copies the most recent records with timestamps at or after a given time into a window, without allocating
+     * If more records match than the window holds, the most recent are kept
+     * @param window Window: destination, created by newWindow
+     * @param sinceTimestamp long: earliest timestamp to copy, Long.MIN_VALUE for as many as fit
+     * @return int: number of records copied
+     */
+    int snapshot(Window window, long sinceTimestamp) {
+        while (true) {
+            long end = published;
+            // The slot of record end may be mid-write, so the oldest readable record is end - capacity + 1
+            long start = Math.max(Math.max(0, end - capacity + 1), end - window.maxRecords);
+            start = firstAtOrAfter(start, end, sinceTimestamp);
+
+            int count = (int) (end - start);
+            for (int copied = 0; copied < count; ) {
+                int slot = (int) ((start + copied) & mask);
+                int run = Math.min(count - copied, capacity - slot);
+                System.arraycopy(timestamps, slot, window.timestamps, copied, run);
+                System.arraycopy(values, slot * fieldCount, window.values, copied * fieldCount, run * fieldCount);
+                copied += run;
+            }
+
+            // Records the producer reached while copying may have been overwritten, so are dropped
+            copyFence = 0;
+            long firstValid = published - capacity + 1;
+            if (firstValid >= end && count > 0) {
+                continue;
+            }
+
+            window.from = (int) Math.max(0, firstValid - start);
+            window.to = count;
+            return window.size();
+        }
+    }
+
+    /**
+     * Binary search for the first record in [from, to) with a timestamp at or after the given time
+     * Timestamps read here may be overwritten concurrently, which snapshot detects afterwards
+     */
+    private long firstAtOrAfter(long from, long to, long timestamp) {
+        long low = from;
+        long high = to;
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            if (timestamps[(int) (middle & mask)] < timestamp) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * A consumer's copy of a range of records, oldest first
+     */
+    static class Window {
+
+        private final int maxRecords;
+        private final int fieldCount;
+        private final long[] timestamps;
+        private final float[] values;
+        private int from = 0;
+        private int to = 0;
+
+        private Window(int maxRecords, int fieldCount) {
+            this.maxRecords = maxRecords;
+            this.fieldCount = fieldCount;
+            this.timestamps = new long[maxRecords];
+            this.values = new float[maxRecords * fieldCount];
+        }
+
+        /**
+         * @return int: number of records in the window
+         */
+        int size() {
+            return to - from;
+        }
+
+        /**
+         * @param index int: record index, 0 being the oldest
+         * @return long: the record's timestamp in milliseconds
+         */
+        long getTimestamp(int index) {
+            return timestamps[from + index];
+        }
+
+        /**
+         * @param index int: record index, 0 being the oldest
+         * @param field int: field index
+         * @return float: the record's field value
+         */
+        float getValue(int index, int field) {
+            return values[(from + index) * fieldCount + field];
+        }
+    }
+}
@@ -17,13 +17,16 @@ import android.content.Context;
 import android.content.Intent;
 import android.os.Binder;
 import android.os.Build;
+import android.os.Handler;
 import android.os.IBinder;
 import android.os.PowerManager;
 import android.support.v4.app.NotificationCompat;
 import android.util.Log;
+import android.widget.Toast;
 
 import org.sensingkit.sensingkitlib.SKException;
 
+import java.io.File;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
@@ -37,9 +40,29 @@ public class SensorService extends Service {
 
     // Debug Tag for use logging debug output to LogCat
     private static final String TAG = "SensorService";
+    // Wake lock timeout, renewed before expiry for as long as the service is sensing continuously
+    private static final long WAKE_LOCK_TIMEOUT_MILLIS = 3600000;
+    private static final long WAKE_LOCK_RENEWAL_MILLIS = 3000000;
+    // Set from starting until stopping sensing, so that post session processing waits for the session to close
+    private static volatile boolean sessionActive = false;
     private PowerManager.WakeLock wakeLock;
     private SensorSession sSession;
+    private DutyCycleScheduler scheduler;
+    private StorageManager storageManager;
     private IBinder binder = new LocalBinder();
+    private final Handler handler = new Handler();
+    private final Runnable wakeLockRenewal = new Runnable() {
+        @Override
+        public void run() {
+            renewWakeLock();
+        }
+    };
+    private final Runnable storageCheck = new Runnable() {
+        @Override
+        public void run() {
+            checkStorage();
+        }
+    };
 
 
     // Binder given to clients (main activity)
@@ -48,6 +71,15 @@ public class SensorService extends Service {
         return binder;
     }
 
+    /**
+     * Checks whether a session is being recorded, paused or prepared for, in which case heavy background work such as
+     * post session processing is deferred until it closes
+     * @return boolean: true from starting until stopping sensing
+     */
+    static boolean hasActiveSession() {
+        return sessionActive;
+    }
+
     class LocalBinder extends Binder {
         // Return this instance of LocalService so clients (main activity) can call public methods
         SensorService getService() {
@@ -80,9 +112,10 @@ public class SensorService extends Service {
 
     /**
      * Creates a sensor session to record sensor data
-     * @return session: the created sensor session
+     * @param root File: the folder to create the session in
+     * @return session: the created sensor session, or null if it could not be created
      */
-    private SensorSession createSensingSession() {
+    private SensorSession createSensingSession(File root) {
 
         SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd_HH.mm.ss", Locale.UK);
         String folderName = dateFormat.format(new Date());
@@ -90,7 +123,7 @@ public class SensorService extends Service {
         SensorSession session;
 
         try {
-            session = new SensorSession(this, folderName);
+            session = new SensorSession(this, root, folderName);
         }
         catch (SKException ex) {
             Log.e(TAG, ex.getMessage());
@@ -154,48 +187,182 @@ public class SensorService extends Service {
 
     /**
      * Ensures the CPU does not become inactive (sleep mode) when the application is running with device screen off
-     * Wake lock is set to time out after an hour
+     * Wake lock is set to time out after an hour, so is renewed periodically for sessions longer than that
      */
     private void acquireWakeLock() {
-        if ((wakeLock == null) || (!wakeLock.isHeld())) {
+        if (wakeLock == null) {
             PowerManager pm = (PowerManager) this.getSystemService(Context.POWER_SERVICE);
-            if (pm != null) {
-                wakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "WakeLock");
+            if (pm == null) {
+                return;
             }
-            wakeLock.acquire(3600000);
+            wakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "WakeLock");
+            // Not reference counted, so that renewing the wake lock only extends its timeout
+            wakeLock.setReferenceCounted(false);
         }
+
+        renewWakeLock();
+    }
+
+    /**
+     * Re-acquires the wake lock with a fresh timeout and schedules the next renewal
+     * The wake lock is held while the renewal is pending, so the CPU is awake to run it
+     */
+    private void renewWakeLock() {
+        wakeLock.acquire(WAKE_LOCK_TIMEOUT_MILLIS);
+        handler.removeCallbacks(wakeLockRenewal);
+        handler.postDelayed(wakeLockRenewal, WAKE_LOCK_RENEWAL_MILLIS);
     }
 
     /**
-     * Releases wake lock, called when service is stopped
+     * Releases wake lock, called when service is stopped or paused
      */
     private void releaseWakeLock() {
+        handler.removeCallbacks(wakeLockRenewal);
+
         if (wakeLock != null && wakeLock.isHeld()) {
             wakeLock.release();
         }
     }
 
     /**
-     * Called on start
-     * Starts sensor session, acquires wake lock, and displays notification
+     * Checks storage in the background and passes the result to the sensor session, then schedules the next check
+     * Older sessions are reclaimed as needed, the session being recorded never is
      */
-    public void startSensing() {
+    private void checkStorage() {
+        if (sSession == null) {
+            return;
+        }
 
-        if (sSession != null) {
-            Log.e(TAG,"SensorSession already created.");
+        storageManager.checkAsync(sSession.getFolder(), new StorageManager.Listener() {
+            @Override
+            public void onStorageLevel(StorageManager.Level level) {
+                if (sSession == null || !sSession.isSensing()) {
+                    return;
+                }
+
+                try {
+                    sSession.onStorageLevel(level);
+                }
+                catch (SKException ex) {
+                    Log.e(TAG, ex.getMessage());
+                }
+            }
+        });
+
+        handler.postDelayed(storageCheck, StorageManager.CHECK_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Called by the system when memory is running low
+     * Data held in memory by a burst capture session is written out, see SensorSession.onMemoryPressure
+     * @param level int: the memory level, see ComponentCallbacks2
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+
+        // UI hidden only means the app's UI is no longer visible, not that memory is low
+        if (sSession != null && level >= TRIM_MEMORY_RUNNING_LOW && level != TRIM_MEMORY_UI_HIDDEN) {
+            sSession.onMemoryPressure();
         }
+    }
 
-        sSession = createSensingSession();
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
 
-        try {
+        if (sSession != null) {
+            sSession.onMemoryPressure();
+        }
+    }
+
+    /**
+     * Starts sensing with the sensor session in the capture mode set by the user
+     * When duty cycled, the scheduler holds its own wake lock during active windows only
+     * Burst capture senses continuously, holding data in memory, see BurstCapture
+     * Triggered capture senses continuously, saving only the data around triggers, see TriggeredCapture
+     */
+    private void beginSensing() throws SKException {
+        SharedPreferenceManager preferenceManager = new SharedPreferenceManager();
+
+        if (preferenceManager.getCaptureMode(this).equals(SharedPreferenceManager.CAPTURE_DUTY_CYCLED)) {
+            sSession.startSessionSuspended();
+            scheduler = new DutyCycleScheduler(this, sSession);
+            scheduler.start();
+        } else {
             acquireWakeLock();
             sSession.startSession();
         }
-        catch (SKException ex) {
-            ex.printStackTrace();
+
+        handler.removeCallbacks(storageCheck);
+        handler.postDelayed(storageCheck, StorageManager.CHECK_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Stops sensing with the sensor session, without closing it
+     */
+    private void endSensing() throws SKException {
+        handler.removeCallbacks(storageCheck);
+
+        if (scheduler != null) {
+            scheduler.stop();
+            scheduler = null;
+        }
+
+        sSession.stopSession();
+        releaseWakeLock();
+    }
+
+    /**
+     * Called on start
+     * Displays notification, then, once storage has been prepared in the background, starts sensor session and
+     * acquires wake lock
+     */
+    public void startSensing() {
+
+        if (sSession != null) {
+            Log.e(TAG,"SensorSession already created.");
         }
 
+        if (storageManager == null) {
+            storageManager = new StorageManager(this);
+        }
+        sessionActive = true;
         showNotification();
+
+        final StorageManager manager = storageManager;
+        manager.prepareAsync(new StorageManager.PrepareListener() {
+            @Override
+            public void onPrepared(File root) {
+                // Stopped, or stopped and started again, while storage was being prepared
+                if (storageManager != manager) {
+                    return;
+                }
+
+                sSession = root == null ? null : createSensingSession(root);
+                if (sSession == null) {
+                    abandonSensing();
+                    return;
+                }
+
+                try {
+                    beginSensing();
+                }
+                catch (SKException ex) {
+                    ex.printStackTrace();
+                }
+            }
+        });
+    }
+
+    /**
+     * Called when no session could be started, e.g. for lack of storage space
+     * Tells the user and stops the service, as there is nothing to record to
+     */
+    private void abandonSensing() {
+        Toast.makeText(this, getString(R.string.storage_insufficient), Toast.LENGTH_LONG).show();
+        stopSensing();
+        stopSelf();
     }
 
     /**
@@ -205,11 +372,29 @@ public class SensorService extends Service {
     public void stopSensing() {
 
         try {
-
-            if (sSession.isSensing()) {
-                sSession.stopSession();
+            // Null if the session could not be created, or storage is still being prepared for it
+            if (sSession != null) {
+                try {
+                    if (sSession.isSensing() || sSession.isPaused()) {
+                        endSensing();
+                    }
+                }
+                finally {
+                    sessionActive = false;
+                    final Context context = getApplicationContext();
+                    final File folder = sSession.getFolder();
+
+                    // Once its files are complete, move the closed session out of staging, and index and compact it
+                    // later, while the device is charging or idle. Queued even if closing failed, so that its data
+                    // is not stranded
+                    sSession.close(new Runnable() {
+                        @Override
+                        public void run() {
+                            PostSessionScheduler.enqueue(context, folder);
+                        }
+                    });
+                }
             }
-            sSession.close();
         }
         catch (SKException ex) {
             ex.printStackTrace();
@@ -218,15 +403,36 @@ public class SensorService extends Service {
         releaseWakeLock();
         hideNotification();
 
+        if (storageManager != null) {
+            storageManager.shutdown();
+            storageManager = null;
+        }
+
         sSession = null;
+        sessionActive = false;
     }
 
     /** Called when user pauses a running session
      * Stops sensor session without closing, so data is written to the same files on resume
+     * With fast pause enabled and capturing continuously, sensors are instead kept running with their data dropped
+     * Wake lock is released while paused
      */
     public void pauseSensing() {
+        handler.removeCallbacks(storageCheck);
+
+        if (sSession == null) {
+            return;
+        }
+
+        if (scheduler == null && new SharedPreferenceManager().fastPauseIsEnabled(this)) {
+            sSession.pauseSession();
+            releaseWakeLock();
+            return;
+        }
+
         try {
-            sSession.stopSession();
+            sSession.logEvent(System.currentTimeMillis(), "pause", "stopped");
+            endSensing();
         } catch (SKException ex) {
             ex.printStackTrace();
         }
@@ -236,8 +442,20 @@ public class SensorService extends Service {
      * Starts sensor session, with data written to the same files
      */
     public void resumeSensing() {
+        if (sSession == null) {
+            return;
+        }
+
+        if (sSession.isPaused()) {
+            acquireWakeLock();
+            sSession.resumeSession();
+            handler.postDelayed(storageCheck, StorageManager.CHECK_INTERVAL_MILLIS);
+            return;
+        }
+
         try {
-            sSession.startSession();
+            beginSensing();
+            sSession.logEvent(System.currentTimeMillis(), "resume", "restarted");
         } catch (SKException ex) {
             ex.printStackTrace();
         }
@@ -246,9 +464,18 @@ public class SensorService extends Service {
     /**
      * Checks status of sensor session
      * For use in determining button states in main activity class on service connection
-     * @return boolean: true if sensor session is sensing
+     * @return boolean: true if sensor session is sensing, false if there is no session
      */
     public boolean isSensing() {
-        return sSession.isSensing();
+        return sSession != null && sSession.isSensing();
+    }
+
+    /**
+     * Creates a history of the current session's recent data, for live views in bound clients such as the main activity
+     * @param historySeconds int: how much history to keep
+     * @return SensorHistory: the history, filling until the session is closed, or null if there is no session
+     */
+    SensorHistory createHistory(int historySeconds) {
+        return sSession != null ? sSession.createHistory(historySeconds) : null;
     }
 }
\ No newline at end of file
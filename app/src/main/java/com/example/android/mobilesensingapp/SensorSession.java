@@ -9,17 +9,24 @@
 package com.example.android.mobilesensingapp;
 
 import android.content.Context;
-import android.os.Environment;
 import android.util.Log;
 
+import com.example.android.mobilesensingapp.format.SessionLogWriter;
+
 import org.sensingkit.sensingkitlib.SKException;
 import org.sensingkit.sensingkitlib.SKExceptionErrorCode;
+import org.sensingkit.sensingkitlib.SKSensorDataListener;
 import org.sensingkit.sensingkitlib.SKSensorModuleType;
 import org.sensingkit.sensingkitlib.SensingKitLib;
 import org.sensingkit.sensingkitlib.SensingKitLibInterface;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.Locale;
 import java.util.Map;
 
 /**
@@ -30,20 +37,60 @@ class SensorSession {
 
     // Debug Tag for use logging debug output to LogCat
     private static final String TAG = "SensingSession";
+    // Longest time data waits in memory before being written out, when saving to a single session log
+    private static final long SESSION_LOG_COMMIT_MILLIS = 1000;
     private SensingKitLibInterface mSensingKitLib;
     private boolean isSensing = false;
+    // Paused with sensors still running, see pauseSession
+    private volatile boolean paused = false;
     private ArrayList<SKSensorModuleType> sensorTypes = new ArrayList<>();
     private ArrayList<SensorDataWriter> dataWriters;
+    private SessionLogWriter sessionLog;
+    private BufferScheduler bufferScheduler;
+    // Delivers data to the data writers, on a dedicated thread if enabled
+    private SensorDelivery delivery;
+    private SessionQuality quality;
+    // Holds data in memory until the session is closed, null unless capturing in burst mode
+    private BurstCapture burstCapture;
+    // Saves only the data around triggers, null unless capturing on a trigger
+    private TriggeredCapture triggeredCapture;
+    // Synthetic main thread load for diagnostics, null unless enabled
+    private MainThreadLoad mainThreadLoad;
+    private EnumSet<SKSensorModuleType> suspendedSensors = EnumSet.noneOf(SKSensorModuleType.class);
+    private SessionEventLog eventLog;
+    private AdaptiveSamplingController samplingController;
+    private File sessionFolder;
+    // While storage is limited, high rate sensors are held rather than resumed
+    private boolean storageLimited = false;
+    private EnumSet<SKSensorModuleType> heldSensors = EnumSet.noneOf(SKSensorModuleType.class);
+    private StorageManager.Level storageLevel = StorageManager.Level.OK;
+    private boolean writeFailureLogged = false;
+    // Flushes every data writer, posted to the delivery thread when pausing
+    private final Runnable flushWriters = new Runnable() {
+        @Override
+        public void run() {
+            for (SensorDataWriter writer : dataWriters) {
+                try {
+                    writer.flush();
+                }
+                catch (SKException ex) {
+                    Log.e(TAG, ex.getMessage());
+                }
+            }
+        }
+    };
 
     /**
      * Constructor
      * Creates folder for sensor data to be saved to
      * Starts sensor data writer, registers sensor module, and subscribes sensor data listener for each sensor
      * @param context Sensor service context links sensor session to the service
+     * @param root File: folder to create the session folder in, see StorageManager.prepareForSession
      * @param folderName String: name of folder where data will be saved
      */
-    SensorSession(final Context context, final String folderName) throws SKException {
-        File sessionFolder = createFolder(folderName);
+    SensorSession(final Context context, final File root, final String folderName) throws SKException {
+        sessionFolder = createFolder(root, folderName);
+        eventLog = new SessionEventLog(sessionFolder);
         mSensingKitLib = SensingKitLib.getSensingKitLib(context);
 
         SharedPreferenceManager preferenceManager = new SharedPreferenceManager();
@@ -58,13 +105,71 @@ class SensorSession {
         }
 
         dataWriters = new ArrayList<>();
+        String storageFormat = preferenceManager.getStorageFormat(context);
+        boolean compressed = storageFormat.equals(SharedPreferenceManager.FORMAT_COMPRESSED);
+
+        if (preferenceManager.getCaptureMode(context).equals(SharedPreferenceManager.CAPTURE_BURST)) {
+            burstCapture = new BurstCapture(sensorTypes, compressed, preferenceManager.getBurstMinutes(context) * 60,
+                    new BurstCapture.Listener() {
+                        @Override
+                        public void onSpill(File file, String reason) {
+                            logEvent(System.currentTimeMillis(), "burst_spill", file.getName() + " " + reason);
+                        }
+                    });
+        }
+
+        if (storageFormat.equals(SharedPreferenceManager.FORMAT_SESSION_LOG)) {
+            sessionLog = createSessionLog(sessionFolder, sensorNames);
+        }
 
         for (int i = 0; i < sensorTypes.size(); i++) {
-            SensorDataWriter writer = new SensorDataWriter(sensorTypes.get(i), sessionFolder, sensorNames.get(i));
+            SensorDataWriter writer = sessionLog != null
+                    ? new SensorDataWriter(sensorTypes.get(i), sessionLog, i)
+                    : new SensorDataWriter(sensorTypes.get(i), sessionFolder, sensorNames.get(i), compressed,
+                            burstCapture, burstCapture != null ? burstCapture.getCapacity(i) : 0);
             mSensingKitLib.registerSensorModule(sensorTypes.get(i));
-            mSensingKitLib.subscribeSensorDataListener(sensorTypes.get(i), writer);
             dataWriters.add(writer);
         }
+
+        if (preferenceManager.changeSuppressionIsEnabled(context)) {
+            float deadband = preferenceManager.getSuppressionDeadbandPercent(context);
+            long heartbeatMillis = preferenceManager.getSuppressionHeartbeatSeconds(context) * 1000L;
+            for (int i = 0; i < sensorTypes.size(); i++) {
+                if (ChangeSuppressor.isSuppressible(sensorTypes.get(i))) {
+                    dataWriters.get(i).setChangeSuppressor(new ChangeSuppressor(sensorTypes.get(i), deadband, heartbeatMillis));
+                }
+            }
+        }
+
+        if (preferenceManager.getCaptureMode(context).equals(SharedPreferenceManager.CAPTURE_TRIGGERED)) {
+            triggeredCapture = createTriggeredCapture(context, preferenceManager);
+        }
+
+        quality = new SessionQuality(sensorNames);
+        delivery = new SensorDelivery(sensorTypes, dataWriters, quality, triggeredCapture,
+                preferenceManager.getDeliveryThread(context));
+        for (SKSensorModuleType sensorType : sensorTypes) {
+            mSensingKitLib.subscribeSensorDataListener(sensorType, delivery);
+        }
+
+        bufferScheduler = new BufferScheduler(dataWriters, delivery.getHandler());
+
+        int load = preferenceManager.getMainThreadLoadPercent(context);
+        if (load > 0) {
+            mainThreadLoad = new MainThreadLoad(load);
+        }
+
+        // Adaptive sampling relies on the accelerometer as its cheap motion signal, so requires it to be enabled
+        // It is only used when capturing continuously, as it would otherwise conflict with the duty cycle schedule
+        if (preferenceManager.adaptiveSamplingIsEnabled(context)
+                && preferenceManager.getCaptureMode(context).equals(SharedPreferenceManager.CAPTURE_CONTINUOUS)
+                && sensorTypes.contains(SKSensorModuleType.ACCELEROMETER)) {
+            samplingController = new AdaptiveSamplingController(this);
+            mSensingKitLib.subscribeSensorDataListener(SKSensorModuleType.ACCELEROMETER, samplingController);
+            if (sensorTypes.contains(SKSensorModuleType.STEP_DETECTOR)) {
+                mSensingKitLib.subscribeSensorDataListener(SKSensorModuleType.STEP_DETECTOR, samplingController);
+            }
+        }
     }
 
     /**
@@ -73,34 +178,351 @@ class SensorSession {
     void startSession() throws SKException {
         this.isSensing = true;
 
+        if (samplingController != null) {
+            samplingController.reset();
+        }
+
         for (int i = 0; i < sensorTypes.size(); i++) {
             mSensingKitLib.startContinuousSensingWithSensor(sensorTypes.get(i));
+            dataWriters.get(i).setDecimation(1);
+        }
+
+        bufferScheduler.start();
+        startLoad();
+    }
+
+    /**
+     * Starts the session with all sensors suspended, for sensors to be resumed individually by a scheduler
+     */
+    void startSessionSuspended() {
+        this.isSensing = true;
+        suspendedSensors.addAll(sensorTypes);
+        bufferScheduler.start();
+        startLoad();
+    }
+
+    /**
+     * Pauses the session while keeping its sensors registered and running, so that it can be resumed without delay
+     * Incoming data is dropped at the entry of the delivery pipeline, and the data writers flushed on the delivery thread
+     * Pause and resume are marked in the session event file, so that the gap in the data is recorded
+     */
+    void pauseSession() {
+        if (!isSensing) {
+            return;
+        }
+
+        this.isSensing = false;
+        this.paused = true;
+        bufferScheduler.stop();
+        stopLoad();
+
+        delivery.setPaused(true);
+        // Flushed on the delivery thread once it has written the data already queued, rather than on the thread
+        // pausing the session, and straight away, as slow sensors may not report again for the whole pause
+        delivery.getHandler().post(flushWriters);
+        logEvent(System.currentTimeMillis(), "pause", "warm");
+    }
+
+    /**
+     * Resumes a session paused by pauseSession
+     */
+    void resumeSession() {
+        if (!paused) {
+            return;
         }
+
+        delivery.setPaused(false);
+        logEvent(System.currentTimeMillis(), "resume", "warm");
+
+        this.paused = false;
+        this.isSensing = true;
+        bufferScheduler.start();
+        startLoad();
     }
 
     /**
-     * Stops continuous sensing with all sensors
+     * Stops continuous sensing with all sensors, including those of a session paused by pauseSession
+     * The session is stopped even if the final flush fails, e.g. if the delivery thread does not respond in time
      */
     void stopSession() throws SKException {
         this.isSensing = false;
+        bufferScheduler.stop();
+        stopLoad();
+
+        if (paused) {
+            this.paused = false;
+            delivery.setPaused(false);
+        }
 
         for (int i = 0; i < sensorTypes.size(); i++) {
-            mSensingKitLib.stopContinuousSensingWithSensor(sensorTypes.get(i));
-            dataWriters.get(i).flush();
+            if (!suspendedSensors.contains(sensorTypes.get(i))) {
+                mSensingKitLib.stopContinuousSensingWithSensor(sensorTypes.get(i));
+            }
+        }
+
+        try {
+            // Flushed on the delivery thread once it has written the data already queued
+            delivery.runSync(new SensorDelivery.Task() {
+                @Override
+                public void run() throws SKException {
+                    for (SensorDataWriter writer : dataWriters) {
+                        writer.flush();
+                    }
+                }
+            });
+        }
+        finally {
+            logEvent(System.currentTimeMillis(), "delivery", delivery.takeSummary());
+
+            suspendedSensors.clear();
+            heldSensors.clear();
+            storageLimited = false;
         }
     }
 
     /**
-     * Unsubscribes sensor data writers, deregisters sensor modules, closes data writer output streams
+     * Unsubscribes sensor data writers, deregisters sensor modules, closes data writer output streams,
+     * writes the session's sampling quality report, and stops consumers of the session's data
+     * If the delivery thread does not respond in time, the data writers are closed once it catches up, as the task
+     * closing them stays queued there, and the rest of the session is still released
+     * In burst capture, data held in memory is written out on a background thread, so the session's files may not be
+     * complete until savedTask runs
+     * @param savedTask Runnable: run once the session's files are complete, e.g. to queue it for post processing,
+     *                  on a background thread in burst capture or before returning otherwise, even if closing fails
      */
-    void close() throws SKException {
+    void close(Runnable savedTask) throws SKException {
+        stopLoad();
+
+        if (samplingController != null) {
+            mSensingKitLib.unsubscribeSensorDataListener(SKSensorModuleType.ACCELEROMETER, samplingController);
+            if (sensorTypes.contains(SKSensorModuleType.STEP_DETECTOR)) {
+                mSensingKitLib.unsubscribeSensorDataListener(SKSensorModuleType.STEP_DETECTOR, samplingController);
+            }
+        }
+
         for (int i = 0; i < sensorTypes.size(); i++) {
-            mSensingKitLib.unsubscribeSensorDataListener(sensorTypes.get(i), dataWriters.get(i));
+            mSensingKitLib.unsubscribeSensorDataListener(sensorTypes.get(i), delivery);
             mSensingKitLib.deregisterSensorModule(sensorTypes.get(i));
-            dataWriters.get(i).close();
+        }
+
+        try {
+            delivery.runSync(new SensorDelivery.Task() {
+                @Override
+                public void run() throws SKException {
+                    // Readings still queued, e.g. from SensingKit's audio thread, are not written to closed writers
+                    delivery.stopDelivering();
+                    if (triggeredCapture != null) {
+                        triggeredCapture.end(System.currentTimeMillis());
+                    }
+                    SKException failure = null;
+                    for (SensorDataWriter writer : dataWriters) {
+                        try {
+                            writer.close();
+                        }
+                        catch (SKException ex) {
+                            failure = failure != null ? failure : ex;
+                        }
+                    }
+                    quality.write(sessionFolder);
+                    if (failure != null) {
+                        throw failure;
+                    }
+                }
+            });
+        }
+        finally {
+            String consumers = delivery.getBus().summarise();
+            if (!consumers.isEmpty()) {
+                logEvent(System.currentTimeMillis(), "bus", consumers);
+            }
+            delivery.quit();
+
+            try {
+                if (sessionLog != null) {
+                    sessionLog.close();
+                }
+            }
+            catch (IOException ex) {
+                throw new SKException(TAG, ex.getMessage(), SKExceptionErrorCode.UNKNOWN_ERROR);
+            }
+            finally {
+                try {
+                    eventLog.close();
+                }
+                finally {
+                    if (burstCapture != null) {
+                        burstCapture.shutdown(savedTask);
+                    } else if (savedTask != null) {
+                        savedTask.run();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Responds to memory pressure while sensing
+     * In burst capture, data held in memory is written out, and the session falls back to writing as data arrives
+     */
+    void onMemoryPressure() {
+        if (burstCapture != null) {
+            burstCapture.spillAll();
+        }
+    }
+
+    /**
+     * Stops continuous sensing with a single sensor while the session carries on, e.g. while the device is idle
+     * The sensor's data writer is flushed, as it may not receive data again for some time
+     * Does nothing if the sensor is not part of this session or is already suspended
+     * @param sensorType SKSensorModuleType: the sensor to suspend
+     */
+    void suspendSensor(SKSensorModuleType sensorType) throws SKException {
+        heldSensors.remove(sensorType);
+
+        if (isSensing && sensorTypes.contains(sensorType) && suspendedSensors.add(sensorType)) {
+            mSensingKitLib.stopContinuousSensingWithSensor(sensorType);
+            final SensorDataWriter writer = dataWriters.get(sensorTypes.indexOf(sensorType));
+            delivery.runSync(new SensorDelivery.Task() {
+                @Override
+                public void run() throws SKException {
+                    writer.flush();
+                }
+            });
         }
     }
 
+    /**
+     * Restarts continuous sensing with a sensor previously suspended by suspendSensor
+     * While storage is limited, high rate sensors are held instead, and resumed once storage recovers
+     * @param sensorType SKSensorModuleType: the sensor to resume
+     */
+    void resumeSensor(SKSensorModuleType sensorType) throws SKException {
+        if (storageLimited && SensorValues.isHighRate(sensorType) && suspendedSensors.contains(sensorType)) {
+            heldSensors.add(sensorType);
+            return;
+        }
+
+        if (isSensing && suspendedSensors.remove(sensorType)) {
+            mSensingKitLib.startContinuousSensingWithSensor(sensorType);
+        }
+    }
+
+    /**
+     * Responds to a storage check while sensing
+     * Storage changes and write failures are marked in the session event file, and high rate sensors are
+     * suspended while storage is critical or writing has failed, so that the remaining space goes to low rate sensors
+     * @param level StorageManager.Level: the result of the check
+     */
+    void onStorageLevel(StorageManager.Level level) throws SKException {
+        long timestamp = System.currentTimeMillis();
+
+        if (level != storageLevel) {
+            storageLevel = level;
+            logEvent(timestamp, "storage_" + level.name().toLowerCase(Locale.UK), "");
+        }
+
+        boolean writeFailed = false;
+        for (int i = 0; i < dataWriters.size(); i++) {
+            if (dataWriters.get(i).hasWriteFailed()) {
+                writeFailed = true;
+                if (!writeFailureLogged) {
+                    logEvent(timestamp, "write_failed", sensorTypes.get(i).name());
+                }
+            }
+        }
+        writeFailureLogged = writeFailureLogged || writeFailed;
+
+        setStorageLimited(level == StorageManager.Level.CRITICAL || writeFailed);
+    }
+
+    /**
+     * Suspends or restores high rate sensors as storage runs out or recovers
+     * @param limited boolean: true to suspend high rate sensors
+     */
+    private void setStorageLimited(boolean limited) throws SKException {
+        if (limited == storageLimited) {
+            return;
+        }
+
+        if (limited) {
+            for (SKSensorModuleType sensorType : sensorTypes) {
+                if (SensorValues.isHighRate(sensorType) && !suspendedSensors.contains(sensorType)) {
+                    suspendSensor(sensorType);
+                    heldSensors.add(sensorType);
+                }
+            }
+            storageLimited = true;
+        } else {
+            storageLimited = false;
+            EnumSet<SKSensorModuleType> held = EnumSet.copyOf(heldSensors);
+            heldSensors.clear();
+            for (SKSensorModuleType sensorType : held) {
+                resumeSensor(sensorType);
+            }
+        }
+    }
+
+    /**
+     * Sets how many incoming samples a sensor's data writer receives for each one it writes out
+     * @param sensorType SKSensorModuleType: the sensor to change
+     * @param decimation int: 1 writes every sample, n writes every nth sample
+     */
+    void setDecimation(SKSensorModuleType sensorType, int decimation) {
+        int index = sensorTypes.indexOf(sensorType);
+
+        if (index >= 0) {
+            dataWriters.get(index).setDecimation(decimation);
+        }
+    }
+
+    /**
+     * Subscribes an additional consumer, e.g. a live chart, to the data of every sensor in this session
+     * The consumer reads from the delivery's SensorBus on a thread of its own, so must not touch the UI directly, and
+     * misses data rather than holding up delivery if it falls behind. It is stopped when the session is closed
+     * @param consumer SKSensorDataListener: the consumer
+     */
+    void subscribeConsumer(SKSensorDataListener consumer) {
+        delivery.getBus().subscribe(consumer.getClass().getSimpleName(), consumer, sensorTypes);
+    }
+
+    /**
+     * Creates and subscribes a history of recent data from every sensor in this session, for live consumers
+     * The history is filled from the SensorBus, so keeps primitive copies of each reading rather than the readings
+     * @param historySeconds int: how much history to keep
+     * @return SensorHistory: the history, its buffers filling as the session senses
+     */
+    SensorHistory createHistory(int historySeconds) {
+        SensorHistory history = new SensorHistory(sensorTypes, historySeconds);
+        subscribeConsumer(history);
+        return history;
+    }
+
+    /**
+     * Writes a marker to the session event file, e.g. on a change in sampling
+     * @param timestamp long: time of the marker in milliseconds
+     * @param event String: short name of the event
+     * @param detail String: free text detail for the event
+     */
+    void logEvent(long timestamp, String event, String detail) {
+        eventLog.log(timestamp, event, detail);
+    }
+
+    /**
+     * Checks whether the session is paused with its sensors still running
+     * @return boolean: true if paused by pauseSession
+     */
+    boolean isPaused() {
+        return this.paused;
+    }
+
+    /**
+     * Accessor for the folder this session's data is saved to
+     * @return File: the session folder
+     */
+    File getFolder() {
+        return sessionFolder;
+    }
+
     /**
      * Checks sensor session active status
      * @return boolean: true if sensing, false if not
@@ -109,22 +531,85 @@ class SensorSession {
         return this.isSensing;
     }
 
+    private void startLoad() {
+        if (mainThreadLoad != null) {
+            mainThreadLoad.start();
+        }
+    }
+
+    private void stopLoad() {
+        if (mainThreadLoad != null) {
+            mainThreadLoad.stop();
+        }
+    }
+
+    /**
+     * Creates the triggered capture of a session, from the rule and windows set in settings
+     * Triggers and the end of each capture are marked in the session event file, as is a rule whose sensor is
+     * not enabled, which can never fire
+     * @param context Application context
+     * @param preferenceManager SharedPreferenceManager: the app's settings
+     * @return TriggeredCapture: the triggered capture
+     */
+    private TriggeredCapture createTriggeredCapture(Context context, SharedPreferenceManager preferenceManager) {
+        String ruleName = preferenceManager.getTriggerRule(context);
+        TriggerRule rule = new TriggerRule(ruleName,
+                preferenceManager.getTriggerThreshold(context, TriggerRule.getDefaultThreshold(ruleName)));
+
+        if (!sensorTypes.contains(rule.getSensorType())) {
+            logEvent(System.currentTimeMillis(), "trigger_unavailable", rule.getSensorType().name());
+        }
+
+        return new TriggeredCapture(sensorTypes, dataWriters, rule,
+                preferenceManager.getTriggerPreSeconds(context) * 1000L,
+                preferenceManager.getTriggerPostSeconds(context) * 1000L,
+                new TriggeredCapture.Listener() {
+                    @Override
+                    public void onTrigger(long timestamp, String detail) {
+                        logEvent(timestamp, "trigger", detail);
+                    }
+
+                    @Override
+                    public void onCaptureEnd(long timestamp) {
+                        logEvent(timestamp, "trigger_end", "");
+                    }
+                });
+    }
+
+    /**
+     * Creates a single log for every sensor's data to be appended to, in place of a file per sensor
+     * @param sessionFolder File: the session folder
+     * @param sensorNames ArrayList: name of each sensor, in the order of sensorTypes
+     * @return SessionLogWriter: the session log
+     */
+    private SessionLogWriter createSessionLog(File sessionFolder, ArrayList<String> sensorNames) throws SKException {
+        try {
+            File file = new File(sessionFolder, SessionLogWriter.FILENAME);
+            OutputStream out = burstCapture != null
+                    ? burstCapture.open(file, burstCapture.getTotalCapacity())
+                    : new FileOutputStream(file);
+            return new SessionLogWriter(out, sensorNames, SESSION_LOG_COMMIT_MILLIS);
+        }
+        catch (IOException ex) {
+            throw new SKException(TAG, ex.getMessage(), SKExceptionErrorCode.UNKNOWN_ERROR);
+        }
+    }
+
     /**
      * Creates folder for sensor data to be saved to
+     * @param root File: the app folder, or the staging folder in internal storage
      * @param folderName String: name of the folder, constructed on creation of sensor service
      * @return folder: the folder created
      */
-    private File createFolder(final String folderName) throws SKException {
-        File appFolder = new File(Environment.getExternalStorageDirectory().getAbsolutePath() + "/MobileSensing/");
-
-        if (!appFolder.exists()) {
-            if (!appFolder.mkdir()) {
+    private File createFolder(final File root, final String folderName) throws SKException {
+        if (!root.exists()) {
+            if (!root.mkdirs()) {
                 throw new SKException(TAG, "Folder could not be created.", SKExceptionErrorCode.UNKNOWN_ERROR);
             }
         }
 
-        Log.d(TAG, appFolder.getAbsolutePath());
-        File folder = new File(appFolder, folderName);
+        Log.d(TAG, root.getAbsolutePath());
+        File folder = new File(root, folderName);
 
         if (!folder.exists()) {
             if (!folder.mkdir()) {
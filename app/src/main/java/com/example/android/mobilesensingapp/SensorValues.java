@@ -0,0 +1,177 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp;
+
+import org.sensingkit.sensingkitlib.SKSensorModuleType;
+import org.sensingkit.sensingkitlib.data.SKAbstractData;
+import org.sensingkit.sensingkitlib.data.SKAccelerometerData;
+import org.sensingkit.sensingkitlib.data.SKAmbientTemperatureData;
+import org.sensingkit.sensingkitlib.data.SKAudioLevelData;
+import org.sensingkit.sensingkitlib.data.SKBatteryData;
+import org.sensingkit.sensingkitlib.data.SKGravityData;
+import org.sensingkit.sensingkitlib.data.SKGyroscopeData;
+import org.sensingkit.sensingkitlib.data.SKLightData;
+import org.sensingkit.sensingkitlib.data.SKLinearAccelerationData;
+import org.sensingkit.sensingkitlib.data.SKMagnetometerData;
+import org.sensingkit.sensingkitlib.data.SKRotationData;
+import org.sensingkit.sensingkitlib.data.SKSensorData;
+import org.sensingkit.sensingkitlib.data.SKStepCounterData;
+
+/**
+ * Class to read the timestamp and numeric fields of sensor data as primitives, in the same order as its CSV
+ * Used by consumers that store or process data without formatting it as text, and to size their buffers
+ */
+final class SensorValues {
+
+    // Highest delivery rate expected of a sensor, used to size buffers
+    private static final int HIGH_RATE_HZ = 200;
+    // Rate assumed for sensors that report on change, rather than continuously
+    private static final int LOW_RATE_HZ = 5;
+
+    private SensorValues() {
+    }
+
+    /**
+     * Checks whether a sensor reports continuously at a high rate, rather than on change
+     * @param sensorType SKSensorModuleType: the sensor
+     * @return boolean: true for motion sensors
+     */
+    static boolean isHighRate(SKSensorModuleType sensorType) {
+        switch (sensorType) {
+            case ACCELEROMETER:
+            case GRAVITY:
+            case LINEAR_ACCELERATION:
+            case GYROSCOPE:
+            case ROTATION:
+            case MAGNETOMETER:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Rate a sensor is expected to deliver at, used to size buffers
+     * @param sensorType SKSensorModuleType: the sensor
+     * @return int: HIGH_RATE_HZ for motion sensors, LOW_RATE_HZ otherwise
+     */
+    static int getExpectedRate(SKSensorModuleType sensorType) {
+        return isHighRate(sensorType) ? HIGH_RATE_HZ : LOW_RATE_HZ;
+    }
+
+    /**
+     * Number of numeric fields for a sensor, excluding the timestamp
+     * @param moduleType SKSensorModuleType: the sensor
+     * @return int: the number of fields, or -1 if the sensor's data is not numeric
+     */
+    static int getFieldCount(SKSensorModuleType moduleType) {
+        switch (moduleType) {
+            case ACCELEROMETER:
+            case GRAVITY:
+            case LINEAR_ACCELERATION:
+            case GYROSCOPE:
+            case MAGNETOMETER:
+                return 3;
+            case ROTATION:
+                return 5;
+            case AMBIENT_TEMPERATURE:
+            case LIGHT:
+            case STEP_COUNTER:
+            case AUDIO_LEVEL:
+                return 1;
+            case STEP_DETECTOR:
+                return 0;
+            case BATTERY:
+                // Plugged, status and health are written as their integer codes rather than as strings
+                return 6;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Timestamp of sensor data
+     * @param data SKSensorData: the data
+     * @return long: time of the data in milliseconds
+     */
+    static long getTimestamp(SKSensorData data) {
+        return ((SKAbstractData) data).getTimestamp();
+    }
+
+    /**
+     * Copies the numeric fields of sensor data, without allocating
+     * @param data SKSensorData: the data, of a sensor for which getFieldCount is not -1
+     * @param values float[]: destination, at least getFieldCount long
+     */
+    static void getValues(SKSensorData data, float[] values) {
+        switch (data.getSensorModuleType()) {
+            case ACCELEROMETER:
+                SKAccelerometerData accelerometer = (SKAccelerometerData) data;
+                values[0] = accelerometer.getX();
+                values[1] = accelerometer.getY();
+                values[2] = accelerometer.getZ();
+                break;
+            case GRAVITY:
+                SKGravityData gravity = (SKGravityData) data;
+                values[0] = gravity.getX();
+                values[1] = gravity.getY();
+                values[2] = gravity.getZ();
+                break;
+            case LINEAR_ACCELERATION:
+                SKLinearAccelerationData linearAcceleration = (SKLinearAccelerationData) data;
+                values[0] = linearAcceleration.getX();
+                values[1] = linearAcceleration.getY();
+                values[2] = linearAcceleration.getZ();
+                break;
+            case GYROSCOPE:
+                SKGyroscopeData gyroscope = (SKGyroscopeData) data;
+                values[0] = gyroscope.getX();
+                values[1] = gyroscope.getY();
+                values[2] = gyroscope.getZ();
+                break;
+            case MAGNETOMETER:
+                SKMagnetometerData magnetometer = (SKMagnetometerData) data;
+                values[0] = magnetometer.getX();
+                values[1] = magnetometer.getY();
+                values[2] = magnetometer.getZ();
+                break;
+            case ROTATION:
+                SKRotationData rotation = (SKRotationData) data;
+                values[0] = rotation.getX();
+                values[1] = rotation.getY();
+                values[2] = rotation.getZ();
+                values[3] = rotation.getCos();
+                values[4] = rotation.getHeadingAccuracy();
+                break;
+            case AMBIENT_TEMPERATURE:
+                values[0] = ((SKAmbientTemperatureData) data).getTemperature();
+                break;
+            case LIGHT:
+                values[0] = ((SKLightData) data).getLight();
+                break;
+            case STEP_COUNTER:
+                values[0] = ((SKStepCounterData) data).getSteps();
+                break;
+            case AUDIO_LEVEL:
+                values[0] = ((SKAudioLevelData) data).getLevel();
+                break;
+            case BATTERY:
+                SKBatteryData battery = (SKBatteryData) data;
+                values[0] = battery.getLevelRatio();
+                values[1] = battery.getTemperature();
+                values[2] = battery.getVoltage();
+                values[3] = battery.getPlugged();
+                values[4] = battery.getBatteryStatus();
+                values[5] = battery.getBatteryHealth();
+                break;
+            default:
+                break;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp;
+
+import com.example.android.mobilesensingapp.format.CompressedSeriesWriter;
+import com.example.android.mobilesensingapp.format.RunLengthCsvReader;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * Class to compact a closed session folder, converting each numeric CSV sensor file to the compressed series format
+ * Files with non-numeric fields (e.g. battery status strings) and the session event file are left as CSV
+ * Uses no Android APIs, as it is run by CompactionStage, and reports failures by throwing rather than logging
+ */
+final class SessionCompactor {
+
+    // Marker file written once a session has been compacted
+    static final String COMPACTED_MARKER = ".compacted";
+
+    private SessionCompactor() {
+    }
+
+    /**
+     * Checks whether a session folder has already been compacted
+     * @param sessionFolder File: the session folder
+     * @return boolean: true if compacted
+     */
+    static boolean isCompacted(File sessionFolder) {
+        return new File(sessionFolder, COMPACTED_MARKER).exists();
+    }
+
+    /**
+     * Compacts every numeric CSV file in a session folder, deleting each CSV once its compressed copy is complete
+     * The session is marked compacted only once every file has been converted or found not to be numeric, so a
+     * failed compaction is repeated in full, skipping files already converted
+     * Synchronized as both the storage manager and the post session pipeline may compact sessions
+     * @param sessionFolder File: the session folder, which must not be in use by an open session
+     * @return long: number of bytes saved
+     * @throws IOException if a file can not be read, converted, replaced or deleted, or the session not marked
+     */
+    static synchronized long compact(File sessionFolder) throws IOException {
+        long saved = 0;
+        File[] files = sessionFolder.listFiles();
+
+        if (files == null) {
+            throw new IOException("Not a session folder: " + sessionFolder);
+        }
+
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.endsWith(".csv") || name.equals(SessionEventLog.FILENAME) || name.equals(SessionIndexStage.FILENAME)
+                    || name.equals(SessionQuality.FILENAME)) {
+                continue;
+            }
+
+            String baseName = name.substring(0, name.length() - ".csv".length());
+            File compressed = new File(sessionFolder, baseName + CompressedSeriesWriter.EXTENSION);
+            File temporary = new File(sessionFolder, compressed.getName() + ".tmp");
+
+            long before = file.length();
+            if (!convert(file, temporary)) {
+                // Not numeric, so left as CSV
+                continue;
+            }
+            if (!temporary.renameTo(compressed)) {
+                throw new IOException("Could not replace " + compressed.getAbsolutePath());
+            }
+            if (!file.delete()) {
+                throw new IOException("Could not delete " + file.getAbsolutePath());
+            }
+            saved += before - compressed.length();
+        }
+
+        // Returns false if already marked, e.g. by a compaction that was killed before its checkpoint
+        new File(sessionFolder, COMPACTED_MARKER).createNewFile();
+        return saved;
+    }
+
+    /**
+     * Converts a CSV file of timestamp,numeric fields to the compressed series format
+     * The compressed file is deleted unless every line was converted
+     * @param csv File: the CSV file
+     * @param out File: the compressed file to create
+     * @return boolean: true if every line was converted, false if the file is empty or not numeric
+     * @throws IOException if the CSV can not be read, or the compressed file written or deleted
+     */
+    private static boolean convert(File csv, File out) throws IOException {
+        BufferedReader reader = null;
+        CompressedSeriesWriter writer = null;
+        boolean converted = false;
+
+        try {
+            // Expands run records written with change suppression, so the compacted file is at full resolution
+            reader = new RunLengthCsvReader(new FileReader(csv));
+            float[] values = null;
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+
+                String[] fields = line.split(",");
+                if (writer == null) {
+                    values = new float[fields.length - 1];
+                    writer = new CompressedSeriesWriter(new BufferedOutputStream(new FileOutputStream(out)), values.length);
+                }
+                if (fields.length - 1 != values.length) {
+                    return false;
+                }
+
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = Float.parseFloat(fields[i + 1]);
+                }
+                writer.append(Long.parseLong(fields[0]), values);
+            }
+
+            if (writer == null) {
+                return false;
+            }
+            writer.close();
+            writer = null;
+            converted = true;
+            return true;
+        }
+        catch (NumberFormatException ex) {
+            return false;
+        }
+        finally {
+            closeQuietly(reader);
+            closeQuietly(writer);
+            if (!converted && out.exists() && !out.delete()) {
+                throw new IOException("Could not delete " + out.getAbsolutePath());
+            }
+        }
+    }
+
+    /**
+     * Closes a reader that has been read to the end, or a writer whose output is being discarded, so a failure to
+     * close loses nothing
+     */
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            }
+            catch (IOException ex) {
+                // Nothing to recover
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp;
+
+import android.util.Log;
+
+import org.sensingkit.sensingkitlib.SKException;
+import org.sensingkit.sensingkitlib.SKExceptionErrorCode;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Class responsible for writing session level markers (e.g. sampling transitions) alongside the sensor data
+ * Each marker is written as a CSV line of timestamp,event,detail to its own file in the session folder
+ */
+class SessionEventLog {
+
+    // Debug Tag for use logging debug output to LogCat
+    private static final String TAG = "SessionEventLog";
+    static final String FILENAME = "Session Events.csv";
+    private BufferedOutputStream fileBuffer;
+
+    /**
+     * Constructor
+     * Creates (or appends to) the event file in the session folder
+     * @param sessionFolder File: The folder to save markers to for the current sensor session
+     */
+    SessionEventLog(File sessionFolder) throws SKException {
+
+        try {
+            this.fileBuffer = new BufferedOutputStream(new FileOutputStream(new File(sessionFolder, FILENAME), true));
+        }
+        catch (IOException ex) {
+            throw new SKException(TAG, ex.getMessage(), SKExceptionErrorCode.UNKNOWN_ERROR);
+        }
+    }
+
+    /**
+     * Writes a single marker
+     * Markers are rare, so each one is flushed immediately so as not to be lost if the session is killed
+     * @param timestamp long: time of the marker in milliseconds, on the same clock as the sensor data
+     * @param event String: short name of the event, e.g. "idle" or "active"
+     * @param detail String: free text detail for the event, must not contain commas or line breaks
+     */
+    synchronized void log(long timestamp, String event, String detail) {
+
+        if (fileBuffer == null) {
+            return;
+        }
+
+        String line = timestamp + "," + event + "," + detail + "\n";
+
+        try {
+            fileBuffer.write(line.getBytes());
+            fileBuffer.flush();
+        }
+        catch (IOException ex) {
+            Log.e(TAG, ex.getMessage());
+        }
+    }
+
+    /**
+     * Closes the event file, further markers are ignored
+     */
+    synchronized void close() throws SKException {
+
+        if (fileBuffer == null) {
+            return;
+        }
+
+        try {
+            fileBuffer.close();
+        }
+        catch (IOException ex) {
+            throw new SKException(TAG, ex.getMessage(), SKExceptionErrorCode.UNKNOWN_ERROR);
+        }
+        finally {
+            fileBuffer = null;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp;
+
+import com.example.android.mobilesensingapp.format.CompressedSeriesReader;
+import com.example.android.mobilesensingapp.format.CompressedSeriesWriter;
+import com.example.android.mobilesensingapp.format.RunLengthCsvReader;
+import com.example.android.mobilesensingapp.format.SessionLogReader;
+import com.example.android.mobilesensingapp.format.SessionLogWriter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Post session stage writing an index of a session's sensor data, one line per sensor of:
+ *   sensor,records,first timestamp,last timestamp,file,bytes
+ * so that sessions can be listed and filtered without reading their data. Reads CSV (expanding change suppression
+ * runs), compressed and session log files. Sensors with no records have empty timestamps
+ */
+class SessionIndexStage implements PostSessionStage {
+
+    static final String FILENAME = "Session Index.csv";
+
+    @Override
+    public String getName() {
+        return "index";
+    }
+
+    @Override
+    public void run(File sessionFolder) throws IOException {
+        File[] files = sessionFolder.listFiles();
+        if (files == null) {
+            throw new IOException("Session folder could not be read: " + sessionFolder);
+        }
+        Arrays.sort(files);
+
+        List<String> lines = new ArrayList<>();
+        for (File file : files) {
+            String name = file.getName();
+            if (name.equals(SessionLogWriter.FILENAME)) {
+                indexSessionLog(file, lines);
+            } else if (name.endsWith(CompressedSeriesWriter.EXTENSION)) {
+                lines.add(indexCompressed(file));
+            } else if (name.endsWith(".csv") && !name.equals(FILENAME) && !name.equals(SessionEventLog.FILENAME)
+                    && !name.equals(SessionQuality.FILENAME)) {
+                lines.add(indexCsv(file));
+            }
+        }
+
+        File temporary = new File(sessionFolder, FILENAME + ".tmp");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(temporary), "UTF-8");
+        try {
+            for (String line : lines) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        }
+        finally {
+            writer.close();
+        }
+
+        if (!temporary.renameTo(new File(sessionFolder, FILENAME))) {
+            throw new IOException("Index could not be written in " + sessionFolder);
+        }
+    }
+
+    private static String indexCsv(File file) throws IOException {
+        Range range = new Range();
+        BufferedReader reader = new RunLengthCsvReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                range.add(parseTimestamp(line));
+            }
+        }
+        finally {
+            reader.close();
+        }
+        return range.format(baseName(file), file);
+    }
+
+    private static String indexCompressed(File file) throws IOException {
+        Range range = new Range();
+        CompressedSeriesReader reader = new CompressedSeriesReader(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            while (reader.next()) {
+                range.add(reader.getTimestamp());
+            }
+        }
+        finally {
+            reader.close();
+        }
+        return range.format(baseName(file), file);
+    }
+
+    private static void indexSessionLog(File file, List<String> lines) throws IOException {
+        SessionLogReader reader = new SessionLogReader(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            List<String> names = reader.getStreamNames();
+            Range[] ranges = new Range[names.size()];
+            for (int i = 0; i < ranges.length; i++) {
+                ranges[i] = new Range();
+            }
+
+            while (reader.next()) {
+                String payload = reader.getPayload();
+                Range range = ranges[reader.getStream()];
+
+                if (payload.startsWith(RunLengthCsvReader.RUN_MARKER + ",")) {
+                    // A run of readings dropped by change suppression
+                    String[] fields = payload.split(",");
+                    try {
+                        range.addRun(Long.parseLong(fields[1]), Integer.parseInt(fields[2]));
+                    } catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+                        continue;
+                    }
+                } else {
+                    range.add(parseTimestamp(payload));
+                }
+            }
+
+            for (int i = 0; i < ranges.length; i++) {
+                lines.add(ranges[i].format(names.get(i), file));
+            }
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    private static long parseTimestamp(String line) {
+        int comma = line.indexOf(',');
+        try {
+            return Long.parseLong(comma < 0 ? line : line.substring(0, comma));
+        } catch (NumberFormatException ex) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    private static String baseName(File file) {
+        String name = file.getName();
+        return name.substring(0, name.lastIndexOf('.'));
+    }
+
+    /**
+     * Record count and timestamp range of one sensor
+     */
+    private static class Range {
+
+        long records = 0;
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+
+        void add(long timestamp) {
+            if (timestamp == Long.MIN_VALUE) {
+                return;
+            }
+            records++;
+            first = Math.min(first, timestamp);
+            last = Math.max(last, timestamp);
+        }
+
+        void addRun(long endTimestamp, int count) {
+            records += count;
+            last = Math.max(last, endTimestamp);
+        }
+
+        String format(String sensor, File file) {
+            String timestamps = records > 0 ? first + "," + last : ",";
+            return sensor + "," + records + "," + timestamps + "," + file.getName() + "," + file.length();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * Class to move a closed session folder from internal staging storage to external storage, see StorageManager
+ * Staging and external storage are usually separate file systems, so the folder is copied to a partial folder
+ * beside its destination, synced, renamed into place, and only then deleted from staging. A migration killed part
+ * way through leaves the staged session intact and is run again from the start
+ * Uses no Android APIs, so that it can be tested on the JVM
+ */
+final class SessionMigrator {
+
+    // Queue of closed staged sessions waiting to be migrated, in the app's files folder, see PostSessionQueue
+    static final String QUEUE_FILENAME = "migration_queue";
+    // Suffix of a folder being copied, renamed to the session's name once complete
+    static final String PARTIAL_SUFFIX = ".partial";
+
+    private SessionMigrator() {
+    }
+
+    /**
+     * Moves a session folder into a destination folder, renaming if possible and copying otherwise
+     * @param sessionFolder File: the staged session folder, which must not be in use by an open session
+     * @param destinationRoot File: folder to move the session into, created if needed
+     * @param reserveBytes long: free space to leave at the destination
+     * @return File: the session's new folder
+     * @throws IOException if the destination has too little space, the copy fails, or a folder of the same name at the
+     *                     destination differs in size, leaving the session staged
+     */
+    static synchronized File migrate(File sessionFolder, File destinationRoot, long reserveBytes) throws IOException {
+        File destination = new File(destinationRoot, sessionFolder.getName());
+
+        if (destination.isDirectory()) {
+            // Copied by an earlier attempt that was killed before deleting the staged copy, which is only deleted
+            // once the copy is confirmed to hold as much data, in case the destination is some other folder
+            long stagedSize = Folders.sizeOf(sessionFolder);
+            long destinationSize = Folders.sizeOf(destination);
+            if (destinationSize != stagedSize) {
+                throw new IOException("Destination differs from staged session " + sessionFolder.getName() + ", "
+                        + destinationSize + " bytes, not " + stagedSize);
+            }
+            if (!Folders.delete(sessionFolder)) {
+                throw new IOException("Staged session could not be deleted: " + sessionFolder);
+            }
+            return destination;
+        }
+
+        if (!destinationRoot.isDirectory() && !destinationRoot.mkdirs()) {
+            throw new IOException("Folder could not be created: " + destinationRoot);
+        }
+
+        long size = Folders.sizeOf(sessionFolder);
+        if (destinationRoot.getUsableSpace() - size < reserveBytes) {
+            throw new IOException("Not enough space to migrate " + sessionFolder.getName() + ", " + size + " bytes");
+        }
+
+        if (sessionFolder.renameTo(destination)) {
+            return destination;
+        }
+
+        File partial = new File(destinationRoot, sessionFolder.getName() + PARTIAL_SUFFIX);
+        Folders.delete(partial);
+        copy(sessionFolder, partial);
+
+        if (!partial.renameTo(destination)) {
+            throw new IOException("Folder could not be renamed: " + partial);
+        }
+        if (!Folders.delete(sessionFolder)) {
+            throw new IOException("Staged session could not be deleted: " + sessionFolder);
+        }
+        return destination;
+    }
+
+    /**
+     * Copies a folder and its contents, syncing each file so that the copy survives a crash once renamed into place
+     */
+    private static void copy(File from, File to) throws IOException {
+        if (from.isDirectory()) {
+            if (!to.mkdir()) {
+                throw new IOException("Folder could not be created: " + to);
+            }
+            File[] children = from.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    copy(child, new File(to, child.getName()));
+                }
+            }
+            return;
+        }
+
+        FileInputStream in = new FileInputStream(from);
+        try {
+            FileOutputStream out = new FileOutputStream(to);
+            try {
+                FileChannel source = in.getChannel();
+                long size = source.size();
+                long copied = 0;
+                while (copied < size) {
+                    copied += source.transferTo(copied, size - copied, out.getChannel());
+                }
+                out.getFD().sync();
+            }
+            finally {
+                out.close();
+            }
+        }
+        finally {
+            in.close();
+        }
+    }
+}
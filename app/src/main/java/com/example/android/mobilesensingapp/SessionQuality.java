@@ -0,0 +1,228 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp;
+
+import org.sensingkit.sensingkitlib.SKException;
+import org.sensingkit.sensingkitlib.SKExceptionErrorCode;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Class to measure the sampling quality of each sensor as data arrives, before decimation or change suppression,
+ * and write it to a report in the session folder when the session is closed, so that sessions with a low rate
+ * or long gaps can be found without reading their data
+ * Uses a fixed amount of memory per sensor, however long the session. Each line of the report is:
+ *   sensor,readings,first timestamp,last timestamp,effective rate in Hz,median interval,99th percentile interval,
+ *   gaps over GAP_MILLIS,total gap time,out of order,duplicates,longest gaps,interval histogram
+ * with intervals in milliseconds. The longest gaps are space separated start:length pairs, longest first, and the
+ * histogram space separated lowest interval:count pairs of its non empty buckets. Gaps include time suspended on
+ * purpose, e.g. by duty cycling, which is marked in the session event file
+ *
+ * The report measures when readings arrived, not when sensors sampled them. SensingKit stamps each reading with
+ * System.currentTimeMillis() in its sensor callback, rather than keeping the sensor event's own timestamp, so every
+ * interval includes the scheduling jitter of the callback, and readings batched by the sensor hardware arrive, and
+ * are stamped, together. That is what the duplicates count: several readings in the same millisecond, typically a
+ * batch, not a sensor sampling twice. Out of order readings are wall clock adjustments, e.g. network time updates,
+ * not readings delivered late. The effective rate is accurate over a session, the interval statistics are an upper
+ * bound on sampling jitter
+ * Readings are recorded on the delivery thread, see SensorDelivery
+ */
+class SessionQuality {
+
+    // Debug Tag for use logging debug output to LogCat
+    private static final String TAG = "SessionQuality";
+    static final String FILENAME = "Session Quality.csv";
+    // Interval counted as a gap in the data
+    static final long GAP_MILLIS = 1000;
+    // Number of longest gaps kept for each sensor
+    static final int LONGEST_GAPS = 5;
+    // Intervals are counted in 1 ms buckets below this, and in buckets doubling in width above it
+    private static final int LINEAR_BUCKETS = 256;
+    private static final int LOG_BUCKETS = 10;
+
+    private final List<String> sensorNames;
+    private final SensorStats[] stats;
+
+    /**
+     * Constructor
+     * @param sensorNames List: name of each sensor, in the order data is recorded
+     */
+    SessionQuality(List<String> sensorNames) {
+        this.sensorNames = sensorNames;
+        this.stats = new SensorStats[sensorNames.size()];
+
+        for (int i = 0; i < stats.length; i++) {
+            stats[i] = new SensorStats();
+        }
+    }
+
+    /**
+     * Records the arrival of a reading
+     * @param index int: index of the reading's sensor
+     * @param timestamp long: timestamp of the reading in milliseconds, the wall clock time SensingKit received it
+     */
+    void record(int index, long timestamp) {
+        stats[index].record(timestamp);
+    }
+
+    /**
+     * Writes the report to the session folder, replacing any earlier report
+     * @param sessionFolder File: the session folder
+     */
+    void write(File sessionFolder) throws SKException {
+        try {
+            Writer writer = new OutputStreamWriter(new FileOutputStream(new File(sessionFolder, FILENAME)), "UTF-8");
+            try {
+                for (int i = 0; i < stats.length; i++) {
+                    writer.write(sensorNames.get(i) + "," + stats[i].format() + "\n");
+                }
+            }
+            finally {
+                writer.close();
+            }
+        }
+        catch (IOException ex) {
+            throw new SKException(TAG, ex.getMessage(), SKExceptionErrorCode.UNKNOWN_ERROR);
+        }
+    }
+
+    /**
+     * Maps an interval to its histogram bucket
+     * @param interval long: the interval in milliseconds, at least 0
+     * @return int: the bucket
+     */
+    static int bucket(long interval) {
+        if (interval < LINEAR_BUCKETS) {
+            return (int) interval;
+        }
+        // 256 to 511 ms is the first log bucket, 512 to 1023 the second, and so on, the last is unbounded
+        int log = 63 - Long.numberOfLeadingZeros(interval) - 8;
+        return LINEAR_BUCKETS + Math.min(LOG_BUCKETS - 1, log);
+    }
+
+    /**
+     * @param bucket int: a histogram bucket
+     * @return long: the lowest interval counted in the bucket
+     */
+    static long bucketStart(int bucket) {
+        return bucket < LINEAR_BUCKETS ? bucket : (long) LINEAR_BUCKETS << (bucket - LINEAR_BUCKETS);
+    }
+
+    /**
+     * Quality measurements of one sensor
+     */
+    private static class SensorStats {
+
+        final long[] histogram = new long[LINEAR_BUCKETS + LOG_BUCKETS];
+        final long[] gapStarts = new long[LONGEST_GAPS];
+        final long[] gapLengths = new long[LONGEST_GAPS];
+        long readings = 0;
+        long first = 0;
+        long last = 0;
+        long gaps = 0;
+        long gapMillis = 0;
+        long outOfOrder = 0;
+        long duplicates = 0;
+
+        void record(long timestamp) {
+            readings++;
+            if (readings == 1) {
+                first = timestamp;
+                last = timestamp;
+                return;
+            }
+
+            long interval = timestamp - last;
+            if (interval < 0) {
+                // The wall clock stepped back. Counted, then used as the latest timestamp, so that the readings after
+                // the step are measured from it rather than each counted as out of order
+                outOfOrder++;
+                last = timestamp;
+                return;
+            }
+            if (interval == 0) {
+                // Arrived in the same millisecond as the last reading, usually as part of a batch
+                duplicates++;
+            }
+
+            histogram[bucket(interval)]++;
+            if (interval >= GAP_MILLIS) {
+                gaps++;
+                gapMillis += interval;
+            }
+            addGap(last, interval);
+            last = timestamp;
+        }
+
+        /**
+         * Keeps the gap if it is one of the longest so far, in descending order of length
+         */
+        void addGap(long start, long length) {
+            if (length <= gapLengths[LONGEST_GAPS - 1]) {
+                return;
+            }
+
+            int i = LONGEST_GAPS - 1;
+            while (i > 0 && gapLengths[i - 1] < length) {
+                gapLengths[i] = gapLengths[i - 1];
+                gapStarts[i] = gapStarts[i - 1];
+                i--;
+            }
+            gapLengths[i] = length;
+            gapStarts[i] = start;
+        }
+
+        long percentile(double fraction) {
+            long total = 0;
+            for (long count : histogram) {
+                total += count;
+            }
+
+            long target = (long) Math.ceil(total * fraction);
+            long seen = 0;
+            for (int i = 0; i < histogram.length; i++) {
+                seen += histogram[i];
+                if (seen >= target && seen > 0) {
+                    return bucketStart(i);
+                }
+            }
+            return 0;
+        }
+
+        String format() {
+            if (readings == 0) {
+                return "0,,,,,,,,,,,";
+            }
+
+            double seconds = (last - first) / 1000.0;
+            String rate = seconds > 0 ? String.format(Locale.UK, "%.2f", (readings - outOfOrder - 1) / seconds) : "";
+
+            StringBuilder longest = new StringBuilder();
+            for (int i = 0; i < LONGEST_GAPS && gapLengths[i] > 0; i++) {
+                longest.append(i > 0 ? " " : "").append(gapStarts[i]).append(':').append(gapLengths[i]);
+            }
+
+            StringBuilder buckets = new StringBuilder();
+            for (int i = 0; i < histogram.length; i++) {
+                if (histogram[i] > 0) {
+                    buckets.append(buckets.length() > 0 ? " " : "").append(bucketStart(i)).append(':').append(histogram[i]);
+                }
+            }
+
+            return readings + "," + first + "," + last + "," + rate + "," + percentile(0.5) + "," + percentile(0.99)
+                    + "," + gaps + "," + gapMillis + "," + outOfOrder + "," + duplicates + "," + longest + "," + buckets;
+        }
+    }
+}
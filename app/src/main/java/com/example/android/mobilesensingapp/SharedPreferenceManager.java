@@ -2,6 +2,7 @@ package com.example.android.mobilesensingapp;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
 import android.util.Log;
 
 import org.sensingkit.sensingkitlib.SKException;
@@ -23,6 +24,56 @@ class SharedPreferenceManager {
     private final String COMPATIBLE_SENSORS = "COMPATIBLE_SENSORS";
     private final String SENSORS_SET = "SENSORS_SET";
     private final String ENABLED_SENSORS = "ENABLES_SENSORS";
+    // Keys of session options set from the settings screen, must match those in preferences.xml
+    static final String ADAPTIVE_SAMPLING = "adaptive_sampling";
+    static final String CAPTURE_MODE = "capture_mode";
+    static final String DUTY_MOTION_ON = "duty_motion_on";
+    static final String DUTY_MOTION_PERIOD = "duty_motion_period";
+    static final String DUTY_ENVIRONMENT_ON = "duty_environment_on";
+    static final String DUTY_ENVIRONMENT_PERIOD = "duty_environment_period";
+    static final String STORAGE_FORMAT = "storage_format";
+    static final String STORAGE_QUOTA = "storage_quota_mb";
+    static final String STORAGE_EVICTION = "storage_eviction";
+    static final String FAST_PAUSE = "fast_pause";
+    static final String POST_SESSION_COMPACTION = "post_session_compaction";
+    static final String INTERNAL_STAGING = "internal_staging";
+    static final String DELIVERY_THREAD = "delivery_thread";
+    static final String MAIN_THREAD_LOAD = "main_thread_load";
+    static final String BURST_MINUTES = "burst_minutes";
+    static final String TRIGGER_RULE = "trigger_rule";
+    static final String TRIGGER_THRESHOLD = "trigger_threshold";
+    static final String TRIGGER_PRE_SECONDS = "trigger_pre_seconds";
+    static final String TRIGGER_POST_SECONDS = "trigger_post_seconds";
+    static final String CHANGE_SUPPRESSION = "change_suppression";
+    static final String SUPPRESSION_LOSSY = "suppression_lossy";
+    static final String SUPPRESSION_DEADBAND = "suppression_deadband";
+    static final String SUPPRESSION_HEARTBEAT = "suppression_heartbeat";
+    // Default space sessions may take up before older sessions are compacted or deleted
+    static final int DEFAULT_STORAGE_QUOTA_MB = 2048;
+    // Default planned length of a burst capture session, which sizes its memory buffers
+    static final int DEFAULT_BURST_MINUTES = 10;
+    // Default data saved before and after each trigger in triggered capture
+    static final int DEFAULT_TRIGGER_PRE_SECONDS = 10;
+    static final int DEFAULT_TRIGGER_POST_SECONDS = 20;
+    // Default longest time between written readings of a sensor with change suppression
+    static final int DEFAULT_SUPPRESSION_HEARTBEAT_SECONDS = 60;
+    // Capture mode values, must match capture_mode_values in arrays.xml
+    static final String CAPTURE_CONTINUOUS = "continuous";
+    static final String CAPTURE_DUTY_CYCLED = "duty_cycled";
+    static final String CAPTURE_BURST = "burst";
+    static final String CAPTURE_TRIGGERED = "triggered";
+    // Trigger rule values, must match trigger_rule_values in arrays.xml
+    static final String TRIGGER_MOTION = "motion";
+    static final String TRIGGER_STEPS = "steps";
+    static final String TRIGGER_LOUDNESS = "loudness";
+    // Delivery thread values, must match delivery_thread_values in arrays.xml
+    static final String DELIVERY_MAIN = "main";
+    static final String DELIVERY_DEDICATED = "dedicated";
+    static final String DELIVERY_HIGH_PRIORITY = "high_priority";
+    // Storage format values, must match storage_format_values in arrays.xml
+    static final String FORMAT_CSV = "csv";
+    static final String FORMAT_COMPRESSED = "compressed";
+    static final String FORMAT_SESSION_LOG = "session_log";
 
     /**
      * Constructor
@@ -193,4 +244,244 @@ class SharedPreferenceManager {
         }
         editor.apply();
     }
+
+    /**
+     * Check if adaptive sampling has been enabled by the user via settings screen
+     * @param context Application context
+     * @return boolean: true if high rate sensors should be reduced while the device is idle
+     */
+    boolean adaptiveSamplingIsEnabled(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context).getBoolean(ADAPTIVE_SAMPLING, false);
+    }
+
+    /**
+     * Check if fast pause has been enabled by the user via settings screen
+     * @param context Application context
+     * @return boolean: true if sensors should keep running while paused, so that sessions resume without delay
+     */
+    boolean fastPauseIsEnabled(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context).getBoolean(FAST_PAUSE, false);
+    }
+
+    /**
+     * Check if post session compaction has been enabled by the user via settings screen
+     * @param context Application context
+     * @return boolean: true if closed sessions should be compacted while the device is charging or idle
+     */
+    boolean postSessionCompactionIsEnabled(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context).getBoolean(POST_SESSION_COMPACTION, false);
+    }
+
+    /**
+     * Check if deleting older sessions to stay within the storage quota has been enabled by the user via settings screen
+     * @param context Application context
+     * @return boolean: true if older sessions may be deleted, false to only compact them, by default
+     */
+    boolean storageEvictionIsEnabled(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context).getBoolean(STORAGE_EVICTION, false);
+    }
+
+    /**
+     * Check if internal staging has been enabled by the user via settings screen
+     * @param context Application context
+     * @return boolean: true if sessions should be recorded to internal storage, then moved to external storage
+     */
+    boolean internalStagingIsEnabled(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context).getBoolean(INTERNAL_STAGING, false);
+    }
+
+    /**
+     * Accessor for the thread sensor data is written on, chosen by the user via settings screen
+     * @param context Application context
+     * @return String: one of the DELIVERY_ constants, the main thread by default
+     */
+    String getDeliveryThread(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context).getString(DELIVERY_THREAD, DELIVERY_MAIN);
+    }
+
+    /**
+     * Accessor for the synthetic main thread load used to test sensor delivery, set via settings screen
+     * @param context Application context
+     * @return int: share of the time the main thread is kept busy, in percent, 0 by default
+     */
+    int getMainThreadLoadPercent(Context context) {
+        try {
+            return Integer.parseInt(PreferenceManager.getDefaultSharedPreferences(context).getString(MAIN_THREAD_LOAD, "0"));
+        }
+        catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+
+    /**
+     * Accessor for the capture mode chosen by the user via settings screen
+     * @param context Application context
+     * @return String: one of the CAPTURE_ constants, continuous by default
+     */
+    String getCaptureMode(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context).getString(CAPTURE_MODE, CAPTURE_CONTINUOUS);
+    }
+
+    /**
+     * Accessor for the format sensor data is saved in, chosen by the user via settings screen
+     * @param context Application context
+     * @return String: one of the FORMAT_ constants, CSV by default
+     */
+    String getStorageFormat(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context).getString(STORAGE_FORMAT, FORMAT_CSV);
+    }
+
+    /**
+     * Accessor for a duty cycle window length or period set by the user via settings screen
+     * @param context Application context
+     * @param key String: one of the DUTY_ keys
+     * @param defaultSeconds int: value to use if not set, or not a positive whole number
+     * @return int: the number of seconds
+     */
+    int getDutyCycleSeconds(Context context, String key, int defaultSeconds) {
+        String value = PreferenceManager.getDefaultSharedPreferences(context).getString(key, null);
+
+        try {
+            int seconds = Integer.parseInt(value);
+            return seconds > 0 ? seconds : defaultSeconds;
+        } catch (NumberFormatException ex) {
+            return defaultSeconds;
+        }
+    }
+
+    /**
+     * Accessor for the space sessions may take up, set by the user via settings screen
+     * @param context Application context
+     * @return long: the quota in megabytes
+     */
+    long getStorageQuotaMegabytes(Context context) {
+        String value = PreferenceManager.getDefaultSharedPreferences(context).getString(STORAGE_QUOTA, null);
+
+        try {
+            long megabytes = Long.parseLong(value);
+            return megabytes > 0 ? megabytes : DEFAULT_STORAGE_QUOTA_MB;
+        } catch (NumberFormatException ex) {
+            return DEFAULT_STORAGE_QUOTA_MB;
+        }
+    }
+
+    /**
+     * Accessor for the planned length of a burst capture session, set by the user via settings screen
+     * @param context Application context
+     * @return int: the length in minutes
+     */
+    int getBurstMinutes(Context context) {
+        String value = PreferenceManager.getDefaultSharedPreferences(context).getString(BURST_MINUTES, null);
+
+        try {
+            int minutes = Integer.parseInt(value);
+            return minutes > 0 ? minutes : DEFAULT_BURST_MINUTES;
+        } catch (NumberFormatException ex) {
+            return DEFAULT_BURST_MINUTES;
+        }
+    }
+
+    /**
+     * Accessor for the rule starting each triggered capture, chosen by the user via settings screen
+     * @param context Application context
+     * @return String: one of the TRIGGER_ constants, motion by default
+     */
+    String getTriggerRule(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context).getString(TRIGGER_RULE, TRIGGER_MOTION);
+    }
+
+    /**
+     * Accessor for the threshold of the trigger rule, set by the user via settings screen
+     * @param context Application context
+     * @param defaultThreshold float: value to use if not set, or not a positive number, see TriggerRule
+     * @return float: the threshold, in the units of the rule's sensor
+     */
+    float getTriggerThreshold(Context context, float defaultThreshold) {
+        String value = PreferenceManager.getDefaultSharedPreferences(context).getString(TRIGGER_THRESHOLD, "0");
+
+        try {
+            float threshold = Float.parseFloat(value);
+            return threshold > 0 ? threshold : defaultThreshold;
+        } catch (NumberFormatException ex) {
+            return defaultThreshold;
+        }
+    }
+
+    /**
+     * Accessor for how much data before each trigger is saved, set by the user via settings screen
+     * @param context Application context
+     * @return int: the number of seconds
+     */
+    int getTriggerPreSeconds(Context context) {
+        String value = PreferenceManager.getDefaultSharedPreferences(context).getString(TRIGGER_PRE_SECONDS, null);
+
+        try {
+            int seconds = Integer.parseInt(value);
+            return seconds > 0 ? seconds : DEFAULT_TRIGGER_PRE_SECONDS;
+        } catch (NumberFormatException ex) {
+            return DEFAULT_TRIGGER_PRE_SECONDS;
+        }
+    }
+
+    /**
+     * Accessor for how much data after each trigger is saved, set by the user via settings screen
+     * @param context Application context
+     * @return int: the number of seconds
+     */
+    int getTriggerPostSeconds(Context context) {
+        String value = PreferenceManager.getDefaultSharedPreferences(context).getString(TRIGGER_POST_SECONDS, null);
+
+        try {
+            int seconds = Integer.parseInt(value);
+            return seconds > 0 ? seconds : DEFAULT_TRIGGER_POST_SECONDS;
+        } catch (NumberFormatException ex) {
+            return DEFAULT_TRIGGER_POST_SECONDS;
+        }
+    }
+
+    /**
+     * Check if change suppression has been enabled by the user via settings screen
+     * @param context Application context
+     * @return boolean: true if repeated readings of slow sensors should be written as run records
+     */
+    boolean changeSuppressionIsEnabled(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context).getBoolean(CHANGE_SUPPRESSION, false);
+    }
+
+    /**
+     * Accessor for the change suppression deadband set by the user via settings screen
+     * The deadband loses data, so applies only if the user has also explicitly enabled lossy suppression
+     * @param context Application context
+     * @return float: the deadband as a percentage of the last written value, 0 (exact repeats only) by default
+     */
+    float getSuppressionDeadbandPercent(Context context) {
+        if (!PreferenceManager.getDefaultSharedPreferences(context).getBoolean(SUPPRESSION_LOSSY, false)) {
+            return 0;
+        }
+
+        String value = PreferenceManager.getDefaultSharedPreferences(context).getString(SUPPRESSION_DEADBAND, "0");
+
+        try {
+            float percent = Float.parseFloat(value);
+            return percent >= 0 ? percent : 0;
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+
+    /**
+     * Accessor for the longest time between written readings with change suppression, set by the user via settings screen
+     * @param context Application context
+     * @return int: the number of seconds, 60 by default
+     */
+    int getSuppressionHeartbeatSeconds(Context context) {
+        String value = PreferenceManager.getDefaultSharedPreferences(context).getString(SUPPRESSION_HEARTBEAT, null);
+
+        try {
+            int seconds = Integer.parseInt(value);
+            return seconds > 0 ? seconds : DEFAULT_SUPPRESSION_HEARTBEAT_SECONDS;
+        } catch (NumberFormatException ex) {
+            return DEFAULT_SUPPRESSION_HEARTBEAT_SECONDS;
+        }
+    }
 }
\ No newline at end of file
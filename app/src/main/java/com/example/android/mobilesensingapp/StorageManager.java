@@ -0,0 +1,307 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.StatFs;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Class to keep the app's sessions within a storage quota and leave free space on the device
+ * When space runs short, older sessions are reclaimed in tiers, oldest first: first compacted to the compressed
+ * series format, then, only if the user has enabled eviction, deleted. The session being recorded is never touched
+ * Without eviction, a shortage that compaction cannot fix is reported as LOW or CRITICAL and left to the user
+ * Sessions are recorded to external storage, or, with internal staging enabled or while external storage is
+ * unavailable, to a staging folder in internal storage, from which each is moved once closed, see SessionMigrator
+ */
+class StorageManager {
+
+    // Debug Tag for use logging debug output to LogCat
+    private static final String TAG = "StorageManager";
+    private static final long MEGABYTE = 1024 * 1024;
+    // Free space below which older sessions are reclaimed
+    static final long LOW_FREE_BYTES = 200 * MEGABYTE;
+    // Free space below which high rate sensors stop being recorded
+    static final long CRITICAL_FREE_BYTES = 50 * MEGABYTE;
+    // How often free space is checked while sensing
+    static final long CHECK_INTERVAL_MILLIS = 60000;
+
+    enum Level {
+        // Within quota with enough free space
+        OK,
+        // Over quota or short of free space, older sessions are being reclaimed
+        LOW,
+        // Nearly out of space, or far over quota with nothing left to reclaim
+        CRITICAL
+    }
+
+    /**
+     * Callback for the result of a background check, delivered on the thread that created the storage manager
+     */
+    interface Listener {
+        void onStorageLevel(Level level);
+    }
+
+    /**
+     * Callback for the result of preparing for a session, delivered on the thread that created the storage manager
+     */
+    interface PrepareListener {
+        /**
+         * @param root File: the folder to create the session in, or null if there is too little space to start one
+         */
+        void onPrepared(File root);
+    }
+
+    private final Context context;
+    private final File appFolder;
+    private final File stagingFolder;
+    private final long quotaBytes;
+    private final boolean evictionEnabled;
+    private final Handler handler = new Handler();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    /**
+     * Constructor
+     * @param context Application context, used to read the quota, eviction and staging settings set by the user
+     */
+    StorageManager(Context context) {
+        SharedPreferenceManager preferenceManager = new SharedPreferenceManager();
+        this.context = context;
+        this.appFolder = getAppFolder();
+        this.stagingFolder = getStagingFolder(context);
+        this.quotaBytes = preferenceManager.getStorageQuotaMegabytes(context) * MEGABYTE;
+        this.evictionEnabled = preferenceManager.storageEvictionIsEnabled(context);
+    }
+
+    /**
+     * Folder that all session folders are created in
+     * @return File: the app folder, which may not exist yet
+     */
+    static File getAppFolder() {
+        return new File(Environment.getExternalStorageDirectory().getAbsolutePath() + "/MobileSensing/");
+    }
+
+    /**
+     * Folder in internal storage that sessions are staged in before being moved to the app folder
+     * @param context Application context
+     * @return File: the staging folder, which may not exist yet
+     */
+    static File getStagingFolder(Context context) {
+        return new File(context.getFilesDir(), "MobileSensing");
+    }
+
+    /**
+     * Checks whether external storage is mounted and writable
+     * @return boolean: true if sessions can be recorded to, or moved to, the app folder
+     */
+    static boolean isExternalAvailable() {
+        return Environment.MEDIA_MOUNTED.equals(Environment.getExternalStorageState());
+    }
+
+    /**
+     * Chooses the folder a new session is created in
+     * Staged in internal storage if enabled by the user and internal storage has room, or if external storage is
+     * unavailable, and in the app folder otherwise
+     * @param context Application context
+     * @return File: the staging folder or the app folder, which may not exist yet
+     */
+    static File getSessionRoot(Context context) {
+        File stagingFolder = getStagingFolder(context);
+
+        if (!isExternalAvailable()) {
+            return stagingFolder;
+        }
+        if (new SharedPreferenceManager().internalStagingIsEnabled(context)
+                && getFreeBytes(stagingFolder) >= LOW_FREE_BYTES) {
+            return stagingFolder;
+        }
+        return getAppFolder();
+    }
+
+    /**
+     * Checks whether a session folder is staged in internal storage, and so is to be moved once closed
+     * @param context Application context
+     * @param sessionFolder File: the session folder
+     * @return boolean: true if staged
+     */
+    static boolean isStaged(Context context, File sessionFolder) {
+        return getStagingFolder(context).equals(sessionFolder.getParentFile());
+    }
+
+    /**
+     * Chooses where a new session is recorded and makes room for it in the background, reclaiming older sessions if
+     * required, so that a session is not started without space to record
+     * @param listener PrepareListener: given the folder to create the session in, see getSessionRoot, or null if
+     *                 there is too little space even after reclaiming
+     */
+    void prepareAsync(final PrepareListener listener) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                File root = getSessionRoot(context);
+
+                if (check(root) != Level.OK) {
+                    reclaim(null);
+                }
+
+                final File result = check(root) == Level.CRITICAL ? null : root;
+                if (result == null) {
+                    Log.e(TAG, "Not enough storage space to start a session.");
+                }
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onPrepared(result);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Checks storage in the background, reclaiming older sessions if required, and reports the resulting level
+     * @param activeFolder File: folder of the session being recorded, which is never reclaimed
+     * @param listener Listener: notified of the level once the check is complete
+     */
+    void checkAsync(final File activeFolder, final Listener listener) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                File root = activeFolder.getParentFile();
+                Level level = check(root);
+                if (level != Level.OK) {
+                    reclaim(activeFolder);
+                    level = check(root);
+                }
+
+                final Level result = level;
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onStorageLevel(result);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Stops the background thread, once the service has finished with the storage manager
+     */
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Checks free space where sessions are recorded and the space used by the app's sessions against the quota
+     * Staged sessions count towards the quota, as they are to be moved to the app folder
+     * @param root File: the app folder or the staging folder, whichever is recorded to
+     * @return Level: the storage level
+     */
+    Level check(File root) {
+        long free = getFreeBytes(root);
+        long used = Folders.sizeOf(appFolder) + Folders.sizeOf(stagingFolder);
+
+        if (free < CRITICAL_FREE_BYTES || used > quotaBytes + quotaBytes / 10) {
+            return Level.CRITICAL;
+        }
+        if (free < LOW_FREE_BYTES || used > quotaBytes) {
+            return Level.LOW;
+        }
+        return Level.OK;
+    }
+
+    /**
+     * Reclaims older sessions, oldest first, until within quota with enough free space
+     * Each session is compacted before any is deleted, and sessions are only deleted with eviction enabled. Only
+     * sessions in the app folder are reclaimed, so this frees space on external storage only. Staged sessions are
+     * freed from internal storage by being moved
+     * @param activeFolder File: folder of the session being recorded, or null
+     */
+    private synchronized void reclaim(File activeFolder) {
+        File[] sessions = appFolder.listFiles();
+        if (sessions == null) {
+            return;
+        }
+
+        // Session folders are named by start time, so sort oldest first
+        Arrays.sort(sessions);
+
+        for (File session : sessions) {
+            if (withinLimits()) {
+                return;
+            }
+            if (isReclaimable(session, activeFolder) && !SessionCompactor.isCompacted(session)) {
+                try {
+                    long saved = SessionCompactor.compact(session);
+                    Log.i(TAG, "Compacted " + session.getName() + ", saving " + saved + " bytes");
+                }
+                catch (IOException ex) {
+                    Log.e(TAG, "Could not compact " + session.getName() + ": " + ex.getMessage());
+                }
+            }
+        }
+
+        if (!evictionEnabled) {
+            return;
+        }
+
+        for (File session : sessions) {
+            if (withinLimits()) {
+                return;
+            }
+            if (isReclaimable(session, activeFolder)) {
+                Log.w(TAG, "Deleting " + session.getName() + " to free storage");
+                if (!Folders.delete(session)) {
+                    Log.e(TAG, "Could not delete " + session.getAbsolutePath());
+                }
+            }
+        }
+    }
+
+    /**
+     * Sessions being recorded or still being copied in from staging are never reclaimed
+     */
+    private static boolean isReclaimable(File session, File activeFolder) {
+        return session.isDirectory() && !session.equals(activeFolder)
+                && !session.getName().endsWith(SessionMigrator.PARTIAL_SUFFIX);
+    }
+
+    private boolean withinLimits() {
+        return getFreeBytes(appFolder) >= LOW_FREE_BYTES
+                && Folders.sizeOf(appFolder) + Folders.sizeOf(stagingFolder) <= quotaBytes;
+    }
+
+    /**
+     * Free space available to the app on the storage holding a folder
+     * @param folder File: the folder, or a folder within its nearest existing parent if it does not exist yet
+     * @return long: number of bytes
+     */
+    @SuppressWarnings("deprecation")
+    static long getFreeBytes(File folder) {
+        while (!folder.exists() && folder.getParentFile() != null) {
+            folder = folder.getParentFile();
+        }
+        StatFs statFs = new StatFs(folder.getAbsolutePath());
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            return statFs.getAvailableBytes();
+        }
+        return (long) statFs.getAvailableBlocks() * statFs.getBlockSize();
+    }
+}
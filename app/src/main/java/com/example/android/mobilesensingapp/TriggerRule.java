@@ -0,0 +1,122 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp;
+
+import org.sensingkit.sensingkitlib.SKSensorModuleType;
+import org.sensingkit.sensingkitlib.data.SKAudioLevelData;
+import org.sensingkit.sensingkitlib.data.SKSensorData;
+
+import java.util.Locale;
+
+/**
+ * Rule evaluated on the live data of one sensor to start a triggered capture, see TriggeredCapture
+ * motion: the accelerometer's magnitude differs from gravity by more than the threshold, in m/s^2
+ * steps: the step detector reports at least the threshold number of steps within STEP_WINDOW_MILLIS
+ * loudness: the audio level exceeds the threshold, as an amplitude from 0 to 32767
+ */
+class TriggerRule {
+
+    // Time within which the steps rule counts steps, so that a burst of steps marks the start of a walk
+    static final long STEP_WINDOW_MILLIS = 5000;
+    private static final float STANDARD_GRAVITY = 9.81f;
+
+    private final String rule;
+    private final SKSensorModuleType sensorType;
+    private final float threshold;
+    private final float[] values = new float[3];
+    // Times of the most recent steps, for the steps rule
+    private final long[] stepTimes;
+    private long stepCount = 0;
+    private float lastValue = 0;
+
+    /**
+     * Constructor
+     * @param rule String: one of the TRIGGER_ constants of SharedPreferenceManager
+     * @param threshold float: the value the rule fires at, see getDefaultThreshold
+     */
+    TriggerRule(String rule, float threshold) {
+        this.rule = rule;
+        this.sensorType = getSensorType(rule);
+        this.threshold = threshold;
+        this.stepTimes = new long[Math.max(1, (int) Math.ceil(threshold))];
+    }
+
+    /**
+     * Sensor a rule is evaluated on
+     * @param rule String: one of the TRIGGER_ constants of SharedPreferenceManager
+     * @return SKSensorModuleType: the sensor, which must be enabled for the rule to fire
+     */
+    static SKSensorModuleType getSensorType(String rule) {
+        switch (rule) {
+            case SharedPreferenceManager.TRIGGER_STEPS:
+                return SKSensorModuleType.STEP_DETECTOR;
+            case SharedPreferenceManager.TRIGGER_LOUDNESS:
+                return SKSensorModuleType.AUDIO_LEVEL;
+            default:
+                return SKSensorModuleType.ACCELEROMETER;
+        }
+    }
+
+    /**
+     * Threshold used when none is set in settings
+     * @param rule String: one of the TRIGGER_ constants of SharedPreferenceManager
+     * @return float: 3 m/s^2 of motion, 4 steps, or an audio level of 10000
+     */
+    static float getDefaultThreshold(String rule) {
+        switch (rule) {
+            case SharedPreferenceManager.TRIGGER_STEPS:
+                return 4;
+            case SharedPreferenceManager.TRIGGER_LOUDNESS:
+                return 10000;
+            default:
+                return 3;
+        }
+    }
+
+    /**
+     * @return SKSensorModuleType: the sensor this rule is evaluated on
+     */
+    SKSensorModuleType getSensorType() {
+        return sensorType;
+    }
+
+    /**
+     * Evaluates the rule on a reading of its sensor
+     * @param data SKSensorData: the reading
+     * @return boolean: true if the rule fires
+     */
+    boolean fires(SKSensorData data) {
+        switch (sensorType) {
+            case STEP_DETECTOR:
+                long timestamp = SensorValues.getTimestamp(data);
+                stepTimes[(int) (stepCount % stepTimes.length)] = timestamp;
+                stepCount++;
+                // The slot written next holds the oldest of the most recent steps
+                long oldest = stepTimes[(int) (stepCount % stepTimes.length)];
+                lastValue = stepTimes.length;
+                return stepCount >= stepTimes.length && timestamp - oldest <= STEP_WINDOW_MILLIS;
+            case AUDIO_LEVEL:
+                lastValue = ((SKAudioLevelData) data).getLevel();
+                return lastValue > threshold;
+            default:
+                SensorValues.getValues(data, values);
+                double magnitude = Math.sqrt(values[0] * values[0] + values[1] * values[1] + values[2] * values[2]);
+                lastValue = (float) Math.abs(magnitude - STANDARD_GRAVITY);
+                return lastValue > threshold;
+        }
+    }
+
+    /**
+     * Describes the rule and the value that fired it, for the session event file
+     * @return String: the description, without commas
+     */
+    String describe() {
+        return String.format(Locale.UK, "%s %.2f", rule, lastValue);
+    }
+}
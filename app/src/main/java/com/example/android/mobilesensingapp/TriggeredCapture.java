@@ -0,0 +1,142 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp;
+
+import org.sensingkit.sensingkitlib.SKSensorModuleType;
+import org.sensingkit.sensingkitlib.data.SKSensorData;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class to save only the data around events of interest, e.g. the start of a walk or a loud noise
+ * The last few seconds of every sensor's readings are held in memory, and dropped as they age. When the session's
+ * TriggerRule fires, the held readings are passed to the data writers, followed by every reading until a set time
+ * after the trigger, so that each capture holds the data from before and after the event. A trigger during a
+ * capture extends it
+ * Readings are held as delivered rather than copied, so that they are saved exactly as in continuous capture,
+ * in any storage format. Rules are evaluated and readings held on the delivery thread only, to which SensorDelivery
+ * routes every reading, including Audio Level readings arriving on SensingKit's own thread
+ */
+class TriggeredCapture {
+
+    /**
+     * Notified as captures start and end, on the delivery thread
+     */
+    interface Listener {
+        /**
+         * @param timestamp long: time of the reading that fired the rule
+         * @param detail String: the rule and the value that fired it, without commas
+         */
+        void onTrigger(long timestamp, String detail);
+
+        /**
+         * @param timestamp long: time the capture ended
+         */
+        void onCaptureEnd(long timestamp);
+    }
+
+    private final List<SKSensorModuleType> sensorTypes;
+    private final List<SensorDataWriter> dataWriters;
+    private final TriggerRule rule;
+    private final long preTriggerMillis;
+    private final long postTriggerMillis;
+    private final Listener listener;
+    // Recent readings of each sensor while not capturing, oldest first
+    private final List<ArrayDeque<SKSensorData>> held = new ArrayList<>();
+    private boolean capturing = false;
+    private long captureUntil = 0;
+
+    /**
+     * Constructor
+     * @param sensorTypes List: the session's sensors
+     * @param dataWriters List: the data writer of each sensor, in the order of sensorTypes
+     * @param rule TriggerRule: the rule starting each capture
+     * @param preTriggerMillis long: how much data before the trigger to save
+     * @param postTriggerMillis long: how much data after the trigger to save
+     * @param listener Listener: notified as captures start and end
+     */
+    TriggeredCapture(List<SKSensorModuleType> sensorTypes, List<SensorDataWriter> dataWriters, TriggerRule rule,
+                     long preTriggerMillis, long postTriggerMillis, Listener listener) {
+        this.sensorTypes = sensorTypes;
+        this.dataWriters = dataWriters;
+        this.rule = rule;
+        this.preTriggerMillis = preTriggerMillis;
+        this.postTriggerMillis = postTriggerMillis;
+        this.listener = listener;
+
+        for (SKSensorModuleType sensorType : sensorTypes) {
+            int rate = SensorValues.getExpectedRate(sensorType);
+            held.add(new ArrayDeque<SKSensorData>((int) Math.min(1 << 16, rate * preTriggerMillis / 1000 + 1)));
+        }
+    }
+
+    /**
+     * Evaluates the rule on a reading, then holds the reading or passes it to its data writer while capturing
+     * @param index int: index of the reading's sensor
+     * @param moduleData SKSensorData: the reading
+     */
+    void onDataReceived(int index, SKSensorData moduleData) {
+        long timestamp = SensorValues.getTimestamp(moduleData);
+
+        if (capturing && timestamp >= captureUntil) {
+            end(captureUntil);
+        }
+
+        if (sensorTypes.get(index) == rule.getSensorType() && rule.fires(moduleData)) {
+            if (!capturing) {
+                capturing = true;
+                listener.onTrigger(timestamp, rule.describe());
+                writeHeld(timestamp - preTriggerMillis);
+            }
+            captureUntil = Math.max(captureUntil, timestamp + postTriggerMillis);
+        }
+
+        if (capturing) {
+            dataWriters.get(index).onDataReceived(sensorTypes.get(index), moduleData);
+        } else {
+            ArrayDeque<SKSensorData> readings = held.get(index);
+            readings.addLast(moduleData);
+            while (SensorValues.getTimestamp(readings.peekFirst()) < timestamp - preTriggerMillis) {
+                readings.pollFirst();
+            }
+        }
+    }
+
+    /**
+     * Ends a capture in progress, e.g. when the session is closed
+     * @param timestamp long: time the capture ended
+     */
+    void end(long timestamp) {
+        if (capturing) {
+            capturing = false;
+            listener.onCaptureEnd(timestamp);
+        }
+    }
+
+    /**
+     * Passes every held reading at or after a time to its data writer, and drops the rest
+     * Readings held from before a pause in the session are older than the pre-trigger window, so are dropped
+     * @param since long: earliest time to save
+     */
+    private void writeHeld(long since) {
+        for (int i = 0; i < held.size(); i++) {
+            ArrayDeque<SKSensorData> readings = held.get(i);
+            SensorDataWriter writer = dataWriters.get(i);
+            SKSensorData reading;
+
+            while ((reading = readings.pollFirst()) != null) {
+                if (SensorValues.getTimestamp(reading) >= since) {
+                    writer.onDataReceived(sensorTypes.get(i), reading);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Burst streams on the JVM: data held in memory is written out on the executor, never by the writing or closing thread
+ */
+public class BurstOutputStreamTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private final ManualExecutor executor = new ManualExecutor();
+    private final RecordingListener listener = new RecordingListener();
+
+    @Test
+    public void close_writesHeldDataOnExecutor() throws IOException {
+        File file = new File(temp.getRoot(), "Accelerometer.csv");
+        BurstOutputStream stream = new BurstOutputStream(file, 64, executor, listener);
+
+        stream.write(bytes("1000,0.5\n"));
+        stream.close();
+        assertFalse(file.exists());
+        assertTrue(listener.persisted.isEmpty());
+
+        executor.runAll();
+        assertEquals("1000,0.5\n", read(file));
+        assertEquals(Collections.singletonList(file), listener.persisted);
+        assertNull(listener.failure);
+        assertTrue(listener.spills.isEmpty());
+    }
+
+    @Test
+    public void fullBuffer_keepsWritingWhileHeldDataIsWrittenOut() throws IOException {
+        File file = new File(temp.getRoot(), "Light.csv");
+        BurstOutputStream stream = new BurstOutputStream(file, 10, executor, listener);
+
+        stream.write(bytes("1000,12\n"));
+        stream.write(bytes("2000,13\n"));
+        assertEquals(Collections.singletonList("full"), listener.spills);
+        assertTrue(stream.isSpilled());
+
+        // Written while the held data waits for the executor
+        stream.write(bytes("3000,14\n"));
+        stream.flush();
+        executor.runAll();
+
+        stream.write(bytes("4000,15\n"));
+        stream.close();
+        assertTrue(executor.isEmpty());
+        assertEquals("1000,12\n2000,13\n3000,14\n4000,15\n", read(file));
+        assertEquals(Collections.singletonList(file), listener.persisted);
+    }
+
+    @Test
+    public void closeDuringSpill_finishesOnceWrittenOut() throws IOException {
+        File file = new File(temp.getRoot(), "Gravity.csv");
+        BurstOutputStream stream = new BurstOutputStream(file, 64, executor, listener);
+
+        stream.write(bytes("1000,1\n"));
+        stream.spill("memory");
+        stream.spill("memory");
+        stream.write(bytes("2000,2\n"));
+        stream.close();
+        assertTrue(listener.persisted.isEmpty());
+
+        executor.runAll();
+        assertEquals(Collections.singletonList("memory"), listener.spills);
+        assertEquals("1000,1\n2000,2\n", read(file));
+        assertEquals(Collections.singletonList(file), listener.persisted);
+
+        try {
+            stream.write(bytes("3000,3\n"));
+            fail("Expected a write after close to fail");
+        } catch (IOException expected) {
+            // Closed
+        }
+    }
+
+    @Test
+    public void failedWriteOut_failsLaterWritesAndIsReported() throws IOException {
+        // A folder can not be opened as a file, as a file on a full or missing card would fail
+        File file = temp.newFolder("Gyroscope.csv");
+        BurstOutputStream stream = new BurstOutputStream(file, 8, executor, listener);
+
+        stream.write(bytes("1000,1\n"));
+        stream.write(bytes("2000,2\n"));
+        executor.runAll();
+
+        try {
+            stream.write(bytes("3000,3\n"));
+            fail("Expected the failed write out to fail later writes");
+        } catch (IOException expected) {
+            // Marks the data writer as failed
+        }
+
+        stream.close();
+        assertEquals(Collections.singletonList(file), listener.persisted);
+        assertNotNull(listener.failure);
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes();
+    }
+
+    private static String read(File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int read = 0;
+            while (read < data.length) {
+                read += in.read(data, read, data.length - read);
+            }
+        } finally {
+            in.close();
+        }
+        return new String(data);
+    }
+
+    /**
+     * Executor running its tasks only when told to, so that the tests control when data is written out
+     */
+    private static final class ManualExecutor implements Executor {
+
+        private final Queue<Runnable> tasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        void runAll() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+        }
+
+        boolean isEmpty() {
+            return tasks.isEmpty();
+        }
+    }
+
+    private static final class RecordingListener implements BurstOutputStream.Listener {
+
+        private final List<String> spills = new ArrayList<>();
+        private final List<File> persisted = new ArrayList<>();
+        private IOException failure;
+
+        @Override
+        public void onSpill(File file, String reason) {
+            spills.add(reason);
+        }
+
+        @Override
+        public void onPersisted(File file, IOException failure) {
+            persisted.add(file);
+            this.failure = failure;
+        }
+    }
+}
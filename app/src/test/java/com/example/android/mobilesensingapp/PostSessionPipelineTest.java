@@ -0,0 +1,186 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The post session pipeline and its stages on the JVM: checkpoints, resuming, failed stages and the session index
+ */
+public class PostSessionPipelineTest {
+
+    private static final PostSessionPipeline.Condition ALWAYS = new PostSessionPipeline.Condition() {
+        @Override
+        public boolean canContinue() {
+            return true;
+        }
+    };
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void process_checkpointsEachStageAndSkipsItWhenResumed() throws IOException {
+        File session = temp.newFolder("session");
+        CountingStage first = new CountingStage("first");
+        CountingStage second = new CountingStage("second");
+        PostSessionPipeline pipeline = new PostSessionPipeline(Arrays.<PostSessionStage>asList(first, second));
+
+        // Stopped before the second stage, e.g. by the device being unplugged
+        assertFalse(pipeline.process(session, new PostSessionPipeline.Condition() {
+            private int checks = 0;
+
+            @Override
+            public boolean canContinue() {
+                return checks++ == 0;
+            }
+        }));
+        assertEquals(Collections.singleton("first"), PostSessionPipeline.readCheckpoint(session));
+
+        assertTrue(pipeline.process(session, ALWAYS));
+        assertEquals(1, first.runs);
+        assertEquals(1, second.runs);
+        assertEquals(new HashSet<>(Arrays.asList("first", "second")), PostSessionPipeline.readCheckpoint(session));
+    }
+
+    @Test
+    public void runQueue_failedCompactionIsRecordedAndRetriedAfterLaterSessions() throws IOException {
+        File session = temp.newFolder("session");
+        SessionCompactorTest.write(new File(session, "Accelerometer.csv"), "1000,0.5,1.5,9.8\n");
+        // Can not be read, so compaction fails
+        assertTrue(new File(session, "Gyroscope.csv").mkdir());
+        File later = temp.newFolder("later");
+        SessionCompactorTest.write(new File(later, "Light.csv"), "1000,12.5\n");
+        PostSessionQueue queue = new PostSessionQueue(temp.newFile("queue"));
+        queue.add(session);
+        queue.add(later);
+        PostSessionPipeline pipeline = new PostSessionPipeline(Arrays.<PostSessionStage>asList(
+                new CompactionStage(), new SessionIndexStage()));
+
+        // The failed session is skipped, and the session after it processed
+        assertFalse(pipeline.runQueue(queue, ALWAYS, 0));
+        assertTrue(PostSessionPipeline.readCheckpoint(session).isEmpty());
+        assertFalse(new File(session, SessionIndexStage.FILENAME).exists());
+        assertEquals(Collections.singletonList(session), queue.getSessions());
+        assertEquals(new HashSet<>(Arrays.asList("compact", "index")), PostSessionPipeline.readCheckpoint(later));
+
+        PostSessionPipeline.Failure failure = PostSessionPipeline.readFailure(session);
+        assertEquals(1, failure.attempts);
+        assertEquals(PostSessionPipeline.RETRY_DELAY_MS, failure.retryAt);
+
+        // Not retried before its delay, which doubles with each failure
+        CountingStage counting = new CountingStage("count");
+        assertFalse(new PostSessionPipeline(Collections.<PostSessionStage>singletonList(counting))
+                .runQueue(queue, ALWAYS, failure.retryAt - 1));
+        assertEquals(0, counting.runs);
+        assertFalse(pipeline.runQueue(queue, ALWAYS, failure.retryAt));
+        assertEquals(2, PostSessionPipeline.readFailure(session).attempts);
+        assertEquals(failure.retryAt + 2 * PostSessionPipeline.RETRY_DELAY_MS,
+                PostSessionPipeline.readFailure(session).retryAt);
+
+        // Once the cause is fixed, the retry completes every stage and clears the failure
+        assertTrue(new File(session, "Gyroscope.csv").delete());
+        assertTrue(pipeline.runQueue(queue, ALWAYS, Long.MAX_VALUE));
+        assertEquals(new HashSet<>(Arrays.asList("compact", "index")), PostSessionPipeline.readCheckpoint(session));
+        assertNull(PostSessionPipeline.readFailure(session));
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void queue_readsPathsAsUtf8() throws IOException {
+        PostSessionQueue queue = new PostSessionQueue(temp.newFile("queue"));
+        File session = new File(temp.getRoot(), "S\u00e9ance \u00e9t\u00e9");
+        queue.add(session);
+
+        assertEquals(Collections.singletonList(session.getAbsoluteFile()), queue.getSessions());
+    }
+
+    @Test
+    public void runQueue_dropsSessionsThatNoLongerExist() throws IOException {
+        PostSessionQueue queue = new PostSessionQueue(temp.newFile("queue"));
+        queue.add(new File(temp.getRoot(), "deleted"));
+        CountingStage stage = new CountingStage("stage");
+
+        assertTrue(new PostSessionPipeline(Collections.<PostSessionStage>singletonList(stage)).runQueue(queue, ALWAYS));
+        assertEquals(0, stage.runs);
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void indexStage_countsRecordsOfEveryFormat() throws IOException {
+        File session = temp.newFolder("session");
+        SessionCompactorTest.write(new File(session, "Light.csv"), "1000,12.5\nR,1300,2,100;200\n2000,13.0\n");
+        SessionCompactorTest.write(new File(session, "Accelerometer.csv"), "500,0.5,1.5,9.8\n520,0.5,1.5,9.8\n");
+        SessionCompactorTest.write(new File(session, "Gravity.csv"), "");
+        SessionCompactorTest.write(new File(session, SessionEventLog.FILENAME), "1000,pause,stopped\n");
+        SessionCompactor.compact(session);
+
+        new SessionIndexStage().run(session);
+
+        List<String> index = readLines(new File(session, SessionIndexStage.FILENAME));
+        assertEquals(3, index.size());
+        assertTrue(index.get(0), index.get(0).startsWith("Accelerometer,2,500,520,Accelerometer.gor,"));
+        assertTrue(index.get(1), index.get(1).startsWith("Gravity,0,,,Gravity.csv,"));
+        assertTrue(index.get(2), index.get(2).startsWith("Light,4,1000,2000,Light.gor,"));
+    }
+
+    private static List<String> readLines(File file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+
+    /**
+     * Stage that only counts its runs
+     */
+    private static final class CountingStage implements PostSessionStage {
+
+        private final String name;
+        private int runs = 0;
+
+        CountingStage(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public void run(File sessionFolder) {
+            runs++;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Sensor ring buffers on the JVM: windows, wrapping, and snapshots taken while the producer overwrites records
+ */
+public class SensorRingBufferTest {
+
+    @Test
+    public void snapshot_copiesRecordsSinceTimestampOldestFirst() {
+        SensorRingBuffer buffer = new SensorRingBuffer(8, 3);
+        for (int i = 0; i < 5; i++) {
+            buffer.append(1000 + i * 10, record(i));
+        }
+        SensorRingBuffer.Window window = buffer.newWindow(8);
+
+        assertEquals(3, buffer.snapshot(window, 1020));
+        for (int i = 0; i < 3; i++) {
+            assertEquals(1020 + i * 10, window.getTimestamp(i));
+            assertEquals(i + 2, window.getValue(i, 0), 0);
+            assertEquals(-(i + 2), window.getValue(i, 2), 0);
+        }
+        assertEquals(0, buffer.snapshot(window, 2000));
+    }
+
+    @Test
+    public void snapshot_keepsMostRecentOnceWrappedOrWindowIsSmall() {
+        SensorRingBuffer buffer = new SensorRingBuffer(6, 3);
+        assertEquals(8, buffer.getCapacity());
+        for (int i = 0; i < 20; i++) {
+            buffer.append(i, record(i));
+        }
+        assertEquals(20, buffer.getSequence());
+
+        // The oldest slot may be mid-write, so one less than the capacity is readable
+        SensorRingBuffer.Window all = buffer.newWindow(100);
+        assertEquals(7, buffer.snapshot(all, Long.MIN_VALUE));
+        assertEquals(13, all.getTimestamp(0));
+        assertEquals(19, all.getTimestamp(6));
+
+        SensorRingBuffer.Window recent = buffer.newWindow(3);
+        assertEquals(3, buffer.snapshot(recent, Long.MIN_VALUE));
+        assertEquals(17, recent.getTimestamp(0));
+        assertEquals(19, recent.getValue(2, 0), 0);
+    }
+
+    @Test
+    public void snapshot_neverReturnsTornRecordsWhileProducerRuns() throws InterruptedException {
+        final SensorRingBuffer buffer = new SensorRingBuffer(64, 3);
+        final AtomicReference<String> torn = new AtomicReference<>();
+
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                SensorRingBuffer.Window window = buffer.newWindow(64);
+                while (buffer.getSequence() < 200000) {
+                    int size = buffer.snapshot(window, Long.MIN_VALUE);
+                    for (int i = 0; i < size; i++) {
+                        long timestamp = window.getTimestamp(i);
+                        if (window.getValue(i, 0) != timestamp % 100000 || window.getValue(i, 2) != -(timestamp % 100000)
+                                || (i > 0 && timestamp != window.getTimestamp(i - 1) + 1)) {
+                            torn.compareAndSet(null, "record " + timestamp);
+                        }
+                    }
+                }
+            }
+        });
+        consumer.start();
+
+        float[] record = new float[3];
+        for (int i = 0; i < 200000; i++) {
+            record[0] = i % 100000;
+            record[1] = 1;
+            record[2] = -(i % 100000);
+            buffer.append(i, record);
+        }
+        consumer.join(10000);
+
+        assertFalse(consumer.isAlive());
+        assertNull(torn.get());
+    }
+
+    private static float[] record(int i) {
+        return new float[] {i, 0.5f, -i};
+    }
+}
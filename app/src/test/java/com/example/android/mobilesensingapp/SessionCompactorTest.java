@@ -0,0 +1,131 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp;
+
+import com.example.android.mobilesensingapp.format.CompressedSeriesReader;
+import com.example.android.mobilesensingapp.format.CompressedSeriesWriter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Compaction of session folders on the JVM, including files left as CSV and failures
+ */
+public class SessionCompactorTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void compact_convertsNumericFilesAndExpandsRuns() throws IOException {
+        File session = temp.newFolder("2018-01-01_12.00.00");
+        write(new File(session, "Accelerometer.csv"), "1000,0.5,1.5,9.8\n1020,0.25,1.5,9.75\n");
+        write(new File(session, "Light.csv"), "1000,12.5\nR,1300,2,100;200\n2000,13.0\n");
+
+        SessionCompactor.compact(session);
+
+        assertFalse(new File(session, "Accelerometer.csv").exists());
+        assertFalse(new File(session, "Light.csv").exists());
+        assertEquals(Arrays.asList("1000,0.5,1.5,9.8", "1020,0.25,1.5,9.75"),
+                read(new File(session, "Accelerometer" + CompressedSeriesWriter.EXTENSION)));
+        assertEquals(Arrays.asList("1000,12.5", "1100,12.5", "1300,12.5", "2000,13.0"),
+                read(new File(session, "Light" + CompressedSeriesWriter.EXTENSION)));
+        assertTrue(SessionCompactor.isCompacted(session));
+    }
+
+    @Test
+    public void compact_leavesNonNumericAndSessionFiles() throws IOException {
+        File session = temp.newFolder("2018-01-01_12.00.00");
+        String battery = "1000,0.950000,250,3900,AC,Charging,Good\n";
+        write(new File(session, "Battery.csv"), battery);
+        write(new File(session, SessionEventLog.FILENAME), "1000,pause,stopped\n");
+        write(new File(session, "Empty.csv"), "");
+
+        assertEquals(0, SessionCompactor.compact(session));
+
+        assertTrue(new File(session, "Battery.csv").exists());
+        assertTrue(new File(session, SessionEventLog.FILENAME).exists());
+        assertTrue(new File(session, "Empty.csv").exists());
+        assertFalse(new File(session, "Battery" + CompressedSeriesWriter.EXTENSION + ".tmp").exists());
+        assertFalse(new File(session, "Battery" + CompressedSeriesWriter.EXTENSION).exists());
+        assertTrue(SessionCompactor.isCompacted(session));
+    }
+
+    @Test
+    public void compact_failureThrowsAndLeavesSessionUnmarked() throws IOException {
+        File session = temp.newFolder("2018-01-01_12.00.00");
+        write(new File(session, "Accelerometer.csv"), "1000,0.5,1.5,9.8\n");
+        // A folder named as a sensor file can not be read, as a file that failed to read would be
+        assertTrue(new File(session, "Gyroscope.csv").mkdir());
+
+        try {
+            SessionCompactor.compact(session);
+            fail("Expected the unreadable file to fail compaction");
+        } catch (IOException expected) {
+            // Reported rather than swallowed
+        }
+
+        assertFalse(SessionCompactor.isCompacted(session));
+    }
+
+    @Test
+    public void compact_missingFolderThrows() {
+        try {
+            SessionCompactor.compact(new File(temp.getRoot(), "missing"));
+            fail("Expected a missing session folder to fail compaction");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().startsWith("Not a session folder"));
+        }
+    }
+
+    static void write(File file, String text) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(text);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Reads a compressed file back as CSV lines, formatting values as Float.toString does
+     */
+    private static List<String> read(File file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        CompressedSeriesReader reader = new CompressedSeriesReader(new FileInputStream(file));
+        try {
+            while (reader.next()) {
+                StringBuilder line = new StringBuilder().append(reader.getTimestamp());
+                for (int i = 0; i < reader.getColumnCount(); i++) {
+                    line.append(',').append(reader.getValue(i));
+                }
+                lines.add(line.toString());
+            }
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Migration of staged sessions on the JVM, including resuming after a migration killed before deleting the staged copy
+ */
+public class SessionMigratorTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void migrate_movesSessionAndItsFiles() throws IOException {
+        File staged = stagedSession();
+        File root = new File(temp.getRoot(), "external");
+
+        File migrated = SessionMigrator.migrate(staged, root, 0);
+
+        assertEquals(new File(root, staged.getName()), migrated);
+        assertFalse(staged.exists());
+        assertEquals(23, Folders.sizeOf(migrated));
+    }
+
+    @Test
+    public void migrate_deletesStagedCopyOnceDestinationMatches() throws IOException {
+        File staged = stagedSession();
+        File root = temp.newFolder("external");
+        // As left by an earlier attempt killed after renaming the copy into place
+        File copy = new File(root, staged.getName());
+        assertTrue(copy.mkdir());
+        SessionCompactorTest.write(new File(copy, "Light.csv"), "1000,12.5\n");
+        SessionCompactorTest.write(new File(copy, "Accelerometer.csv"), "1000,0.5,1.5\n");
+
+        assertEquals(copy, SessionMigrator.migrate(staged, root, 0));
+        assertFalse(staged.exists());
+    }
+
+    @Test
+    public void migrate_keepsStagedCopyWhenDestinationDiffers() throws IOException {
+        File staged = stagedSession();
+        File root = temp.newFolder("external");
+        File other = new File(root, staged.getName());
+        assertTrue(other.mkdir());
+        SessionCompactorTest.write(new File(other, "Light.csv"), "1000,12.5\n");
+
+        try {
+            SessionMigrator.migrate(staged, root, 0);
+            fail("Expected a differing destination to fail the migration");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().startsWith("Destination differs"));
+        }
+
+        assertEquals(23, Folders.sizeOf(staged));
+        assertEquals(10, Folders.sizeOf(other));
+    }
+
+    @Test
+    public void migrate_tooLittleSpaceLeavesSessionStaged() throws IOException {
+        File staged = stagedSession();
+
+        try {
+            SessionMigrator.migrate(staged, temp.newFolder("external"), Long.MAX_VALUE);
+            fail("Expected the reserve to fail the migration");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().startsWith("Not enough space"));
+        }
+        assertEquals(23, Folders.sizeOf(staged));
+    }
+
+    @Test
+    public void folders_measureAndDeleteNestedFolders() throws IOException {
+        File folder = temp.newFolder("folder");
+        assertTrue(new File(folder, "nested").mkdir());
+        SessionCompactorTest.write(new File(folder, "a"), "12345");
+        SessionCompactorTest.write(new File(folder, "nested/b"), "123");
+
+        assertEquals(8, Folders.sizeOf(folder));
+        assertEquals(0, Folders.sizeOf(new File(folder, "missing")));
+        assertTrue(Folders.delete(folder));
+        assertFalse(folder.exists());
+    }
+
+    /**
+     * Creates a staged session of two files, 23 bytes in all
+     */
+    private File stagedSession() throws IOException {
+        File staged = temp.newFolder("staging", "2018-01-01_12.00.00");
+        SessionCompactorTest.write(new File(staged, "Light.csv"), "1000,12.5\n");
+        SessionCompactorTest.write(new File(staged, "Accelerometer.csv"), "1000,0.5,1.5\n");
+        return staged;
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sensingkit.sensingkitlib.SKException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The session quality report on the JVM
+ */
+public class SessionQualityTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void record_clockSteppingBackCountsOnceAndLaterReadingsMeasureFromIt() throws IOException, SKException {
+        SessionQuality quality = new SessionQuality(Collections.singletonList("Light"));
+        // The wall clock steps back 5 seconds after the third reading
+        for (long timestamp : new long[] {10000, 10020, 10040, 5060, 5080, 5100}) {
+            quality.record(0, timestamp);
+        }
+        quality.write(temp.getRoot());
+
+        String[] fields = readLine(new File(temp.getRoot(), SessionQuality.FILENAME)).split(",", -1);
+        assertEquals("Light", fields[0]);
+        assertEquals("6", fields[1]);
+        // Gaps, total gap time and out of order readings
+        assertEquals("0", fields[7]);
+        assertEquals("0", fields[8]);
+        assertEquals("1", fields[9]);
+        // Every interval but the step back is 20 ms
+        assertEquals("20:4", fields[12]);
+    }
+
+    private static String readLine(File file) throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            return reader.readLine();
+        } finally {
+            reader.close();
+        }
+    }
+}
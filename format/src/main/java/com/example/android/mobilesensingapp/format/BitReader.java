@@ -0,0 +1,71 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp.format;
+
+import java.io.EOFException;
+
+/**
+ * Reads values written by BitWriter from a byte array
+ */
+final class BitReader {
+
+    private byte[] buffer;
+    private int limit;
+    private int position;
+    private long pending;
+    private int pendingBits;
+
+    /**
+     * Starts reading a new range of bytes
+     * @param buffer byte[]: the bytes to read
+     * @param limit int: number of valid bytes
+     */
+    void reset(byte[] buffer, int limit) {
+        this.buffer = buffer;
+        this.limit = limit;
+        this.position = 0;
+        this.pending = 0;
+        this.pendingBits = 0;
+    }
+
+    /**
+     * Reads a value
+     * @param count int: number of bits to read, 0 to 64
+     * @return long: the value, in the low bits
+     * @throws EOFException if there are not enough bits left
+     */
+    long readBits(int count) throws EOFException {
+        if (count > 32) {
+            long high = readBits(count - 32);
+            return (high << 32) | readBits(32);
+        }
+
+        while (pendingBits < count) {
+            if (position == limit) {
+                throw new EOFException("Truncated block");
+            }
+            pending = (pending << 8) | (buffer[position++] & 0xFF);
+            pendingBits += 8;
+        }
+
+        pendingBits -= count;
+        long value = (pending >>> pendingBits) & ((1L << count) - 1);
+        pending &= (1L << pendingBits) - 1;
+        return value;
+    }
+
+    /**
+     * Reads a single bit
+     * @return boolean: true for 1
+     * @throws EOFException if there are no bits left
+     */
+    boolean readBit() throws EOFException {
+        return readBits(1) != 0;
+    }
+}
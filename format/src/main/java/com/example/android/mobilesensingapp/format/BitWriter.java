@@ -0,0 +1,89 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp.format;
+
+import java.util.Arrays;
+
+/**
+ * Writes values of up to 64 bits, most significant bit first, into a growable byte array
+ */
+final class BitWriter {
+
+    private byte[] buffer = new byte[4096];
+    private int size = 0;
+    private long pending = 0;
+    private int pendingBits = 0;
+
+    /**
+     * Writes the low bits of a value
+     * @param value long: the value, bits above count are ignored
+     * @param count int: number of bits to write, 0 to 64
+     */
+    void writeBits(long value, int count) {
+        if (count > 32) {
+            writeBits(value >>> 32, count - 32);
+            writeBits(value, 32);
+            return;
+        }
+
+        // Fewer than 8 bits are ever pending, so at most 39 bits are held here
+        pending = (pending << count) | (value & ((1L << count) - 1));
+        pendingBits += count;
+
+        while (pendingBits >= 8) {
+            pendingBits -= 8;
+            if (size == buffer.length) {
+                buffer = Arrays.copyOf(buffer, size * 2);
+            }
+            buffer[size++] = (byte) (pending >>> pendingBits);
+        }
+
+        pending &= (1L << pendingBits) - 1;
+    }
+
+    /**
+     * Writes a single bit
+     * @param bit boolean: true for 1
+     */
+    void writeBit(boolean bit) {
+        writeBits(bit ? 1 : 0, 1);
+    }
+
+    /**
+     * Pads the last byte with zero bits, so that everything written is in the byte array
+     */
+    void padToByte() {
+        if (pendingBits > 0) {
+            writeBits(0, 8 - pendingBits);
+        }
+    }
+
+    /**
+     * Discards everything written, keeping the allocated buffer for reuse
+     */
+    void reset() {
+        size = 0;
+        pending = 0;
+        pendingBits = 0;
+    }
+
+    /**
+     * @return byte[]: the backing array, valid up to size() after padToByte()
+     */
+    byte[] buffer() {
+        return buffer;
+    }
+
+    /**
+     * @return int: number of whole bytes written
+     */
+    int size() {
+        return size;
+    }
+}
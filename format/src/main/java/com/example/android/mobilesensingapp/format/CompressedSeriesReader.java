@@ -0,0 +1,125 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp.format;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Streaming decoder for files written by CompressedSeriesWriter, decoding one block at a time
+ * A truncated last block, e.g. from a session killed before it was closed, is treated as the end of the file
+ */
+public final class CompressedSeriesReader implements Closeable {
+
+    private final DataInputStream in;
+    private final int columnCount;
+    private final long[] timestamps = new long[CompressedSeriesWriter.BLOCK_RECORDS];
+    private final float[][] values;
+    private final BitReader bits = new BitReader();
+    private byte[] payload = new byte[4096];
+    private int count = 0;
+    private int index = -1;
+
+    /**
+     * Constructor
+     * Reads and checks the file header
+     * @param in InputStream: source, buffering is left to the caller
+     * @throws IOException if the stream is not a compressed series
+     */
+    public CompressedSeriesReader(InputStream in) throws IOException {
+        this.in = new DataInputStream(in);
+
+        if (this.in.readInt() != CompressedSeriesWriter.MAGIC) {
+            throw new IOException("Not a compressed sensor series");
+        }
+        int version = this.in.readUnsignedByte();
+        if (version != CompressedSeriesWriter.VERSION) {
+            throw new IOException("Unsupported compressed sensor series version " + version);
+        }
+
+        this.columnCount = this.in.readUnsignedByte();
+        this.values = new float[columnCount][CompressedSeriesWriter.BLOCK_RECORDS];
+    }
+
+    /**
+     * @return int: number of float fields per record
+     */
+    public int getColumnCount() {
+        return columnCount;
+    }
+
+    /**
+     * Moves to the next record
+     * @return boolean: false at the end of the file
+     * @throws IOException if the file can not be read or is corrupt
+     */
+    public boolean next() throws IOException {
+        if (++index < count) {
+            return true;
+        }
+
+        index = 0;
+        count = readBlock();
+        return count > 0;
+    }
+
+    /**
+     * @return long: timestamp of the current record in milliseconds
+     */
+    public long getTimestamp() {
+        return timestamps[index];
+    }
+
+    /**
+     * @param column int: index of the field
+     * @return float: the field's value in the current record
+     */
+    public float getValue(int column) {
+        return values[column][index];
+    }
+
+    /**
+     * Closes the stream
+     * @throws IOException if the stream can not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private int readBlock() throws IOException {
+        int records;
+        int length;
+
+        try {
+            records = in.readInt();
+            length = in.readInt();
+            if (records <= 0 || records > CompressedSeriesWriter.BLOCK_RECORDS || length < 0) {
+                throw new IOException("Corrupt block header");
+            }
+            if (payload.length < length) {
+                payload = new byte[length];
+            }
+            in.readFully(payload, 0, length);
+
+            bits.reset(payload, length);
+            GorillaCodec.decodeTimestamps(bits, timestamps, records);
+            for (int c = 0; c < columnCount; c++) {
+                GorillaCodec.decodeValues(bits, values[c], records);
+            }
+        } catch (EOFException ex) {
+            return 0;
+        }
+
+        return records;
+    }
+}
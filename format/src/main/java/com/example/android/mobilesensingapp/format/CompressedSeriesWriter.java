@@ -0,0 +1,115 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp.format;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes one sensor's data as blocks of Gorilla compressed columns: a timestamp column and one float column per field
+ *
+ * File layout (big endian):
+ *   header: int MAGIC, byte VERSION, byte column count
+ *   blocks: int record count, int payload length, payload
+ *   payload: timestamp column, then each value column, padded to a whole byte
+ *
+ * Blocks are written when full and on flush, so at most one partial block is lost if the app is killed
+ */
+public final class CompressedSeriesWriter implements Closeable, Flushable {
+
+    public static final String EXTENSION = ".gor";
+    static final int MAGIC = 0x534B4743;
+    static final int VERSION = 1;
+    static final int BLOCK_RECORDS = 1024;
+
+    private final DataOutputStream out;
+    private final int columnCount;
+    private final long[] timestamps = new long[BLOCK_RECORDS];
+    private final float[][] values;
+    private final BitWriter bits = new BitWriter();
+    private int count = 0;
+
+    /**
+     * Constructor
+     * Writes the file header
+     * @param out OutputStream: destination, buffering is left to the caller
+     * @param columnCount int: number of float fields per record
+     * @throws IOException if the header can not be written
+     */
+    public CompressedSeriesWriter(OutputStream out, int columnCount) throws IOException {
+        this.out = new DataOutputStream(out);
+        this.columnCount = columnCount;
+        this.values = new float[columnCount][BLOCK_RECORDS];
+
+        this.out.writeInt(MAGIC);
+        this.out.writeByte(VERSION);
+        this.out.writeByte(columnCount);
+    }
+
+    /**
+     * Adds a record, writing out a block when full
+     * @param timestamp long: time of the record in milliseconds
+     * @param record float[]: the record's fields, at least columnCount long
+     * @throws IOException if a block can not be written
+     */
+    public void append(long timestamp, float[] record) throws IOException {
+        timestamps[count] = timestamp;
+        for (int c = 0; c < columnCount; c++) {
+            values[c][count] = record[c];
+        }
+
+        if (++count == BLOCK_RECORDS) {
+            writeBlock();
+        }
+    }
+
+    /**
+     * Writes out any buffered records as a (possibly partial) block and flushes the stream
+     * @throws IOException if the block can not be written
+     */
+    @Override
+    public void flush() throws IOException {
+        writeBlock();
+        out.flush();
+    }
+
+    /**
+     * Writes out any buffered records and closes the stream
+     * @throws IOException if the block can not be written
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            writeBlock();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void writeBlock() throws IOException {
+        if (count == 0) {
+            return;
+        }
+
+        bits.reset();
+        GorillaCodec.encodeTimestamps(timestamps, count, bits);
+        for (int c = 0; c < columnCount; c++) {
+            GorillaCodec.encodeValues(values[c], count, bits);
+        }
+        bits.padToByte();
+
+        out.writeInt(count);
+        out.writeInt(bits.size());
+        out.write(bits.buffer(), 0, bits.size());
+        count = 0;
+    }
+}
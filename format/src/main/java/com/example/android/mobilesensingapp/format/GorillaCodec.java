@@ -0,0 +1,172 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp.format;
+
+import java.io.EOFException;
+
+/**
+ * Column encodings from Facebook's Gorilla time series database, suited to sensor streams:
+ * timestamps as delta of deltas, which is usually a single 0 bit for a regular sampling rate,
+ * and floats as the XOR with the previous value, which is short when values change slowly
+ */
+final class GorillaCodec {
+
+    private GorillaCodec() {
+    }
+
+    /**
+     * Encodes a column of millisecond timestamps
+     * The first is written in full, then each delta of deltas in the smallest of 1, 9, 12, 16 or 68 bits
+     * @param timestamps long[]: the column
+     * @param count int: number of values to encode
+     * @param writer BitWriter: destination
+     */
+    static void encodeTimestamps(long[] timestamps, int count, BitWriter writer) {
+        if (count == 0) {
+            return;
+        }
+
+        writer.writeBits(timestamps[0], 64);
+        long previousDelta = 0;
+
+        for (int i = 1; i < count; i++) {
+            long delta = timestamps[i] - timestamps[i - 1];
+            long deltaOfDelta = delta - previousDelta;
+            previousDelta = delta;
+
+            if (deltaOfDelta == 0) {
+                writer.writeBits(0, 1);
+            } else if (deltaOfDelta >= -63 && deltaOfDelta <= 64) {
+                writer.writeBits(0x2, 2);
+                writer.writeBits(deltaOfDelta + 63, 7);
+            } else if (deltaOfDelta >= -255 && deltaOfDelta <= 256) {
+                writer.writeBits(0x6, 3);
+                writer.writeBits(deltaOfDelta + 255, 9);
+            } else if (deltaOfDelta >= -2047 && deltaOfDelta <= 2048) {
+                writer.writeBits(0xE, 4);
+                writer.writeBits(deltaOfDelta + 2047, 12);
+            } else {
+                writer.writeBits(0xF, 4);
+                writer.writeBits(deltaOfDelta, 64);
+            }
+        }
+    }
+
+    /**
+     * Decodes a column written by encodeTimestamps
+     * @param reader BitReader: source
+     * @param timestamps long[]: destination, at least count long
+     * @param count int: number of values to decode
+     * @throws EOFException if the column is truncated
+     */
+    static void decodeTimestamps(BitReader reader, long[] timestamps, int count) throws EOFException {
+        if (count == 0) {
+            return;
+        }
+
+        timestamps[0] = reader.readBits(64);
+        long previousDelta = 0;
+
+        for (int i = 1; i < count; i++) {
+            long deltaOfDelta;
+
+            if (!reader.readBit()) {
+                deltaOfDelta = 0;
+            } else if (!reader.readBit()) {
+                deltaOfDelta = reader.readBits(7) - 63;
+            } else if (!reader.readBit()) {
+                deltaOfDelta = reader.readBits(9) - 255;
+            } else if (!reader.readBit()) {
+                deltaOfDelta = reader.readBits(12) - 2047;
+            } else {
+                deltaOfDelta = reader.readBits(64);
+            }
+
+            previousDelta += deltaOfDelta;
+            timestamps[i] = timestamps[i - 1] + previousDelta;
+        }
+    }
+
+    /**
+     * Encodes a column of floats
+     * The first is written in full, then a 0 bit for a repeated value, or the meaningful bits of the XOR with the
+     * previous value, reusing the previous leading and trailing zero counts where they still fit
+     * @param values float[]: the column
+     * @param count int: number of values to encode
+     * @param writer BitWriter: destination
+     */
+    static void encodeValues(float[] values, int count, BitWriter writer) {
+        if (count == 0) {
+            return;
+        }
+
+        int previous = Float.floatToRawIntBits(values[0]);
+        writer.writeBits(previous, 32);
+        int previousLeading = -1;
+        int previousTrailing = 0;
+
+        for (int i = 1; i < count; i++) {
+            int current = Float.floatToRawIntBits(values[i]);
+            int xor = current ^ previous;
+            previous = current;
+
+            if (xor == 0) {
+                writer.writeBits(0, 1);
+                continue;
+            }
+
+            int leading = Integer.numberOfLeadingZeros(xor);
+            int trailing = Integer.numberOfTrailingZeros(xor);
+
+            if (previousLeading >= 0 && leading >= previousLeading && trailing >= previousTrailing) {
+                writer.writeBits(0x2, 2);
+                writer.writeBits(xor >>> previousTrailing, 32 - previousLeading - previousTrailing);
+            } else {
+                int length = 32 - leading - trailing;
+                writer.writeBits(0x3, 2);
+                writer.writeBits(leading, 5);
+                writer.writeBits(length - 1, 5);
+                writer.writeBits(xor >>> trailing, length);
+                previousLeading = leading;
+                previousTrailing = trailing;
+            }
+        }
+    }
+
+    /**
+     * Decodes a column written by encodeValues
+     * @param reader BitReader: source
+     * @param values float[]: destination, at least count long
+     * @param count int: number of values to decode
+     * @throws EOFException if the column is truncated
+     */
+    static void decodeValues(BitReader reader, float[] values, int count) throws EOFException {
+        if (count == 0) {
+            return;
+        }
+
+        int previous = (int) reader.readBits(32);
+        values[0] = Float.intBitsToFloat(previous);
+        int leading = 0;
+        int trailing = 0;
+
+        for (int i = 1; i < count; i++) {
+            if (reader.readBit()) {
+                if (reader.readBit()) {
+                    leading = (int) reader.readBits(5);
+                    int length = (int) reader.readBits(5) + 1;
+                    trailing = 32 - leading - length;
+                }
+                int xor = (int) reader.readBits(32 - leading - trailing) << trailing;
+                previous ^= xor;
+            }
+            values[i] = Float.intBitsToFloat(previous);
+        }
+    }
+}
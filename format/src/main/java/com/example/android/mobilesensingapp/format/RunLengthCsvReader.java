@@ -0,0 +1,156 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp.format;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads a sensor CSV file written with change suppression, expanding run records back into full resolution lines
+ *
+ * With change suppression, a reading identical to the last one written is not written. Instead, the repeats are
+ * written as a run record before the next line that is written:
+ *   R,end timestamp,count,delta;delta;...
+ * meaning the previous line was repeated count times, the last of them at end timestamp. Each delta is the time in
+ * milliseconds from the previous line or repeat to the next repeat, so repeated lines are reconstructed with their
+ * exact timestamps. With a lossy deadband enabled in the app, repeats are instead readings within the deadband of the
+ * line written, and are reconstructed with that line's values
+ *
+ * Run records without deltas, R,end timestamp,count, were written by earlier versions. Their repeats are
+ * reconstructed with timestamps spread evenly up to the end timestamp, of which only the last is exact
+ *
+ * Files without run records are read unchanged, so this can be used to read any sensor CSV file.
+ * Only readLine() expands runs
+ */
+public class RunLengthCsvReader extends BufferedReader {
+
+    public static final String RUN_MARKER = "R";
+
+    private String lastLine;
+    private long lastTimestamp;
+    // Remainder of the run being expanded
+    private int runRemaining = 0;
+    private long runEnd;
+    // Deltas of the run being expanded, read from runCursor on, or null for a run without deltas
+    private String runDeltas;
+    private int runCursor;
+    private String lastFields;
+
+    /**
+     * Constructor
+     * @param in Reader: the CSV file
+     */
+    public RunLengthCsvReader(Reader in) {
+        super(in);
+    }
+
+    /**
+     * Formats a run record
+     * @param endTimestamp long: timestamp of the last repeat
+     * @param count int: number of repeats
+     * @param deltas CharSequence: time from the previous line or repeat to each repeat, separated by ';'
+     * @return String: the run record, without a line break
+     */
+    public static String formatRun(long endTimestamp, int count, CharSequence deltas) {
+        return RUN_MARKER + "," + endTimestamp + "," + count + "," + deltas;
+    }
+
+    /**
+     * Checks that the deltas of a run record hold exactly count integers
+     * @param deltas String: the deltas field of a run record
+     * @param count int: the run's count
+     * @return boolean: true if the deltas can be used to reconstruct the run
+     */
+    private static boolean isValidDeltas(String deltas, int count) {
+        int found = 0;
+        int start = 0;
+
+        while (start <= deltas.length()) {
+            int end = deltas.indexOf(';', start);
+            if (end < 0) {
+                end = deltas.length();
+            }
+            int digits = start < end && deltas.charAt(start) == '-' ? start + 1 : start;
+            // At most 18 digits, so that every delta parses as a long
+            if (digits == end || end - digits > 18) {
+                return false;
+            }
+            for (int i = digits; i < end; i++) {
+                if (deltas.charAt(i) < '0' || deltas.charAt(i) > '9') {
+                    return false;
+                }
+            }
+            found++;
+            start = end + 1;
+        }
+        return found == count;
+    }
+
+    /**
+     * Reads the next line, expanding run records
+     * @return String: the next line, or null at the end of the file
+     * @throws IOException if the file can not be read
+     */
+    @Override
+    public String readLine() throws IOException {
+        while (true) {
+            if (runRemaining > 0) {
+                long timestamp;
+                if (runDeltas != null) {
+                    int separator = runDeltas.indexOf(';', runCursor);
+                    int end = separator < 0 ? runDeltas.length() : separator;
+                    timestamp = lastTimestamp + Long.parseLong(runDeltas.substring(runCursor, end));
+                    runCursor = end + 1;
+                } else {
+                    // Spread the remaining repeats evenly between the last timestamp and the end of the run
+                    timestamp = lastTimestamp + (runEnd - lastTimestamp) / runRemaining;
+                }
+                runRemaining--;
+                lastTimestamp = timestamp;
+                return timestamp + lastFields;
+            }
+
+            String line = super.readLine();
+            if (line == null) {
+                return null;
+            }
+
+            if (line.startsWith(RUN_MARKER + ",")) {
+                String[] fields = line.split(",");
+                if (lastLine != null && (fields.length == 3 || fields.length == 4)) {
+                    try {
+                        runEnd = Long.parseLong(fields[1]);
+                        runRemaining = Integer.parseInt(fields[2]);
+                        runDeltas = fields.length == 4 ? fields[3] : null;
+                        runCursor = 0;
+                        if (runDeltas != null && !isValidDeltas(runDeltas, runRemaining)) {
+                            runRemaining = 0;
+                        }
+                    } catch (NumberFormatException ex) {
+                        runRemaining = 0;
+                    }
+                }
+                continue;
+            }
+
+            int comma = line.indexOf(',');
+            if (comma > 0) {
+                try {
+                    lastTimestamp = Long.parseLong(line.substring(0, comma));
+                    lastLine = line;
+                    lastFields = line.substring(comma);
+                } catch (NumberFormatException ex) {
+                    lastLine = null;
+                }
+            }
+            return line;
+        }
+    }
+}
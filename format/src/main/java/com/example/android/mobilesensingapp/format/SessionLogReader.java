@@ -0,0 +1,127 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp.format;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads back a session log written by SessionLogWriter, one record at a time in the order they were written
+ * Records of every stream are interleaved, use getStream() to demultiplex them
+ */
+public final class SessionLogReader implements Closeable {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final DataInputStream in;
+    private final List<String> streamNames;
+    private final byte[] payload = new byte[SessionLogWriter.MAX_PAYLOAD];
+    private int stream = -1;
+    private int length = 0;
+
+    /**
+     * Constructor
+     * Reads the file header
+     * @param in InputStream: the log, buffering is left to the caller
+     * @throws IOException if the header is missing or of an unsupported version
+     */
+    public SessionLogReader(InputStream in) throws IOException {
+        this.in = new DataInputStream(in);
+
+        if (this.in.readInt() != SessionLogWriter.MAGIC) {
+            throw new IOException("Not a session log");
+        }
+        int version = this.in.readUnsignedByte();
+        if (version != SessionLogWriter.VERSION) {
+            throw new IOException("Unsupported session log version " + version);
+        }
+
+        int streamCount = this.in.readUnsignedByte();
+        List<String> names = new ArrayList<>(streamCount);
+        for (int i = 0; i < streamCount; i++) {
+            names.add(this.in.readUTF());
+        }
+        this.streamNames = Collections.unmodifiableList(names);
+    }
+
+    /**
+     * @return List: name of each stream, indexed by stream number
+     */
+    public List<String> getStreamNames() {
+        return streamNames;
+    }
+
+    /**
+     * Moves to the next record
+     * @return boolean: false at the end of the log, including a record cut short when the app was killed
+     * @throws IOException if the log can not be read
+     */
+    public boolean next() throws IOException {
+        int tag = in.read();
+        if (tag < 0) {
+            return false;
+        }
+
+        try {
+            length = in.readUnsignedShort();
+            in.readFully(payload, 0, length);
+        } catch (EOFException ex) {
+            return false;
+        }
+
+        if (tag >= streamNames.size()) {
+            throw new IOException("Record for unknown stream " + tag);
+        }
+        stream = tag;
+        return true;
+    }
+
+    /**
+     * @return int: stream index of the current record
+     */
+    public int getStream() {
+        return stream;
+    }
+
+    /**
+     * @return String: the current record as text, e.g. a CSV line
+     */
+    public String getPayload() {
+        return new String(payload, 0, length, UTF_8);
+    }
+
+    /**
+     * Copies the current record's bytes
+     * @param destination byte[]: at least getPayloadLength() long
+     * @return int: number of bytes copied
+     */
+    public int getPayload(byte[] destination) {
+        System.arraycopy(payload, 0, destination, 0, length);
+        return length;
+    }
+
+    /**
+     * @return int: length of the current record in bytes
+     */
+    public int getPayloadLength() {
+        return length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
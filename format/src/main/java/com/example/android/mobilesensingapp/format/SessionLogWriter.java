@@ -0,0 +1,233 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp.format;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Writes every sensor of a session to one sequential log of tagged records, in place of a file per sensor
+ *
+ * Records from any number of threads are appended to an in-memory batch, which a committer thread writes out
+ * with a single write once it holds BATCH_BYTES, the commit interval has passed, or a flush is requested (group
+ * commit). Neither appending nor flushing waits on storage: the committer writes one batch while the next fills,
+ * and flushes requested by every sensor while it writes are served by its next commit
+ *
+ * File layout (big endian):
+ *   header: int MAGIC, byte VERSION, byte stream count, then each stream name as modified UTF-8
+ *   records: byte stream index, unsigned short payload length, payload
+ *
+ * A record cut short by the app being killed is ignored by SessionLogReader
+ */
+public final class SessionLogWriter implements Closeable, Flushable {
+
+    public static final String FILENAME = "Session.sklog";
+    static final int MAGIC = 0x534B4C47;
+    static final int VERSION = 1;
+    static final int BATCH_BYTES = 64 * 1024;
+    static final int MAX_PAYLOAD = 0xFFFF;
+    private static final int RECORD_HEADER = 3;
+
+    private final OutputStream out;
+    private final long commitIntervalMillis;
+    private final int streamCount;
+    private final Thread committer;
+    private byte[] batch = new byte[BATCH_BYTES * 2];
+    private byte[] spare = new byte[BATCH_BYTES * 2];
+    private int batchSize = 0;
+    private boolean flushRequested = false;
+    private boolean closed = false;
+    private IOException failure;
+
+    /**
+     * Constructor
+     * Writes the file header and starts the committer thread
+     * @param out OutputStream: destination, written in whole batches so needs no buffering
+     * @param streamNames List: name of each stream, e.g. the sensor name, indexed by stream number
+     * @param commitIntervalMillis long: longest time an appended record waits before being written out
+     * @throws IOException if the header can not be written
+     */
+    public SessionLogWriter(OutputStream out, List<String> streamNames, long commitIntervalMillis) throws IOException {
+        if (streamNames.size() > 255) {
+            throw new IOException("Too many streams: " + streamNames.size());
+        }
+
+        this.out = out;
+        this.commitIntervalMillis = commitIntervalMillis;
+        this.streamCount = streamNames.size();
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(header);
+        data.writeInt(MAGIC);
+        data.writeByte(VERSION);
+        data.writeByte(streamCount);
+        for (String name : streamNames) {
+            data.writeUTF(name);
+        }
+        out.write(header.toByteArray());
+
+        this.committer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                commitLoop();
+            }
+        }, "SessionLogCommitter");
+        this.committer.setDaemon(true);
+        this.committer.start();
+    }
+
+    /**
+     * Appends a record to the current batch
+     * @param stream int: the record's stream index
+     * @param payload byte[]: the record, e.g. a CSV line without its line break
+     * @param offset int: start of the record in payload
+     * @param length int: length of the record, at most 65535 bytes
+     * @throws IOException if the log is closed, or an earlier batch could not be written
+     */
+    public synchronized void append(int stream, byte[] payload, int offset, int length) throws IOException {
+        if (failure != null) {
+            throw new IOException("Session log write failed", failure);
+        }
+        if (closed) {
+            throw new IOException("Session log closed");
+        }
+        if (stream < 0 || stream >= streamCount || length > MAX_PAYLOAD) {
+            throw new IOException("Invalid record for stream " + stream + " of length " + length);
+        }
+
+        int required = batchSize + RECORD_HEADER + length;
+        if (required > batch.length) {
+            // Only happens if the committer falls behind by a whole batch
+            byte[] larger = new byte[Math.max(required, batch.length * 2)];
+            System.arraycopy(batch, 0, larger, 0, batchSize);
+            batch = larger;
+        }
+
+        batch[batchSize++] = (byte) stream;
+        batch[batchSize++] = (byte) (length >>> 8);
+        batch[batchSize++] = (byte) length;
+        System.arraycopy(payload, offset, batch, batchSize, length);
+        batchSize += length;
+
+        if (batchSize >= BATCH_BYTES) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Asks the committer thread to write out the current batch and flush the stream, without waiting for it
+     * Flushes requested before the committer gets to them are served by a single commit. Once closed, does nothing,
+     * as close writes out the last batch
+     * @throws IOException if an earlier batch could not be written
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        if (failure != null) {
+            throw new IOException("Session log write failed", failure);
+        }
+        if (closed) {
+            return;
+        }
+
+        flushRequested = true;
+        notifyAll();
+    }
+
+    /**
+     * Stops the committer thread, writes out the current batch and closes the stream
+     * @throws IOException if the batch can not be written
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+
+        try {
+            committer.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            commit();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Waits for a full batch, a flush or the commit interval, whichever comes first, then commits, until closed
+     */
+    private void commitLoop() {
+        while (true) {
+            synchronized (this) {
+                long deadline = System.currentTimeMillis() + commitIntervalMillis;
+                long remaining = commitIntervalMillis;
+                while (!closed && !flushRequested && batchSize < BATCH_BYTES && remaining > 0) {
+                    try {
+                        wait(remaining);
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                    remaining = deadline - System.currentTimeMillis();
+                }
+                if (closed) {
+                    return;
+                }
+                flushRequested = false;
+            }
+
+            try {
+                commit();
+            } catch (IOException ex) {
+                synchronized (this) {
+                    failure = ex;
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Swaps in the spare batch for appends to continue into, then writes out the full one with a single write
+     * Only runs on the committer thread, or in close once the committer has stopped, so commits never overlap
+     */
+    private void commit() throws IOException {
+        byte[] full;
+        int size;
+
+        synchronized (this) {
+            full = batch;
+            size = batchSize;
+            batch = spare;
+            batchSize = 0;
+        }
+
+        try {
+            if (size > 0) {
+                out.write(full, 0, size);
+            }
+            out.flush();
+        } finally {
+            synchronized (this) {
+                spare = full;
+            }
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp.format;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+/**
+ * Round trips of CompressedSeriesWriter and CompressedSeriesReader, including files cut short
+ */
+public class CompressedSeriesTest {
+
+    private static final int COLUMNS = 3;
+
+    @Test
+    public void roundTrip_severalBlocks() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        List<float[]> records = new ArrayList<>();
+        CompressedSeriesWriter writer = new CompressedSeriesWriter(out, COLUMNS);
+        // Two full blocks and a partial one
+        appendRecords(writer, records, 0, CompressedSeriesWriter.BLOCK_RECORDS * 2 + 100);
+        writer.close();
+
+        assertRecords(records, read(out.toByteArray()));
+    }
+
+    @Test
+    public void roundTrip_nanAndTimestampJumps() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CompressedSeriesWriter writer = new CompressedSeriesWriter(out, COLUMNS);
+        long[] timestamps = {1000, 1020, 1020, 1040, 500, 86400000, 86400020, -5, 1L << 50};
+        float[][] values = {
+                {Float.NaN, 1, 2}, {Float.NaN, Float.NaN, Float.NaN}, {0, -0.0f, Float.POSITIVE_INFINITY},
+                {1, 2, 3}, {1, 2, 3}, {Float.NaN, 2, 3}, {Float.MIN_VALUE, Float.MAX_VALUE, -1},
+                {4, 5, 6}, {Float.NaN, Float.NaN, 0}};
+        List<float[]> records = new ArrayList<>();
+        for (int i = 0; i < timestamps.length; i++) {
+            writer.append(timestamps[i], values[i]);
+            records.add(record(timestamps[i], values[i]));
+        }
+        writer.close();
+
+        assertRecords(records, read(out.toByteArray()));
+    }
+
+    @Test
+    public void flush_midBlockWritesPartialBlocks() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        List<float[]> records = new ArrayList<>();
+        CompressedSeriesWriter writer = new CompressedSeriesWriter(out, COLUMNS);
+
+        appendRecords(writer, records, 0, 10);
+        writer.flush();
+        int afterFirstFlush = out.size();
+        // Everything appended so far is readable before the writer is closed
+        assertRecords(records, read(out.toByteArray()));
+
+        writer.flush();
+        assertEquals("An empty flush writes no block", afterFirstFlush, out.size());
+
+        appendRecords(writer, records, 10, CompressedSeriesWriter.BLOCK_RECORDS + 5);
+        writer.flush();
+        appendRecords(writer, records, CompressedSeriesWriter.BLOCK_RECORDS + 15, 3);
+        writer.close();
+
+        assertRecords(records, read(out.toByteArray()));
+    }
+
+    @Test
+    public void truncated_lastBlockIsEndOfFile() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        List<float[]> records = new ArrayList<>();
+        CompressedSeriesWriter writer = new CompressedSeriesWriter(out, COLUMNS);
+        appendRecords(writer, records, 0, 50);
+        writer.flush();
+        int firstBlockEnd = out.size();
+        appendRecords(writer, new ArrayList<float[]>(), 50, 50);
+        writer.close();
+        byte[] file = out.toByteArray();
+
+        // Cut anywhere in the second block, including within its header, only the first block is read
+        for (int length = firstBlockEnd; length < file.length; length++) {
+            assertRecords(records, read(Arrays.copyOf(file, length)));
+        }
+        assertEquals(100, read(file).size());
+    }
+
+    @Test
+    public void truncated_headerOnlyHasNoRecords() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new CompressedSeriesWriter(out, COLUMNS).close();
+
+        CompressedSeriesReader reader = new CompressedSeriesReader(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(COLUMNS, reader.getColumnCount());
+        assertFalse(reader.next());
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void truncated_headerIsRejected() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new CompressedSeriesWriter(out, COLUMNS).close();
+
+        try {
+            new CompressedSeriesReader(new ByteArrayInputStream(Arrays.copyOf(out.toByteArray(), 5)));
+            fail("Truncated header read");
+        } catch (IOException ex) {
+            // Expected
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void corrupt_blockHeaderIsRejected() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CompressedSeriesWriter writer = new CompressedSeriesWriter(out, COLUMNS);
+        appendRecords(writer, new ArrayList<float[]>(), 0, 5);
+        writer.close();
+        byte[] file = out.toByteArray();
+        // Record count of the first block, just after the 6 byte file header
+        file[6] = 0x7F;
+
+        read(file);
+    }
+
+    @Test(expected = IOException.class)
+    public void notCompressedSeries_isRejected() throws IOException {
+        new CompressedSeriesReader(new ByteArrayInputStream("1500000000000,1.0,2.0\n".getBytes("US-ASCII")));
+    }
+
+    private static void appendRecords(CompressedSeriesWriter writer, List<float[]> records, int from, int count)
+            throws IOException {
+        float[] values = new float[COLUMNS];
+        for (int i = from; i < from + count; i++) {
+            long timestamp = 1500000000000L + i * 20L + (i % 7 == 0 ? 3 : 0);
+            values[0] = i % 5 == 0 ? Float.NaN : (float) Math.sin(i / 10.0);
+            values[1] = i / 100;
+            values[2] = 9.81f + i * 0.001f;
+            writer.append(timestamp, values);
+            records.add(record(timestamp, values));
+        }
+    }
+
+    /**
+     * A record as its timestamp's two halves as float bits, then its values, so that records compare exactly
+     */
+    private static float[] record(long timestamp, float[] values) {
+        float[] record = new float[COLUMNS + 2];
+        record[0] = Float.intBitsToFloat((int) (timestamp >>> 32));
+        record[1] = Float.intBitsToFloat((int) timestamp);
+        System.arraycopy(values, 0, record, 2, COLUMNS);
+        return record;
+    }
+
+    private static List<float[]> read(byte[] file) throws IOException {
+        List<float[]> records = new ArrayList<>();
+        CompressedSeriesReader reader = new CompressedSeriesReader(new ByteArrayInputStream(file));
+        try {
+            float[] values = new float[COLUMNS];
+            while (reader.next()) {
+                for (int c = 0; c < COLUMNS; c++) {
+                    values[c] = reader.getValue(c);
+                }
+                records.add(record(reader.getTimestamp(), values));
+            }
+        } finally {
+            reader.close();
+        }
+        return records;
+    }
+
+    private static void assertRecords(List<float[]> expected, List<float[]> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            for (int c = 0; c < COLUMNS + 2; c++) {
+                if (Float.floatToRawIntBits(expected.get(i)[c]) != Float.floatToRawIntBits(actual.get(i)[c])) {
+                    fail("Record " + i + " differs in column " + c);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp.format;
+
+import org.junit.Test;
+
+import java.io.EOFException;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Round trips of BitWriter, BitReader and the Gorilla column encodings
+ */
+public class GorillaCodecTest {
+
+    @Test
+    public void bits_roundTripEveryWidth() throws Exception {
+        BitWriter writer = new BitWriter();
+        Random random = new Random(1);
+        long[] values = new long[65];
+        for (int count = 0; count <= 64; count++) {
+            values[count] = random.nextLong();
+            writer.writeBits(values[count], count);
+        }
+        writer.padToByte();
+
+        BitReader reader = new BitReader();
+        reader.reset(writer.buffer(), writer.size());
+        for (int count = 0; count <= 64; count++) {
+            long mask = count == 64 ? -1L : (1L << count) - 1;
+            assertEquals("width " + count, values[count] & mask, reader.readBits(count));
+        }
+    }
+
+    @Test
+    public void bits_growBeyondInitialBuffer() throws Exception {
+        BitWriter writer = new BitWriter();
+        for (int i = 0; i < 10000; i++) {
+            writer.writeBits(i, 13);
+        }
+        writer.padToByte();
+
+        BitReader reader = new BitReader();
+        reader.reset(writer.buffer(), writer.size());
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(i & 0x1FFF, reader.readBits(13));
+        }
+    }
+
+    @Test(expected = EOFException.class)
+    public void bits_readPastEnd() throws Exception {
+        BitWriter writer = new BitWriter();
+        writer.writeBits(0x5, 3);
+        writer.padToByte();
+
+        BitReader reader = new BitReader();
+        reader.reset(writer.buffer(), writer.size());
+        reader.readBits(8);
+        reader.readBit();
+    }
+
+    @Test
+    public void timestamps_regularRate() throws Exception {
+        long[] timestamps = new long[1024];
+        for (int i = 0; i < timestamps.length; i++) {
+            timestamps[i] = 1500000000000L + 20 * i;
+        }
+
+        BitWriter writer = new BitWriter();
+        GorillaCodec.encodeTimestamps(timestamps, timestamps.length, writer);
+        writer.padToByte();
+        // 64 bits for the first, 9 for the first delta, then a bit each
+        assertEquals((64 + 9 + 1022 + 7) / 8, writer.size());
+
+        assertArrayEquals(timestamps, decodeTimestamps(writer, timestamps.length));
+    }
+
+    @Test
+    public void timestamps_jumpsOfEverySize() throws Exception {
+        // Deltas of deltas at the edge of each encoding, and jumps backwards as when the wall clock is set back
+        long[] deltas = {0, 63, -63, 64, -64, 65, 255, -255, 256, -256, 257, 2047, -2047, 2048, -2048, 2049,
+                3600000, -86400000, 0, 1, Integer.MAX_VALUE, -1L << 40, 5, 5, 5};
+        long[] timestamps = new long[deltas.length + 1];
+        timestamps[0] = 1500000000000L;
+        long delta = 0;
+        for (int i = 0; i < deltas.length; i++) {
+            delta += deltas[i];
+            timestamps[i + 1] = timestamps[i] + delta;
+        }
+
+        BitWriter writer = new BitWriter();
+        GorillaCodec.encodeTimestamps(timestamps, timestamps.length, writer);
+        writer.padToByte();
+
+        assertArrayEquals(timestamps, decodeTimestamps(writer, timestamps.length));
+    }
+
+    @Test
+    public void timestamps_extremeValues() throws Exception {
+        long[] timestamps = {Long.MIN_VALUE, Long.MAX_VALUE, 0, -1, Long.MAX_VALUE, Long.MIN_VALUE};
+
+        BitWriter writer = new BitWriter();
+        GorillaCodec.encodeTimestamps(timestamps, timestamps.length, writer);
+        writer.padToByte();
+
+        assertArrayEquals(timestamps, decodeTimestamps(writer, timestamps.length));
+    }
+
+    @Test
+    public void values_specialFloatsExact() throws Exception {
+        float quietNaN = Float.intBitsToFloat(0x7FC00000);
+        float otherNaN = Float.intBitsToFloat(0x7FC00001);
+        float[] values = {Float.NaN, Float.NaN, 1.5f, quietNaN, otherNaN, -0.0f, 0.0f, Float.POSITIVE_INFINITY,
+                Float.NEGATIVE_INFINITY, Float.MIN_VALUE, -Float.MAX_VALUE, 9.80665f, 9.80665f, Float.NaN};
+
+        float[] decoded = roundTripValues(values);
+
+        for (int i = 0; i < values.length; i++) {
+            assertEquals("value " + i, Float.floatToRawIntBits(values[i]), Float.floatToRawIntBits(decoded[i]));
+        }
+    }
+
+    @Test
+    public void values_randomWalk() throws Exception {
+        Random random = new Random(2);
+        float[] values = new float[1024];
+        float value = 9.81f;
+        for (int i = 0; i < values.length; i++) {
+            // Mostly small changes, with repeats and occasional large steps to exercise every encoding
+            int choice = random.nextInt(10);
+            if (choice < 3) {
+                value += (float) random.nextGaussian() * 0.01f;
+            } else if (choice < 5) {
+                value = (float) random.nextGaussian() * 1000;
+            } else if (choice < 6) {
+                value = Float.intBitsToFloat(random.nextInt());
+            }
+            values[i] = value;
+        }
+
+        float[] decoded = roundTripValues(values);
+
+        for (int i = 0; i < values.length; i++) {
+            assertEquals("value " + i, Float.floatToRawIntBits(values[i]), Float.floatToRawIntBits(decoded[i]));
+        }
+    }
+
+    @Test
+    public void values_truncatedColumn() {
+        float[] values = {1, 2, 3, 4, 5, 6, 7, 8};
+        BitWriter writer = new BitWriter();
+        GorillaCodec.encodeValues(values, values.length, writer);
+        writer.padToByte();
+
+        BitReader reader = new BitReader();
+        reader.reset(writer.buffer(), writer.size() - 2);
+        try {
+            GorillaCodec.decodeValues(reader, new float[values.length], values.length);
+            fail("Truncated column decoded");
+        } catch (EOFException ex) {
+            // Expected
+        }
+    }
+
+    private static long[] decodeTimestamps(BitWriter writer, int count) throws EOFException {
+        BitReader reader = new BitReader();
+        reader.reset(writer.buffer(), writer.size());
+        long[] decoded = new long[count];
+        GorillaCodec.decodeTimestamps(reader, decoded, count);
+        return decoded;
+    }
+
+    private static float[] roundTripValues(float[] values) throws EOFException {
+        BitWriter writer = new BitWriter();
+        GorillaCodec.encodeValues(values, values.length, writer);
+        writer.padToByte();
+
+        BitReader reader = new BitReader();
+        reader.reset(writer.buffer(), writer.size());
+        float[] decoded = new float[values.length];
+        GorillaCodec.decodeValues(reader, decoded, values.length);
+        return decoded;
+    }
+}
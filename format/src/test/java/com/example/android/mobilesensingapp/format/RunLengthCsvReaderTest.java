@@ -0,0 +1,104 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp.format;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Expansion of change suppression run records, with and without deltas
+ */
+public class RunLengthCsvReaderTest {
+
+    @Test
+    public void formatRun_joinsFields() {
+        assertEquals("R,1250,3,100;50;100", RunLengthCsvReader.formatRun(1250, 3, "100;50;100"));
+    }
+
+    @Test
+    public void deltas_restoreExactTimestamps() throws IOException {
+        String csv = "1000,0.5\n"
+                + RunLengthCsvReader.formatRun(1250, 3, "100;50;100") + "\n"
+                + "2000,0.6\n";
+
+        assertEquals(Arrays.asList("1000,0.5", "1100,0.5", "1150,0.5", "1250,0.5", "2000,0.6"), read(csv));
+    }
+
+    @Test
+    public void runSplitByFlush_continuesFromPreviousRunsLastRepeat() throws IOException {
+        // Repeats at 2000 and 3000, then 4000 and 5000, the run having been ended by a flush in between
+        String csv = "1000,0.5\n"
+                + RunLengthCsvReader.formatRun(3000, 2, "1000;1000") + "\n"
+                + RunLengthCsvReader.formatRun(5000, 2, "1000;1000") + "\n"
+                + "9000,0.6\n";
+
+        assertEquals(Arrays.asList("1000,0.5", "2000,0.5", "3000,0.5", "4000,0.5", "5000,0.5", "9000,0.6"), read(csv));
+    }
+
+    @Test
+    public void deltas_mayGoBackwards() throws IOException {
+        String csv = "1000,7\nR,1005,2,10;-5\n";
+
+        assertEquals(Arrays.asList("1000,7", "1010,7", "1005,7"), read(csv));
+    }
+
+    @Test
+    public void runWithoutDeltas_spreadsEvenly() throws IOException {
+        String csv = "1000,1,2\nR,1300,3\n";
+
+        assertEquals(Arrays.asList("1000,1,2", "1100,1,2", "1200,1,2", "1300,1,2"), read(csv));
+    }
+
+    @Test
+    public void malformedRuns_areSkipped() throws IOException {
+        String csv = "1000,1\n"
+                + "R,1200,3,100;100\n"
+                + "R,1200,1,100;100\n"
+                + "R,1200,2,100;x\n"
+                + "R,1200,2,100;\n"
+                + "R,1200,1,1234567890123456789\n"
+                + "R,end,1\n"
+                + "2000,2\n";
+
+        assertEquals(Arrays.asList("1000,1", "2000,2"), read(csv));
+    }
+
+    @Test
+    public void runBeforeAnyLine_isSkipped() throws IOException {
+        assertEquals(Arrays.asList("1000,1"), read("R,900,1,5\n1000,1\n"));
+    }
+
+    @Test
+    public void filesWithoutRuns_areUnchanged() throws IOException {
+        String csv = "1000,0.1,0.2,0.3\n1020,0.1,0.2,0.3\nnot a reading\n";
+
+        assertEquals(Arrays.asList("1000,0.1,0.2,0.3", "1020,0.1,0.2,0.3", "not a reading"), read(csv));
+    }
+
+    private static List<String> read(String csv) throws IOException {
+        List<String> lines = new ArrayList<>();
+        RunLengthCsvReader reader = new RunLengthCsvReader(new StringReader(csv));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,442 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp.format;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Group commit of SessionLogWriter under concurrent appends and flushes, and SessionLogReader on whole, cut short
+ * and corrupt logs
+ */
+public class SessionLogTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final List<String> STREAMS = Arrays.asList("Accelerometer", "Battery", "Light", "Step Detector");
+
+    @Test
+    public void roundTrip_keepsOrderAndStreams() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SessionLogWriter writer = new SessionLogWriter(out, STREAMS, 1000);
+        List<String> written = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            int stream = i % STREAMS.size();
+            append(writer, stream, i + "," + stream);
+            written.add(stream + ":" + i + "," + stream);
+        }
+        writer.close();
+
+        SessionLogReader reader = new SessionLogReader(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(STREAMS, reader.getStreamNames());
+        assertEquals(written, readAll(reader));
+    }
+
+    @Test
+    public void roundTrip_emptyAndLongestPayloads() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SessionLogWriter writer = new SessionLogWriter(out, STREAMS, 1000);
+        byte[] longest = new byte[SessionLogWriter.MAX_PAYLOAD];
+        Arrays.fill(longest, (byte) '7');
+        writer.append(0, new byte[0], 0, 0);
+        writer.append(3, longest, 0, longest.length);
+        writer.append(1, "x".getBytes(UTF_8), 0, 1);
+        writer.close();
+
+        SessionLogReader reader = new SessionLogReader(new ByteArrayInputStream(out.toByteArray()));
+        assertTrue(reader.next());
+        assertEquals(0, reader.getPayloadLength());
+        assertEquals("", reader.getPayload());
+        assertTrue(reader.next());
+        assertEquals(3, reader.getStream());
+        byte[] copy = new byte[SessionLogWriter.MAX_PAYLOAD];
+        assertEquals(longest.length, reader.getPayload(copy));
+        assertArrayEquals(longest, copy);
+        assertTrue(reader.next());
+        assertEquals("x", reader.getPayload());
+        assertFalse(reader.next());
+    }
+
+    @Test
+    public void append_rejectsInvalidRecords() throws IOException {
+        SessionLogWriter writer = new SessionLogWriter(new ByteArrayOutputStream(), STREAMS, 1000);
+        assertAppendFails(writer, -1, 1);
+        assertAppendFails(writer, STREAMS.size(), 1);
+        assertAppendFails(writer, 0, SessionLogWriter.MAX_PAYLOAD + 1);
+        writer.close();
+        assertAppendFails(writer, 0, 1);
+    }
+
+    @Test
+    public void concurrentAppends_eachThreadKeepsItsOrder() throws Exception {
+        final int threads = STREAMS.size();
+        final int perThread = 50000;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // A short interval, so that the committer swaps batches many times while appends continue
+        final SessionLogWriter writer = new SessionLogWriter(out, STREAMS, 1);
+
+        runConcurrently(threads, new Worker() {
+            @Override
+            public void run(int index) throws IOException {
+                for (int i = 0; i < perThread; i++) {
+                    append(writer, index, Integer.toString(i));
+                }
+            }
+        });
+        writer.close();
+
+        assertSequences(out.toByteArray(), threads, perThread);
+    }
+
+    @Test
+    public void flushDuringCommit_losesAndReordersNothing() throws Exception {
+        final int threads = 3;
+        final int perThread = 20000;
+        // Slow writes, so that flushes overlap commits by the committer and one another
+        SlowOutputStream out = new SlowOutputStream();
+        final SessionLogWriter writer = new SessionLogWriter(out, STREAMS, 1);
+
+        runConcurrently(threads + 1, new Worker() {
+            @Override
+            public void run(int index) throws IOException {
+                if (index == threads) {
+                    for (int i = 0; i < 200; i++) {
+                        writer.flush();
+                    }
+                    return;
+                }
+                for (int i = 0; i < perThread; i++) {
+                    append(writer, index, Integer.toString(i));
+                }
+            }
+        });
+        writer.close();
+
+        assertTrue(out.closed);
+        assertSequences(out.toByteArray(), threads, perThread);
+    }
+
+    @Test
+    public void flush_hasCommitterWritePendingRecordsWithoutClosing() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // An interval long enough that only the flush can have written the record
+        SessionLogWriter writer = new SessionLogWriter(out, STREAMS, 60000);
+        int header = out.size();
+        append(writer, 2, "1000,25.5");
+        writer.flush();
+
+        awaitSize(out, header + 3 + "1000,25.5".length());
+        SessionLogReader reader = new SessionLogReader(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(Collections.singletonList("2:1000,25.5"), readAll(reader));
+        writer.close();
+    }
+
+    @Test
+    public void flushesDuringCommit_areServedByOneCommit() throws Exception {
+        BlockingOutputStream out = new BlockingOutputStream();
+        SessionLogWriter writer = new SessionLogWriter(out, STREAMS, 60000);
+        out.writes.set(0);
+        append(writer, 0, "0");
+        writer.flush();
+        out.blocked.await();
+
+        // As every sensor flushes in a tick, while the committer is busy writing
+        for (int i = 1; i <= 50; i++) {
+            append(writer, i % STREAMS.size(), Integer.toString(i));
+            writer.flush();
+        }
+        out.release.countDown();
+        writer.close();
+
+        // The blocked commit, one for the flushes during it, and none from close as nothing is left
+        assertEquals(2, out.writes.get());
+        assertEquals(51, readAll(new SessionLogReader(new ByteArrayInputStream(out.toByteArray()))).size());
+    }
+
+    @Test
+    public void flush_reportsWriteFailure() throws Exception {
+        FailingOutputStream out = new FailingOutputStream();
+        SessionLogWriter writer = new SessionLogWriter(out, STREAMS, 60000);
+        out.failing = true;
+        append(writer, 0, "1000,1,2,3");
+        writer.flush();
+
+        // Reported by a later flush, once the committer has failed
+        long deadline = System.currentTimeMillis() + 5000;
+        IOException reported = null;
+        while (reported == null && System.currentTimeMillis() < deadline) {
+            try {
+                writer.flush();
+                Thread.sleep(1);
+            } catch (IOException expected) {
+                reported = expected;
+            }
+        }
+        assertEquals("disk full", reported.getCause().getMessage());
+
+        out.failing = false;
+        writer.close();
+    }
+
+    @Test
+    public void truncated_readsEveryWholeRecordBeforeTheCut() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SessionLogWriter writer = new SessionLogWriter(out, STREAMS, 1000);
+        List<String> written = new ArrayList<>();
+        List<Integer> ends = new ArrayList<>();
+        int size = headerSize(STREAMS);
+        for (int i = 0; i < 40; i++) {
+            String payload = i + ",0.5";
+            append(writer, i % STREAMS.size(), payload);
+            written.add(i % STREAMS.size() + ":" + payload);
+            size += 3 + payload.length();
+            ends.add(size);
+        }
+        writer.close();
+        byte[] log = out.toByteArray();
+        assertEquals(size, log.length);
+
+        for (int cut = headerSize(STREAMS); cut <= log.length; cut++) {
+            int whole = 0;
+            while (whole < ends.size() && ends.get(whole) <= cut) {
+                whole++;
+            }
+            SessionLogReader reader = new SessionLogReader(new ByteArrayInputStream(Arrays.copyOf(log, cut)));
+            assertEquals("cut at " + cut, written.subList(0, whole), readAll(reader));
+        }
+    }
+
+    @Test
+    public void reader_rejectsOtherFiles() throws IOException {
+        byte[] log = emptyLog();
+
+        byte[] wrongMagic = log.clone();
+        wrongMagic[0] = 'X';
+        assertReaderFails(wrongMagic, "Not a session log");
+
+        byte[] wrongVersion = log.clone();
+        wrongVersion[4] = SessionLogWriter.VERSION + 1;
+        assertReaderFails(wrongVersion, "Unsupported session log version " + (SessionLogWriter.VERSION + 1));
+
+        assertReaderFails(Arrays.copyOf(log, 3), null);
+    }
+
+    @Test
+    public void reader_rejectsRecordOfUnknownStream() throws IOException {
+        byte[] header = emptyLog();
+        byte[] log = Arrays.copyOf(header, header.length + 4);
+        log[header.length] = (byte) STREAMS.size();
+        log[header.length + 2] = 1;
+        log[header.length + 3] = 'x';
+
+        SessionLogReader reader = new SessionLogReader(new ByteArrayInputStream(log));
+        try {
+            reader.next();
+            fail("Expected a record of an unknown stream to be rejected");
+        } catch (IOException expected) {
+            assertEquals("Record for unknown stream " + STREAMS.size(), expected.getMessage());
+        }
+    }
+
+    private interface Worker {
+        void run(int index) throws Exception;
+    }
+
+    /**
+     * Runs workers on threads of their own, released together, and rethrows the first failure
+     */
+    private static void runConcurrently(int count, final Worker worker) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread[] threads = new Thread[count];
+
+        for (int i = 0; i < count; i++) {
+            final int index = i;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        worker.run(index);
+                    } catch (Throwable ex) {
+                        failure.compareAndSet(null, ex);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(String.valueOf(failure.get()), failure.get());
+    }
+
+    /**
+     * Checks that stream i holds exactly 0 to count - 1 in order, as appended by thread i
+     */
+    private static void assertSequences(byte[] log, int streams, int count) throws IOException {
+        SessionLogReader reader = new SessionLogReader(new ByteArrayInputStream(log));
+        int[] next = new int[streams];
+
+        while (reader.next()) {
+            int stream = reader.getStream();
+            assertEquals("stream " + stream, Integer.toString(next[stream]), reader.getPayload());
+            next[stream]++;
+        }
+
+        for (int stream = 0; stream < streams; stream++) {
+            assertEquals("stream " + stream, count, next[stream]);
+        }
+    }
+
+    private static void append(SessionLogWriter writer, int stream, String payload) throws IOException {
+        byte[] bytes = payload.getBytes(UTF_8);
+        writer.append(stream, bytes, 0, bytes.length);
+    }
+
+    private static void assertAppendFails(SessionLogWriter writer, int stream, int length) {
+        try {
+            writer.append(stream, new byte[length], 0, length);
+            fail("Expected append to stream " + stream + " of length " + length + " to fail");
+        } catch (IOException expected) {
+            // Rejected as expected
+        }
+    }
+
+    private static void assertReaderFails(byte[] log, String message) {
+        try {
+            new SessionLogReader(new ByteArrayInputStream(log));
+            fail("Expected the log to be rejected");
+        } catch (IOException expected) {
+            if (message != null) {
+                assertEquals(message, expected.getMessage());
+            }
+        }
+    }
+
+    private static List<String> readAll(SessionLogReader reader) throws IOException {
+        List<String> records = new ArrayList<>();
+        while (reader.next()) {
+            records.add(reader.getStream() + ":" + reader.getPayload());
+        }
+        return records;
+    }
+
+    private static byte[] emptyLog() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new SessionLogWriter(out, STREAMS, 1000).close();
+        return out.toByteArray();
+    }
+
+    private static int headerSize(List<String> streams) {
+        int size = 4 + 1 + 1;
+        for (String name : streams) {
+            size += 2 + name.getBytes(UTF_8).length;
+        }
+        return size;
+    }
+
+    /**
+     * In-memory stream whose writes take a little time, and which records whether it was closed
+     */
+    private static final class SlowOutputStream extends ByteArrayOutputStream {
+
+        private boolean closed;
+
+        @Override
+        public synchronized void write(byte[] bytes, int offset, int length) {
+            try {
+                Thread.sleep(0, 200000);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            super.write(bytes, offset, length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            super.close();
+        }
+    }
+
+    /**
+     * Waits for the committer to write out the given number of bytes
+     */
+    private static void awaitSize(ByteArrayOutputStream out, int size) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (out.size() < size && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(size, out.size());
+    }
+
+    /**
+     * In-memory stream counting its writes, whose first write after the header blocks until released
+     */
+    private static final class BlockingOutputStream extends ByteArrayOutputStream {
+
+        private final AtomicInteger writes = new AtomicInteger();
+        private final CountDownLatch blocked = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            if (writes.incrementAndGet() == 1 && size() > 0) {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            super.write(bytes, offset, length);
+        }
+    }
+
+    /**
+     * Stream that accepts the header, then fails every write once told to, as a full disk would
+     */
+    private static final class FailingOutputStream extends OutputStream {
+
+        private volatile boolean failing;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (failing) {
+                throw new IOException("disk full");
+            }
+        }
+    }
+}
@@ -0,0 +1,523 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp.tools;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * Estimates the clock offset and drift between two sessions recorded by participants walking together,
+ * and writes their data merged onto device A's clock
+ * Both devices feel the same steps, so accelerometer magnitude and step detector events are cross-correlated
+ * (by FFT) first over the whole session for a coarse offset, then over sliding windows to fit offset and drift
+ * Sessions are read through SessionReader, so may be in any storage format, including compacted sessions
+ */
+final class ClockAligner {
+
+    static final String ACCELEROMETER = "Accelerometer";
+    static final String STEP_DETECTOR = "Step Detector";
+    static final String ALIGNMENT_FILE = "Alignment.csv";
+    // Signals are resampled to 50 Hz
+    static final double SAMPLE_MILLIS = 20;
+    static final long WINDOW_MILLIS = 60000;
+    static final long HOP_MILLIS = 15000;
+    // Windows search this far either side of the coarse offset
+    static final long REFINE_MILLIS = 2000;
+    // Moving average removed from accelerometer magnitude, leaving the gait signal without gravity or posture
+    static final long DETREND_MILLIS = 1000;
+    // Windows whose normalised correlation peak is below this are not used in the fit
+    static final double MIN_CORRELATION = 0.3;
+    static final long DEFAULT_MAX_OFFSET_MILLIS = 120000;
+
+    /**
+     * Result of aligning device B's clock to device A's
+     * Modelled as tB = tA + offset + drift * (tA - reference)
+     */
+    static final class Alignment {
+        final double offsetMillis;
+        final double drift;
+        final long referenceMillis;
+        final int windows;
+        final double residualMillis;
+
+        Alignment(double offsetMillis, double drift, long referenceMillis, int windows, double residualMillis) {
+            this.offsetMillis = offsetMillis;
+            this.drift = drift;
+            this.referenceMillis = referenceMillis;
+            this.windows = windows;
+            this.residualMillis = residualMillis;
+        }
+
+        /**
+         * Maps a timestamp from device B's clock onto device A's
+         * @param timestampB long: milliseconds on device B's clock
+         * @return long: the same instant in milliseconds on device A's clock
+         */
+        long toClockA(long timestampB) {
+            return Math.round((timestampB - offsetMillis + drift * referenceMillis) / (1 + drift));
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.UK, "offset %.1f ms, drift %.2f ppm, %d windows, residual %.1f ms",
+                    offsetMillis, drift * 1e6, windows, residualMillis);
+        }
+    }
+
+    private ClockAligner() {
+    }
+
+    /**
+     * Aligns every pair listed in a cohort file in parallel, one task per pair
+     * Each line of the file is name,sessionFolderA,sessionFolderB and each pair is written to outFolder/name
+     * @param pairsFile File: the cohort file
+     * @param outFolder File: folder to write each pair's merged output to
+     * @param maxOffsetMillis long: largest clock offset to search for
+     * @throws IOException if any pair could not be aligned
+     */
+    static void alignCohort(File pairsFile, final File outFolder, final long maxOffsetMillis)
+            throws IOException, InterruptedException {
+        final List<String[]> pairs = new ArrayList<>();
+        for (String line : Files.readAllLines(pairsFile.toPath(), StandardCharsets.UTF_8)) {
+            String[] fields = line.split(",");
+            if (fields.length == 3) {
+                pairs.add(new String[] {fields[0].trim(), fields[1].trim(), fields[2].trim()});
+            }
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        List<Future<Alignment>> results = new ArrayList<>();
+        try {
+            for (final String[] pair : pairs) {
+                results.add(executor.submit(() -> align(new File(pair[1]), new File(pair[2]),
+                        new File(outFolder, pair[0]), maxOffsetMillis)));
+            }
+
+            IOException failure = null;
+            for (int i = 0; i < pairs.size(); i++) {
+                try {
+                    System.out.println(pairs.get(i)[0] + ": " + results.get(i).get());
+                } catch (ExecutionException ex) {
+                    System.err.println(pairs.get(i)[0] + ": " + ex.getCause().getMessage());
+                    failure = new IOException("Not every pair could be aligned", ex.getCause());
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Estimates the alignment of a pair of sessions and writes the merged output
+     * @param sessionA File: session folder of device A, whose clock is the reference
+     * @param sessionB File: session folder of device B
+     * @param outFolder File: folder to write the merged output to
+     * @param maxOffsetMillis long: largest clock offset to search for
+     * @return Alignment: the estimated alignment
+     * @throws IOException if a session can not be read or the output can not be written
+     */
+    static Alignment align(File sessionA, File sessionB, File outFolder, long maxOffsetMillis) throws IOException {
+        Alignment alignment = estimate(sessionA, sessionB, maxOffsetMillis);
+        writeMerged(sessionA, sessionB, alignment, outFolder);
+        return alignment;
+    }
+
+    /**
+     * Estimates the clock offset and drift of session B relative to session A
+     * @param sessionA File: session folder of device A
+     * @param sessionB File: session folder of device B
+     * @param maxOffsetMillis long: largest clock offset to search for
+     * @return Alignment: the estimated alignment
+     * @throws IOException if either session has no accelerometer data
+     */
+    static Alignment estimate(File sessionA, File sessionB, long maxOffsetMillis) throws IOException {
+        SessionReader readerA = SessionReader.open(sessionA);
+        SessionReader readerB = SessionReader.open(sessionB);
+        SensorCsv accelerometerA = readAccelerometer(readerA, sessionA);
+        SensorCsv accelerometerB = readAccelerometer(readerB, sessionB);
+        SensorCsv stepsA = SensorCsv.read(readerA, STEP_DETECTOR);
+        SensorCsv stepsB = SensorCsv.read(readerB, STEP_DETECTOR);
+
+        // Common grid on absolute time, covering both sessions
+        long start = Math.min(accelerometerA.timestamps[0], accelerometerB.timestamps[0]);
+        long end = Math.max(accelerometerA.timestamps[accelerometerA.size - 1],
+                accelerometerB.timestamps[accelerometerB.size - 1]);
+        int length = (int) ((end - start) / SAMPLE_MILLIS) + 1;
+
+        double[][] channelsA = channels(accelerometerA, stepsA, start, length);
+        double[][] channelsB = channels(accelerometerB, stepsB, start, length);
+
+        // Coarse offset over the whole session
+        int maxLag = (int) Math.min(maxOffsetMillis / SAMPLE_MILLIS, length - 1);
+        double[] coarse = correlate(channelsA, channelsB, 0, length, 0, maxLag, true);
+        double coarseLag = peak(coarse) - maxLag;
+
+        // Refined offsets over sliding windows
+        int window = (int) (WINDOW_MILLIS / SAMPLE_MILLIS);
+        int hop = (int) (HOP_MILLIS / SAMPLE_MILLIS);
+        int refine = (int) (REFINE_MILLIS / SAMPLE_MILLIS);
+        List<double[]> points = new ArrayList<>();
+
+        for (int from = 0; from + window <= length; from += hop) {
+            int searchFrom = from + (int) Math.round(coarseLag) - refine;
+            if (searchFrom < 0 || searchFrom + window + 2 * refine > length) {
+                continue;
+            }
+
+            double[] correlation = correlate(channelsA, channelsB, from, window, searchFrom - from, 2 * refine, false);
+            double peak = peak(correlation);
+            double strength = correlation[(int) Math.round(peak)];
+            if (Double.isNaN(strength) || strength < MIN_CORRELATION) {
+                continue;
+            }
+
+            double lagMillis = (searchFrom - from + peak) * SAMPLE_MILLIS;
+            double time = start + (from + window / 2.0) * SAMPLE_MILLIS;
+            points.add(new double[] {time, lagMillis, strength});
+        }
+
+        if (points.size() < 2) {
+            return new Alignment(coarseLag * SAMPLE_MILLIS, 0, start, points.size(), Double.NaN);
+        }
+
+        double[] fit = fit(points);
+        // Refit without windows far from the first fit, e.g. where only one participant was walking
+        double limit = Math.max(3 * fit[3], 2 * SAMPLE_MILLIS);
+        List<double[]> inliers = new ArrayList<>();
+        for (double[] point : points) {
+            if (Math.abs(point[1] - fit[0] - fit[1] * (point[0] - fit[2])) <= limit) {
+                inliers.add(point);
+            }
+        }
+        if (inliers.size() >= 2) {
+            fit = fit(inliers);
+        }
+
+        return new Alignment(fit[0], fit[1], Math.round(fit[2]), inliers.size(), fit[3]);
+    }
+
+    /**
+     * Writes both sessions' sensors merged by time, a CSV file per sensor, with session B's timestamps mapped onto
+     * device A's clock
+     * Each line is device,timestamp,fields with device A or B, plus an alignment file with the estimate
+     * @param sessionA File: session folder of device A
+     * @param sessionB File: session folder of device B
+     * @param alignment Alignment: the alignment of B to A
+     * @param outFolder File: folder to write the merged output to
+     * @throws IOException if a file can not be read or written
+     */
+    static void writeMerged(File sessionA, File sessionB, Alignment alignment, File outFolder) throws IOException {
+        Files.createDirectories(outFolder.toPath());
+
+        SessionReader readerA = SessionReader.open(sessionA);
+        SessionReader readerB = SessionReader.open(sessionB);
+        TreeSet<String> sensors = new TreeSet<>(readerA.getSensorNames());
+        sensors.addAll(readerB.getSensorNames());
+
+        for (String sensor : sensors) {
+            mergeSensor(readerA, readerB, sensor, alignment, new File(outFolder, sensor + ".csv"));
+        }
+
+        try (BufferedWriter writer = Files.newBufferedWriter(new File(outFolder, ALIGNMENT_FILE).toPath(),
+                StandardCharsets.US_ASCII)) {
+            writer.write("offset_ms,drift_ppm,reference_ms,windows,residual_ms\n");
+            writer.write(String.format(Locale.UK, "%.3f,%.4f,%d,%d,%.3f\n", alignment.offsetMillis,
+                    alignment.drift * 1e6, alignment.referenceMillis, alignment.windows, alignment.residualMillis));
+        }
+    }
+
+    /**
+     * Builds the zero mean, unit variance signals correlated for one device: gait from accelerometer magnitude,
+     * and step detector events spread over 100 ms
+     */
+    private static double[][] channels(SensorCsv accelerometer, SensorCsv steps, long start, int length) {
+        double[] gait = new double[length];
+        boolean[] covered = new boolean[length];
+
+        // Resample magnitude by linear interpolation, only inside this device's recording
+        int j = 0;
+        for (int i = 0; i < length; i++) {
+            double t = start + i * SAMPLE_MILLIS;
+            while (j + 1 < accelerometer.size && accelerometer.timestamps[j + 1] <= t) {
+                j++;
+            }
+            if (t < accelerometer.timestamps[0] || j + 1 >= accelerometer.size) {
+                continue;
+            }
+            double t0 = accelerometer.timestamps[j];
+            double t1 = accelerometer.timestamps[j + 1];
+            double m0 = magnitude(accelerometer, j);
+            double m1 = magnitude(accelerometer, j + 1);
+            gait[i] = t1 > t0 ? m0 + (m1 - m0) * (t - t0) / (t1 - t0) : m0;
+            covered[i] = true;
+        }
+
+        // Remove moving average with a running sum
+        int half = (int) (DETREND_MILLIS / SAMPLE_MILLIS / 2);
+        double[] sum = new double[length + 1];
+        int[] count = new int[length + 1];
+        for (int i = 0; i < length; i++) {
+            sum[i + 1] = sum[i] + (covered[i] ? gait[i] : 0);
+            count[i + 1] = count[i] + (covered[i] ? 1 : 0);
+        }
+        double[] detrended = new double[length];
+        for (int i = 0; i < length; i++) {
+            if (covered[i]) {
+                int from = Math.max(0, i - half);
+                int to = Math.min(length, i + half + 1);
+                detrended[i] = gait[i] - (sum[to] - sum[from]) / Math.max(1, count[to] - count[from]);
+            }
+        }
+        normalise(detrended, covered);
+
+        if (steps == null || steps.size == 0) {
+            return new double[][] {detrended};
+        }
+
+        double[] stepSignal = new double[length];
+        int spread = (int) (50 / SAMPLE_MILLIS);
+        for (int s = 0; s < steps.size; s++) {
+            int centre = (int) Math.round((steps.timestamps[s] - start) / SAMPLE_MILLIS);
+            for (int k = -spread; k <= spread; k++) {
+                if (centre + k >= 0 && centre + k < length) {
+                    stepSignal[centre + k] += 1 - Math.abs(k) / (spread + 1.0);
+                }
+            }
+        }
+        normalise(stepSignal, covered);
+
+        return new double[][] {detrended, stepSignal};
+    }
+
+    private static double magnitude(SensorCsv accelerometer, int index) {
+        double x = accelerometer.columns[0][index];
+        double y = accelerometer.columns[1][index];
+        double z = accelerometer.columns[2][index];
+        return Math.sqrt(x * x + y * y + z * z);
+    }
+
+    /**
+     * Scales a signal to zero mean and unit variance over the covered samples, zeroing the rest
+     */
+    private static void normalise(double[] signal, boolean[] covered) {
+        double sum = 0;
+        double sumSquares = 0;
+        int n = 0;
+        for (int i = 0; i < signal.length; i++) {
+            if (covered[i]) {
+                sum += signal[i];
+                sumSquares += signal[i] * signal[i];
+                n++;
+            }
+        }
+        double mean = n > 0 ? sum / n : 0;
+        double deviation = n > 0 ? Math.sqrt(Math.max(sumSquares / n - mean * mean, 0)) : 0;
+        for (int i = 0; i < signal.length; i++) {
+            signal[i] = covered[i] && deviation > 0 ? (signal[i] - mean) / deviation : 0;
+        }
+    }
+
+    /**
+     * Normalised cross-correlation of a segment of A against a segment of B, averaged over channels
+     * @param from int: start of A's segment
+     * @param length int: length of A's segment
+     * @param shift int: start of B's segment relative to A's, B's segment being length + span long
+     * @param span int: number of lags to search
+     * @param centred boolean: true to search lags -span to span over equal segments (shift must be 0),
+     *                false to search lags 0 to span over B's longer segment
+     * @return double[]: correlation with lag (shift + j) at index j, or lag (j - span) when centred
+     */
+    private static double[] correlate(double[][] channelsA, double[][] channelsB, int from, int length,
+                                      int shift, int span, boolean centred) {
+        int channels = Math.min(channelsA.length, channelsB.length);
+        int bFrom = from + shift;
+        int bLength = centred ? length : length + span;
+        double[] total = new double[centred ? 2 * span + 1 : span + 1];
+
+        for (int c = 0; c < channels; c++) {
+            double[] a = slice(channelsA[c], from, length);
+            double[] b = slice(channelsB[c], bFrom, bLength);
+            double scale = Math.sqrt(energy(a) * energy(b) * length / bLength);
+            if (scale == 0) {
+                continue;
+            }
+
+            double[] correlation = Fft.crossCorrelate(a, b, span);
+            for (int k = 0; k < total.length; k++) {
+                // A one sided search over B's longer segment only uses the non-negative lags
+                total[k] += correlation[centred ? k : k + span] / scale / channels;
+            }
+        }
+        return total;
+    }
+
+    private static double[] slice(double[] signal, int from, int length) {
+        double[] slice = new double[length];
+        System.arraycopy(signal, from, slice, 0, length);
+        return slice;
+    }
+
+    private static double energy(double[] signal) {
+        double energy = 0;
+        for (double value : signal) {
+            energy += value * value;
+        }
+        return energy;
+    }
+
+    /**
+     * Index of the largest value, refined to a fraction of a sample by fitting a parabola through its neighbours
+     */
+    private static double peak(double[] values) {
+        int best = 0;
+        for (int i = 1; i < values.length; i++) {
+            if (values[i] > values[best]) {
+                best = i;
+            }
+        }
+        if (best == 0 || best == values.length - 1) {
+            return best;
+        }
+        double left = values[best - 1];
+        double centre = values[best];
+        double right = values[best + 1];
+        double denominator = left - 2 * centre + right;
+        return denominator < 0 ? best + 0.5 * (left - right) / denominator : best;
+    }
+
+    /**
+     * Weighted least squares fit of lag = offset + drift * (time - reference), reference being the weighted mean time
+     * @return double[]: offset, drift, reference and weighted residual RMS
+     */
+    private static double[] fit(List<double[]> points) {
+        double weights = 0;
+        double meanTime = 0;
+        double meanLag = 0;
+        for (double[] point : points) {
+            weights += point[2];
+            meanTime += point[2] * point[0];
+            meanLag += point[2] * point[1];
+        }
+        meanTime /= weights;
+        meanLag /= weights;
+
+        double covariance = 0;
+        double variance = 0;
+        for (double[] point : points) {
+            covariance += point[2] * (point[0] - meanTime) * (point[1] - meanLag);
+            variance += point[2] * (point[0] - meanTime) * (point[0] - meanTime);
+        }
+        double drift = variance > 0 ? covariance / variance : 0;
+
+        double squares = 0;
+        for (double[] point : points) {
+            double residual = point[1] - meanLag - drift * (point[0] - meanTime);
+            squares += point[2] * residual * residual;
+        }
+        return new double[] {meanLag, drift, meanTime, Math.sqrt(squares / weights)};
+    }
+
+    /**
+     * Merges one sensor of each session by time, the sensor need only be in one of them
+     */
+    private static void mergeSensor(SessionReader readerA, SessionReader readerB, String sensor, Alignment alignment,
+                                     File out) throws IOException {
+        try (Stream<String> linesA = lines(readerA, sensor);
+             Stream<String> linesB = lines(readerB, sensor);
+             BufferedWriter writer = Files.newBufferedWriter(out.toPath(), StandardCharsets.US_ASCII)) {
+            MergeSource a = new MergeSource("A", linesA.iterator(), null);
+            MergeSource b = new MergeSource("B", linesB.iterator(), alignment);
+
+            while (a.line != null || b.line != null) {
+                MergeSource next = b.line == null || (a.line != null && a.timestamp <= b.timestamp) ? a : b;
+                writer.write(next.device);
+                writer.write(',');
+                writer.write(Long.toString(next.timestamp));
+                writer.write(next.line, next.rest, next.line.length() - next.rest);
+                writer.write('\n');
+                next.advance();
+            }
+        }
+    }
+
+    private static Stream<String> lines(SessionReader reader, String sensor) throws IOException {
+        return reader.getSensorNames().contains(sensor) ? reader.lines(sensor) : Stream.empty();
+    }
+
+    private static SensorCsv readAccelerometer(SessionReader reader, File session) throws IOException {
+        SensorCsv csv = SensorCsv.read(reader, ACCELEROMETER);
+        if (csv == null || csv.size < 2 || csv.columns.length < 3) {
+            throw new IOException("No accelerometer data in " + session);
+        }
+        return csv;
+    }
+
+    /**
+     * One side of a merge: the current line of a file and its timestamp on device A's clock
+     */
+    private static final class MergeSource {
+        final String device;
+        final Iterator<String> lines;
+        final Alignment alignment;
+        String line;
+        long timestamp;
+        int rest;
+
+        MergeSource(String device, Iterator<String> lines, Alignment alignment) throws IOException {
+            this.device = device;
+            this.lines = lines;
+            this.alignment = alignment;
+            advance();
+        }
+
+        void advance() throws IOException {
+            line = null;
+
+            while (hasNext()) {
+                String next = lines.next();
+                int comma = next.indexOf(',');
+                String field = comma < 0 ? next : next.substring(0, comma);
+                try {
+                    long value = Long.parseLong(field.trim());
+                    timestamp = alignment == null ? value : alignment.toClockA(value);
+                } catch (NumberFormatException ex) {
+                    continue;
+                }
+                line = next;
+                rest = comma < 0 ? next.length() : comma;
+                return;
+            }
+        }
+
+        private boolean hasNext() throws IOException {
+            try {
+                return lines.hasNext();
+            } catch (UncheckedIOException ex) {
+                throw ex.getCause();
+            }
+        }
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp.tools;
+
+import com.example.android.mobilesensingapp.format.CompressedSeriesReader;
+import com.example.android.mobilesensingapp.format.CompressedSeriesWriter;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compares size and throughput of the compressed series format with the app's CSV output, plain and deflated,
+ * over the sensor files of a recorded session
+ */
+final class CodecBenchmark {
+
+    private static final int WARM_UP_RUNS = 3;
+    private static final int RUNS = 5;
+
+    // Sink for decoded values, so that decoding is not optimised away
+    private static volatile double sink;
+
+    private CodecBenchmark() {
+    }
+
+    /**
+     * Benchmarks every CSV sensor file in a session folder, printing one row per file
+     * @param session File: the session folder
+     * @throws IOException if a file can not be read
+     */
+    static void run(File session) throws IOException {
+        File[] files = session.listFiles((dir, name) -> name.endsWith(".csv"));
+        if (files == null || files.length == 0) {
+            throw new IOException("No sensor files in " + session);
+        }
+        Arrays.sort(files);
+
+        System.out.println("sensor,records,csv_bytes,deflate_bytes,gorilla_bytes,deflate_ratio,gorilla_ratio,"
+                + "csv_write_mrec_s,deflate_mrec_s,inflate_mrec_s,csv_parse_mrec_s,"
+                + "gorilla_encode_mrec_s,gorilla_decode_mrec_s");
+
+        for (File file : files) {
+            SensorCsv csv = SensorCsv.read(file);
+            if (csv.size == 0) {
+                continue;
+            }
+            benchmark(file.getName(), csv);
+        }
+    }
+
+    /**
+     * Converts a compressed series file back to CSV lines of timestamp,values
+     * @param in File: the compressed series file
+     * @param out Writer: destination for the CSV lines
+     * @throws IOException if the file can not be read or the output written
+     */
+    static void decodeToCsv(File in, Writer out) throws IOException {
+        try (CompressedSeriesReader reader = new CompressedSeriesReader(Files.newInputStream(in.toPath()))) {
+            StringBuilder line = new StringBuilder();
+            while (reader.next()) {
+                line.setLength(0);
+                line.append(reader.getTimestamp());
+                for (int c = 0; c < reader.getColumnCount(); c++) {
+                    line.append(',').append(reader.getValue(c));
+                }
+                line.append('\n');
+                out.append(line);
+            }
+        }
+        out.flush();
+    }
+
+    private static void benchmark(String name, SensorCsv csv) throws IOException {
+        int columns = csv.columns.length;
+        float[][] records = new float[csv.size][columns];
+        for (int i = 0; i < csv.size; i++) {
+            for (int c = 0; c < columns; c++) {
+                records[i][c] = (float) csv.columns[c][i];
+            }
+        }
+
+        long csvWrite = Long.MAX_VALUE;
+        long deflate = Long.MAX_VALUE;
+        long inflate = Long.MAX_VALUE;
+        long csvParse = Long.MAX_VALUE;
+        long encode = Long.MAX_VALUE;
+        long decode = Long.MAX_VALUE;
+        byte[] csvBytes = null;
+        byte[] deflated = null;
+        byte[] compressed = null;
+
+        for (int run = 0; run < WARM_UP_RUNS + RUNS; run++) {
+            boolean measured = run >= WARM_UP_RUNS;
+
+            long start = System.nanoTime();
+            csvBytes = writeCsv(csv.timestamps, records, csv.size);
+            long end = System.nanoTime();
+            if (measured) csvWrite = Math.min(csvWrite, end - start);
+
+            start = System.nanoTime();
+            deflated = deflate(csvBytes);
+            end = System.nanoTime();
+            if (measured) deflate = Math.min(deflate, end - start);
+
+            start = System.nanoTime();
+            inflate(deflated, csvBytes.length);
+            end = System.nanoTime();
+            if (measured) inflate = Math.min(inflate, end - start);
+
+            start = System.nanoTime();
+            parseCsv(new ByteArrayInputStream(csvBytes));
+            end = System.nanoTime();
+            if (measured) csvParse = Math.min(csvParse, end - start);
+
+            start = System.nanoTime();
+            compressed = writeCompressed(csv.timestamps, records, csv.size, columns);
+            end = System.nanoTime();
+            if (measured) encode = Math.min(encode, end - start);
+
+            start = System.nanoTime();
+            readCompressed(compressed);
+            end = System.nanoTime();
+            if (measured) decode = Math.min(decode, end - start);
+        }
+
+        System.out.println(String.format(Locale.UK, "%s,%d,%d,%d,%d,%.1f,%.1f,%.2f,%.2f,%.2f,%.2f,%.2f,%.2f",
+                name, csv.size, csvBytes.length, deflated.length, compressed.length,
+                (double) csvBytes.length / deflated.length, (double) csvBytes.length / compressed.length,
+                rate(csv.size, csvWrite), rate(csv.size, deflate), rate(csv.size, inflate), rate(csv.size, csvParse),
+                rate(csv.size, encode), rate(csv.size, decode)));
+    }
+
+    /**
+     * Millions of records per second
+     */
+    private static double rate(int records, long nanos) {
+        return records / (nanos / 1e9) / 1e6;
+    }
+
+    /**
+     * Writes records the way the app's SensorDataWriter does, via String.format per record
+     */
+    private static byte[] writeCsv(long[] timestamps, float[][] records, int size) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(bytes, StandardCharsets.US_ASCII))) {
+            StringBuilder line = new StringBuilder();
+            for (int i = 0; i < size; i++) {
+                line.setLength(0);
+                line.append(timestamps[i]);
+                for (float value : records[i]) {
+                    line.append(',').append(String.format(Locale.US, "%f", value));
+                }
+                line.append('\n');
+                writer.append(line);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void parseCsv(InputStream in) throws IOException {
+        double total = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.US_ASCII))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(",");
+                total += Long.parseLong(fields[0]);
+                for (int f = 1; f < fields.length; f++) {
+                    total += Float.parseFloat(fields[f]);
+                }
+            }
+        }
+        sink = total;
+    }
+
+    private static byte[] deflate(byte[] input) {
+        Deflater deflater = new Deflater();
+        deflater.setInput(input);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(input.length / 4);
+        byte[] buffer = new byte[65536];
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    private static void inflate(byte[] input, int length) throws IOException {
+        Inflater inflater = new Inflater();
+        inflater.setInput(input);
+        byte[] output = new byte[length];
+        try {
+            int total = 0;
+            while (!inflater.finished() && total < length) {
+                total += inflater.inflate(output, total, length - total);
+            }
+        } catch (DataFormatException ex) {
+            throw new IOException(ex);
+        } finally {
+            inflater.end();
+        }
+        sink = output[length - 1];
+    }
+
+    private static byte[] writeCompressed(long[] timestamps, float[][] records, int size, int columns)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = new BufferedOutputStream(bytes);
+             CompressedSeriesWriter writer = new CompressedSeriesWriter(out, columns)) {
+            for (int i = 0; i < size; i++) {
+                writer.append(timestamps[i], records[i]);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void readCompressed(byte[] input) throws IOException {
+        double total = 0;
+        try (CompressedSeriesReader reader = new CompressedSeriesReader(new ByteArrayInputStream(input))) {
+            while (reader.next()) {
+                total += reader.getTimestamp();
+                for (int c = 0; c < reader.getColumnCount(); c++) {
+                    total += reader.getValue(c);
+                }
+            }
+        }
+        sink = total;
+    }
+}
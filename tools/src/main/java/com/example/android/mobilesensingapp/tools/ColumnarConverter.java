@@ -0,0 +1,540 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp.tools;
+
+import com.example.android.mobilesensingapp.format.CompressedSeriesReader;
+import com.example.android.mobilesensingapp.format.CompressedSeriesWriter;
+import com.example.android.mobilesensingapp.format.RunLengthCsvReader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Converts session folders to a typed columnar format for analysis, one .skc file per sensor
+ * Sensors are listed by a SessionReader, so that sessions in every storage format convert, and the session's own
+ * event, quality and index files are left out
+ * Files of every session are converted in parallel on a fork-join pool. Each file is streamed in chunks of
+ * CHUNK_ROWS rows, so memory is bounded by the pool's parallelism whatever the size of the files
+ *
+ * File layout (little endian, so that columns can be mapped straight into numpy or Arrow buffers):
+ *   header: 8 bytes "SKCOL1" padded with zeros, int32 column count,
+ *           then for each column int32 type, int32 name length, UTF-8 name
+ *   chunks: int32 row count, then for each column int64 byte length and the column's data
+ *   end:    int32 row count of 0
+ *
+ * Column types and their data:
+ *   1 INT64   row count int64 values, missing values as Long.MIN_VALUE
+ *   2 FLOAT64 row count float64 values, missing values as NaN
+ *   3 UTF8    row count + 1 int32 offsets into the bytes that follow, then the UTF-8 bytes
+ *   4 FLOAT32 row count float32 values, as saved by the compressed storage format
+ *
+ * The first column is always the INT64 timestamp in milliseconds. The types of the other columns are inferred
+ * from the first row of a CSV file: whole numbers as INT64, other numbers as FLOAT64, anything else as UTF8
+ */
+final class ColumnarConverter {
+
+    static final String EXTENSION = ".skc";
+    static final int CHUNK_ROWS = 65536;
+    static final int TYPE_INT64 = 1;
+    static final int TYPE_FLOAT64 = 2;
+    static final int TYPE_UTF8 = 3;
+    static final int TYPE_FLOAT32 = 4;
+    private static final byte[] MAGIC = {'S', 'K', 'C', 'O', 'L', '1', 0, 0};
+
+    private ColumnarConverter() {
+    }
+
+    /**
+     * Converts every sensor of each session, writing each session's files to a folder of the same name
+     * @param sessions List: the session folders
+     * @param outFolder File: folder to write the converted sessions to
+     * @return long: total number of rows converted
+     * @throws IOException if a file can not be read or written
+     */
+    static long convert(List<File> sessions, File outFolder) throws IOException {
+        AtomicLong rows = new AtomicLong();
+        List<RecursiveAction> tasks = new ArrayList<>();
+
+        for (File session : sessions) {
+            SessionReader reader = SessionReader.open(session);
+            File sessionOut = new File(outFolder, session.getName());
+            Files.createDirectories(sessionOut.toPath());
+            tasks.add(new SessionTask(reader, sessionOut, rows));
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        try {
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+        } catch (UncheckedIOException ex) {
+            // Keeps the message, which names the file that failed
+            throw new IOException(ex.getMessage(), ex.getCause());
+        } finally {
+            pool.shutdown();
+        }
+
+        return rows.get();
+    }
+
+    /**
+     * Converts one sensor file
+     * @param in File: a sensor CSV file, or a file in the compressed storage format
+     * @param out File: the .skc file to write
+     * @return long: number of rows converted
+     * @throws IOException if the file can not be read or written
+     */
+    static long convertFile(File in, File out) throws IOException {
+        String name = in.getName();
+        String sensor = name.substring(0, name.lastIndexOf('.'));
+
+        try (FileChannel channel = FileChannel.open(out.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ChunkWriter writer = new ChunkWriter(channel);
+            long rows = name.endsWith(CompressedSeriesWriter.EXTENSION)
+                    ? convertCompressed(in, sensor, writer)
+                    : convertCsv(in, sensor, writer);
+            writer.finish();
+            return rows;
+        }
+    }
+
+    /**
+     * Converts a sensor held in a session log, from its CSV lines
+     * @param session SessionReader: the session
+     * @param sensor String: name of the sensor, see SessionReader.getSensorNames
+     * @param out File: the .skc file to write
+     * @return long: number of rows converted
+     * @throws IOException if the session log can not be read or the file written
+     */
+    static long convertLogSensor(SessionReader session, String sensor, File out) throws IOException {
+        try (FileChannel channel = FileChannel.open(out.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             Stream<String> lines = session.lines(sensor)) {
+            ChunkWriter writer = new ChunkWriter(channel);
+            long rows = convertLines(lines.iterator(), sensor, writer);
+            writer.finish();
+            return rows;
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    private static long convertCsv(File in, String sensor, ChunkWriter writer) throws IOException {
+        try (BufferedReader reader = new RunLengthCsvReader(Files.newBufferedReader(in.toPath(), StandardCharsets.UTF_8))) {
+            return convertLines(reader.lines().iterator(), sensor, writer);
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    private static long convertLines(Iterator<String> lines, String sensor, ChunkWriter writer) throws IOException {
+        Chunk chunk = null;
+        long rows = 0;
+
+        while (lines.hasNext()) {
+            String line = lines.next();
+            List<String> fields = splitFields(line);
+            long timestamp;
+            try {
+                timestamp = Long.parseLong(fields.get(0));
+            } catch (NumberFormatException ex) {
+                // Blank lines, or a header row
+                continue;
+            }
+
+            if (chunk == null) {
+                int[] types = new int[fields.size()];
+                types[0] = TYPE_INT64;
+                for (int c = 1; c < types.length; c++) {
+                    types[c] = inferType(fields.get(c));
+                }
+                chunk = new Chunk(types);
+                writer.header(types, columnNames(sensor, types.length));
+            }
+
+            chunk.add(timestamp, fields);
+            rows++;
+            if (chunk.size == CHUNK_ROWS) {
+                writer.write(chunk);
+                chunk.clear();
+            }
+        }
+
+        if (chunk == null) {
+            writer.header(new int[] {TYPE_INT64}, columnNames(sensor, 1));
+        } else if (chunk.size > 0) {
+            writer.write(chunk);
+        }
+        return rows;
+    }
+
+    private static long convertCompressed(File in, String sensor, ChunkWriter writer) throws IOException {
+        try (CompressedSeriesReader reader = new CompressedSeriesReader(new BufferedInputStream(Files.newInputStream(in.toPath())))) {
+            int[] types = new int[reader.getColumnCount() + 1];
+            Arrays.fill(types, TYPE_FLOAT32);
+            types[0] = TYPE_INT64;
+            writer.header(types, columnNames(sensor, types.length));
+
+            Chunk chunk = new Chunk(types);
+            long rows = 0;
+            while (reader.next()) {
+                chunk.add(reader);
+                rows++;
+                if (chunk.size == CHUNK_ROWS) {
+                    writer.write(chunk);
+                    chunk.clear();
+                }
+            }
+            if (chunk.size > 0) {
+                writer.write(chunk);
+            }
+            return rows;
+        }
+    }
+
+    private static List<String> splitFields(String line) {
+        List<String> fields = new ArrayList<>(8);
+        int start = 0;
+        int comma;
+        while ((comma = line.indexOf(',', start)) >= 0) {
+            fields.add(line.substring(start, comma));
+            start = comma + 1;
+        }
+        fields.add(line.substring(start));
+        return fields;
+    }
+
+    private static int inferType(String field) {
+        try {
+            Long.parseLong(field);
+            return TYPE_INT64;
+        } catch (NumberFormatException ex) {
+            try {
+                Double.parseDouble(field);
+                return TYPE_FLOAT64;
+            } catch (NumberFormatException notNumeric) {
+                return TYPE_UTF8;
+            }
+        }
+    }
+
+    /**
+     * Names of a sensor's columns, in the order of its CSV fields, falling back to f1, f2... for unknown sensors
+     */
+    static String[] columnNames(String sensor, int count) {
+        String[] known;
+        switch (sensor) {
+            case "Accelerometer":
+            case "Gravity":
+            case "Linear Acceleration":
+            case "Gyroscope":
+            case "Magnetometer":
+                known = new String[] {"x", "y", "z"};
+                break;
+            case "Rotation":
+                known = new String[] {"x", "y", "z", "cos", "heading_accuracy"};
+                break;
+            case "Battery":
+                known = new String[] {"level_ratio", "temperature", "voltage", "plugged", "status", "health"};
+                break;
+            case "Ambient Temperature":
+                known = new String[] {"temperature"};
+                break;
+            case "Light":
+                known = new String[] {"light"};
+                break;
+            case "Step Counter":
+                known = new String[] {"steps"};
+                break;
+            case "Audio Level":
+                known = new String[] {"level"};
+                break;
+            default:
+                known = new String[0];
+        }
+
+        String[] names = new String[count];
+        names[0] = "timestamp";
+        for (int c = 1; c < count; c++) {
+            names[c] = c - 1 < known.length ? known[c - 1] : "f" + c;
+        }
+        return names;
+    }
+
+    /**
+     * Converts the sensors of one session, each as its own task
+     */
+    private static final class SessionTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient SessionReader session;
+        private final File outFolder;
+        private final AtomicLong rows;
+
+        SessionTask(SessionReader session, File outFolder, AtomicLong rows) {
+            this.session = session;
+            this.outFolder = outFolder;
+            this.rows = rows;
+        }
+
+        @Override
+        protected void compute() {
+            List<String> sensors = session.getSensorNames();
+            List<RecursiveAction> tasks = new ArrayList<>(sensors.size());
+            for (String sensor : sensors) {
+                File file = session.getSensorFile(sensor);
+                File out = new File(outFolder, sensor + EXTENSION);
+                tasks.add(new RecursiveAction() {
+                    @Override
+                    protected void compute() {
+                        try {
+                            rows.addAndGet(file != null ? convertFile(file, out) : convertLogSensor(session, sensor, out));
+                        } catch (IOException ex) {
+                            String source = file != null ? file.toString() : outFolder.getName() + " " + sensor;
+                            throw new UncheckedIOException(source + ": " + ex.getMessage(), ex);
+                        }
+                    }
+                });
+            }
+            invokeAll(tasks);
+        }
+    }
+
+    /**
+     * One chunk of rows, held as primitive columns
+     */
+    private static final class Chunk {
+
+        final int[] types;
+        final long[] timestamps = new long[CHUNK_ROWS];
+        final long[][] longs;
+        final double[][] doubles;
+        final float[][] floats;
+        final String[][] strings;
+        int size = 0;
+
+        Chunk(int[] types) {
+            this.types = types;
+            this.longs = new long[types.length][];
+            this.doubles = new double[types.length][];
+            this.floats = new float[types.length][];
+            this.strings = new String[types.length][];
+
+            for (int c = 1; c < types.length; c++) {
+                switch (types[c]) {
+                    case TYPE_INT64:
+                        longs[c] = new long[CHUNK_ROWS];
+                        break;
+                    case TYPE_FLOAT64:
+                        doubles[c] = new double[CHUNK_ROWS];
+                        break;
+                    case TYPE_FLOAT32:
+                        floats[c] = new float[CHUNK_ROWS];
+                        break;
+                    default:
+                        strings[c] = new String[CHUNK_ROWS];
+                }
+            }
+        }
+
+        void add(long timestamp, List<String> fields) {
+            timestamps[size] = timestamp;
+            for (int c = 1; c < types.length; c++) {
+                String field = c < fields.size() ? fields.get(c) : null;
+                switch (types[c]) {
+                    case TYPE_INT64:
+                        longs[c][size] = parseLong(field);
+                        break;
+                    case TYPE_FLOAT64:
+                        doubles[c][size] = parseDouble(field);
+                        break;
+                    default:
+                        strings[c][size] = field == null ? "" : field;
+                }
+            }
+            size++;
+        }
+
+        void add(CompressedSeriesReader reader) {
+            timestamps[size] = reader.getTimestamp();
+            for (int c = 1; c < types.length; c++) {
+                floats[c][size] = reader.getValue(c - 1);
+            }
+            size++;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        private static long parseLong(String field) {
+            try {
+                return field == null ? Long.MIN_VALUE : Long.parseLong(field);
+            } catch (NumberFormatException ex) {
+                return Long.MIN_VALUE;
+            }
+        }
+
+        private static double parseDouble(String field) {
+            try {
+                return field == null ? Double.NaN : Double.parseDouble(field);
+            } catch (NumberFormatException ex) {
+                return Double.NaN;
+            }
+        }
+    }
+
+    /**
+     * Writes the header and chunks of one file through a reused little endian buffer
+     */
+    private static final class ChunkWriter {
+
+        private final FileChannel channel;
+        private ByteBuffer buffer = ByteBuffer.allocate(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+
+        ChunkWriter(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void header(int[] types, String[] names) throws IOException {
+            buffer.clear();
+            buffer.put(MAGIC);
+            buffer.putInt(types.length);
+            for (int c = 0; c < types.length; c++) {
+                byte[] name = names[c].getBytes(StandardCharsets.UTF_8);
+                buffer.putInt(types[c]);
+                buffer.putInt(name.length);
+                buffer.put(name);
+            }
+            drain();
+        }
+
+        void write(Chunk chunk) throws IOException {
+            int rows = chunk.size;
+            buffer.clear();
+            buffer.putInt(rows);
+            drain();
+
+            column(8L * rows);
+            buffer.asLongBuffer().put(chunk.timestamps, 0, rows);
+            advanceAndDrain(8 * rows);
+
+            for (int c = 1; c < chunk.types.length; c++) {
+                switch (chunk.types[c]) {
+                    case TYPE_INT64:
+                        column(8L * rows);
+                        buffer.asLongBuffer().put(chunk.longs[c], 0, rows);
+                        advanceAndDrain(8 * rows);
+                        break;
+                    case TYPE_FLOAT64:
+                        column(8L * rows);
+                        buffer.asDoubleBuffer().put(chunk.doubles[c], 0, rows);
+                        advanceAndDrain(8 * rows);
+                        break;
+                    case TYPE_FLOAT32:
+                        column(4L * rows);
+                        buffer.asFloatBuffer().put(chunk.floats[c], 0, rows);
+                        advanceAndDrain(4 * rows);
+                        break;
+                    default:
+                        writeStrings(chunk.strings[c], rows);
+                }
+            }
+        }
+
+        void finish() throws IOException {
+            buffer.clear();
+            buffer.putInt(0);
+            drain();
+        }
+
+        private void writeStrings(String[] values, int rows) throws IOException {
+            byte[][] encoded = new byte[rows][];
+            long bytes = 0;
+            for (int r = 0; r < rows; r++) {
+                encoded[r] = values[r].getBytes(StandardCharsets.UTF_8);
+                bytes += encoded[r].length;
+            }
+
+            column(4L * (rows + 1) + bytes);
+            ensureCapacity(4 * (rows + 1));
+            int offset = 0;
+            buffer.putInt(offset);
+            for (int r = 0; r < rows; r++) {
+                offset += encoded[r].length;
+                buffer.putInt(offset);
+            }
+            drain();
+
+            for (int r = 0; r < rows; r++) {
+                if (buffer.remaining() < encoded[r].length) {
+                    drain();
+                    ensureCapacity(encoded[r].length);
+                }
+                buffer.put(encoded[r]);
+            }
+            drain();
+        }
+
+        /**
+         * Starts a column: writes its byte length and leaves the buffer empty with room for the data
+         */
+        private void column(long length) throws IOException {
+            buffer.clear();
+            buffer.putLong(length);
+            drain();
+            ensureCapacity((int) Math.min(length, Integer.MAX_VALUE));
+        }
+
+        private void ensureCapacity(int bytes) {
+            if (buffer.capacity() < bytes) {
+                buffer = ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+            }
+            buffer.clear();
+        }
+
+        /**
+         * Moves the position past data written through a view buffer, then writes the buffer out
+         */
+        private void advanceAndDrain(int bytes) throws IOException {
+            buffer.position(bytes);
+            drain();
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp.tools;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Spliterator of the records of a range of a sensor CSV file, read through memory mapped windows of the file
+ * Splits in half at a line boundary, so that parallel streams over a large file use every core. A split never starts
+ * at a run record, which stays with the line it repeats
+ * Many spliterators may share one channel, as mapping is independent of the channel's position
+ */
+final class CsvRecordSpliterator extends LineRecordSpliterator {
+
+    // Smallest range worth splitting, below which the overhead of a task outweighs the parsing saved
+    static final long MIN_SPLIT_BYTES = 1 << 20;
+    // Largest part of the file mapped at once, so that files over 2 GB can be read
+    static final int WINDOW_BYTES = 64 << 20;
+    // Typical length of a line, for estimating the number of records
+    private static final int ESTIMATED_LINE_BYTES = 40;
+
+    private final FileChannel channel;
+    private long position;
+    private final long end;
+    private ByteBuffer window;
+    private long windowStart;
+
+    /**
+     * Constructor
+     * @param channel FileChannel: the file, open for reading
+     * @param start long: offset of the first line of the range
+     * @param end long: offset after the last line of the range
+     */
+    CsvRecordSpliterator(FileChannel channel, long start, long end) {
+        this.channel = channel;
+        this.position = start;
+        this.end = end;
+    }
+
+    @Override
+    boolean nextLine() throws IOException {
+        if (position >= end) {
+            return false;
+        }
+
+        while (true) {
+            long windowEnd = window != null ? windowStart + window.limit() : 0;
+            if (window == null || position < windowStart || position >= windowEnd) {
+                map(position);
+                continue;
+            }
+
+            int start = (int) (position - windowStart);
+            int limit = window.limit();
+            int i = start;
+            while (i < limit && window.get(i) != '\n') {
+                i++;
+            }
+
+            if (i == limit && windowStart + limit < end) {
+                // The line runs past the window, so remap from its start
+                if (start == 0) {
+                    throw new IOException("Line longer than " + WINDOW_BYTES + " bytes at " + position);
+                }
+                map(position);
+                continue;
+            }
+
+            lineBuffer = window;
+            lineStart = start;
+            lineEnd = i;
+            position = windowStart + i + 1;
+            return true;
+        }
+    }
+
+    /**
+     * Splits off the first half of the remaining range
+     * @return CsvRecordSpliterator: the first half, or null if the range is too small or within a run
+     */
+    @Override
+    public CsvRecordSpliterator trySplit() {
+        if (runRemaining > 0 || end - position < 2 * MIN_SPLIT_BYTES) {
+            return null;
+        }
+
+        long boundary;
+        try {
+            boundary = recordStart(position + (end - position) / 2);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        if (boundary >= end) {
+            return null;
+        }
+
+        CsvRecordSpliterator prefix = new CsvRecordSpliterator(channel, position, boundary);
+        // A run record at the start of the prefix repeats the line read before it
+        prefix.previous.set(previous);
+        prefix.hasPrevious = hasPrevious;
+        position = boundary;
+        hasPrevious = false;
+        window = null;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return (end - position) / ESTIMATED_LINE_BYTES;
+    }
+
+    private void map(long from) throws IOException {
+        windowStart = from;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, from, Math.min(WINDOW_BYTES, end - from));
+    }
+
+    /**
+     * Finds the start of the first line after an offset that is not a run record
+     * @param from long: the offset
+     * @return long: offset of the line, or end if there is none
+     */
+    private long recordStart(long from) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        long offset = from;
+
+        while (offset < end) {
+            buffer.clear();
+            int read = channel.read(buffer, offset);
+            if (read <= 0) {
+                return end;
+            }
+
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    long candidate = offset + i + 1;
+                    if (candidate >= end) {
+                        return end;
+                    }
+                    if (!startsWithRun(candidate)) {
+                        return candidate;
+                    }
+                }
+            }
+            offset += read;
+        }
+        return end;
+    }
+
+    private boolean startsWithRun(long offset) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(2);
+        return channel.read(head, offset) == 2 && LineRecordSpliterator.isRun(head, 0, 2);
+    }
+}
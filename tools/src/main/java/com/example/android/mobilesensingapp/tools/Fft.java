@@ -0,0 +1,123 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp.tools;
+
+/**
+ * Radix-2 fast Fourier transform, and cross-correlation built on it
+ */
+final class Fft {
+
+    private Fft() {
+    }
+
+    /**
+     * Smallest power of two greater than or equal to n
+     * @param n int: minimum size
+     * @return int: the power of two
+     */
+    static int nextPowerOfTwo(int n) {
+        int size = 1;
+        while (size < n) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    /**
+     * In place iterative FFT
+     * @param re double[]: real parts, length must be a power of two
+     * @param im double[]: imaginary parts, same length as re
+     * @param inverse boolean: true for the inverse transform, which is scaled by 1/n
+     */
+    static void transform(double[] re, double[] im, boolean inverse) {
+        int n = re.length;
+
+        // Bit reversal permutation
+        for (int i = 1, j = 0; i < n; i++) {
+            int bit = n >> 1;
+            for (; (j & bit) != 0; bit >>= 1) {
+                j ^= bit;
+            }
+            j ^= bit;
+            if (i < j) {
+                double t = re[i]; re[i] = re[j]; re[j] = t;
+                t = im[i]; im[i] = im[j]; im[j] = t;
+            }
+        }
+
+        for (int length = 2; length <= n; length <<= 1) {
+            double angle = 2 * Math.PI / length * (inverse ? 1 : -1);
+            double stepRe = Math.cos(angle);
+            double stepIm = Math.sin(angle);
+            int half = length >> 1;
+
+            for (int start = 0; start < n; start += length) {
+                double wRe = 1;
+                double wIm = 0;
+                for (int k = 0; k < half; k++) {
+                    int a = start + k;
+                    int b = a + half;
+                    double bRe = re[b] * wRe - im[b] * wIm;
+                    double bIm = re[b] * wIm + im[b] * wRe;
+                    re[b] = re[a] - bRe;
+                    im[b] = im[a] - bIm;
+                    re[a] += bRe;
+                    im[a] += bIm;
+                    double nextRe = wRe * stepRe - wIm * stepIm;
+                    wIm = wRe * stepIm + wIm * stepRe;
+                    wRe = nextRe;
+                }
+            }
+        }
+
+        if (inverse) {
+            for (int i = 0; i < n; i++) {
+                re[i] /= n;
+                im[i] /= n;
+            }
+        }
+    }
+
+    /**
+     * Linear (not circular) cross-correlation c[k] = sum over i of a[i] * b[i + k]
+     * A positive lag k means that features in b occur k samples after the same features in a
+     * @param a double[]: first signal
+     * @param b double[]: second signal
+     * @param maxLag int: largest absolute lag to return
+     * @return double[]: correlation for lags -maxLag to maxLag, with lag k at index k + maxLag
+     */
+    static double[] crossCorrelate(double[] a, double[] b, int maxLag) {
+        int n = nextPowerOfTwo(Math.max(a.length, b.length) + maxLag + 1);
+        double[] aRe = new double[n];
+        double[] aIm = new double[n];
+        double[] bRe = new double[n];
+        double[] bIm = new double[n];
+        System.arraycopy(a, 0, aRe, 0, a.length);
+        System.arraycopy(b, 0, bRe, 0, b.length);
+
+        transform(aRe, aIm, false);
+        transform(bRe, bIm, false);
+
+        // conj(A) * B
+        for (int i = 0; i < n; i++) {
+            double re = aRe[i] * bRe[i] + aIm[i] * bIm[i];
+            double im = aRe[i] * bIm[i] - aIm[i] * bRe[i];
+            aRe[i] = re;
+            aIm[i] = im;
+        }
+
+        transform(aRe, aIm, true);
+
+        double[] correlation = new double[2 * maxLag + 1];
+        for (int k = -maxLag; k <= maxLag; k++) {
+            correlation[k + maxLag] = aRe[(k + n) % n];
+        }
+        return correlation;
+    }
+}
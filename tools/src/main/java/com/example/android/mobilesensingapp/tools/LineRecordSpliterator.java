@@ -0,0 +1,195 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp.tools;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Spliterator of the records of a sensor's CSV lines, however the lines are stored
+ * Lines are parsed in place into a single reused SensorRecord, and run records written with change suppression
+ * (R,end timestamp,count,deltas, see RunLengthCsvReader) are expanded into the repeated records at their exact
+ * timestamps. Runs written by earlier versions, without deltas, have their timestamps spread evenly
+ * Does not split, see CsvRecordSpliterator
+ */
+abstract class LineRecordSpliterator implements Spliterator<SensorRecord> {
+
+    final SensorRecord record = new SensorRecord();
+    // The last record read from a line, repeated by a following run record
+    final SensorRecord previous = new SensorRecord();
+    boolean hasPrevious = false;
+    int runRemaining = 0;
+    private long runEnd;
+    // Timestamp of each repeat of the run being expanded, or of none for a run without deltas
+    private long[] runTimes = new long[16];
+    private int runTimeCount = 0;
+
+    // Set by nextLine to the line just read, excluding its line break
+    ByteBuffer lineBuffer;
+    int lineStart;
+    int lineEnd;
+
+    /**
+     * Reads the next line into lineBuffer, lineStart and lineEnd
+     * @return boolean: false at the end of the lines
+     * @throws IOException if the lines can not be read
+     */
+    abstract boolean nextLine() throws IOException;
+
+    @Override
+    public boolean tryAdvance(Consumer<? super SensorRecord> action) {
+        while (true) {
+            if (runRemaining > 0) {
+                long timestamp = runTimeCount > 0
+                        ? runTimes[runTimeCount - runRemaining]
+                        : previous.timestamp() + (runEnd - previous.timestamp()) / runRemaining;
+                runRemaining--;
+                previous.setTimestamp(timestamp);
+                record.set(previous);
+                action.accept(record);
+                return true;
+            }
+
+            try {
+                if (!nextLine()) {
+                    return false;
+                }
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+
+            if (lineEnd > lineStart && lineBuffer.get(lineEnd - 1) == '\r') {
+                lineEnd--;
+            }
+
+            if (isRun(lineBuffer, lineStart, lineEnd)) {
+                if (hasPrevious) {
+                    parseRun(lineBuffer, lineStart + 2, lineEnd);
+                }
+                continue;
+            }
+
+            if (record.parse(lineBuffer, lineStart, lineEnd)) {
+                previous.set(record);
+                hasPrevious = true;
+                action.accept(record);
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public Spliterator<SensorRecord> trySplit() {
+        return null;
+    }
+
+    @Override
+    public long estimateSize() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL;
+    }
+
+    /**
+     * Reads a run record's end timestamp, count and deltas, leaving runRemaining at 0 if it is malformed
+     * @param buffer ByteBuffer: the line
+     * @param start int: start of the fields after the run marker
+     * @param end int: end of the line
+     */
+    private void parseRun(ByteBuffer buffer, int start, int end) {
+        runRemaining = 0;
+        runTimeCount = 0;
+
+        int countStart = indexOf(buffer, ',', start, end) + 1;
+        if (countStart == 0) {
+            return;
+        }
+        int countEnd = indexOf(buffer, ',', countStart, end);
+        int deltasStart = countEnd < 0 ? end : countEnd + 1;
+        countEnd = countEnd < 0 ? end : countEnd;
+
+        long parsedEnd = parseLong(buffer, start, countStart - 1);
+        long count = parseLong(buffer, countStart, countEnd);
+        if (parsedEnd == Long.MIN_VALUE || count <= 0 || count > Integer.MAX_VALUE) {
+            return;
+        }
+
+        if (deltasStart < end) {
+            long timestamp = previous.timestamp();
+            int deltaStart = deltasStart;
+            while (deltaStart <= end) {
+                int deltaEnd = indexOf(buffer, ';', deltaStart, end);
+                deltaEnd = deltaEnd < 0 ? end : deltaEnd;
+                long delta = parseLong(buffer, deltaStart, deltaEnd);
+                if (delta == Long.MIN_VALUE || runTimeCount == count) {
+                    runTimeCount = 0;
+                    return;
+                }
+                if (runTimeCount == runTimes.length) {
+                    runTimes = Arrays.copyOf(runTimes, runTimes.length * 2);
+                }
+                timestamp += delta;
+                runTimes[runTimeCount++] = timestamp;
+                deltaStart = deltaEnd + 1;
+            }
+            if (runTimeCount != count) {
+                runTimeCount = 0;
+                return;
+            }
+        }
+
+        runEnd = parsedEnd;
+        runRemaining = (int) count;
+    }
+
+    private static int indexOf(ByteBuffer buffer, char c, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (buffer.get(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parses a decimal integer of at most 18 digits
+     * @return long: the integer, or Long.MIN_VALUE if malformed
+     */
+    private static long parseLong(ByteBuffer buffer, int start, int end) {
+        boolean negative = start < end && buffer.get(start) == '-';
+        int digits = negative ? start + 1 : start;
+        if (digits == end || end - digits > 18) {
+            return Long.MIN_VALUE;
+        }
+
+        long value = 0;
+        for (int i = digits; i < end; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return Long.MIN_VALUE;
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * @return boolean: true if the line is a run record
+     */
+    static boolean isRun(ByteBuffer buffer, int start, int end) {
+        return end - start >= 2 && buffer.get(start) == 'R' && buffer.get(start + 1) == ',';
+    }
+}
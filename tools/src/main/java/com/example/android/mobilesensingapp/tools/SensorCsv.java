@@ -0,0 +1,149 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp.tools;
+
+import com.example.android.mobilesensingapp.format.RunLengthCsvReader;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * A sensor's data read fully into primitive columns, from a CSV file written by the app's SensorDataWriter or from
+ * any storage format through a SessionReader
+ * Every line starts with a millisecond timestamp, followed by the sensor's fields
+ * Run records written with change suppression are expanded, see RunLengthCsvReader
+ * Fields that are not numeric (e.g. battery status) are read as NaN
+ */
+final class SensorCsv {
+
+    final long[] timestamps;
+    final double[][] columns;
+    final int size;
+
+    private SensorCsv(long[] timestamps, double[][] columns, int size) {
+        this.timestamps = timestamps;
+        this.columns = columns;
+        this.size = size;
+    }
+
+    /**
+     * Reads a sensor file, skipping blank or malformed lines
+     * @param file File: the sensor CSV file
+     * @return SensorCsv: the file's contents
+     * @throws IOException if the file can not be read
+     */
+    static SensorCsv read(File file) throws IOException {
+        Builder builder = new Builder();
+        double[] fields = new double[0];
+
+        try (BufferedReader reader = new RunLengthCsvReader(Files.newBufferedReader(file.toPath(), StandardCharsets.US_ASCII))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(",");
+                long timestamp;
+                try {
+                    timestamp = Long.parseLong(parts[0].trim());
+                } catch (NumberFormatException ex) {
+                    continue;
+                }
+
+                if (fields.length < parts.length - 1) {
+                    fields = new double[parts.length - 1];
+                }
+                for (int c = 1; c < parts.length; c++) {
+                    fields[c - 1] = parseOrNaN(parts[c]);
+                }
+                builder.add(timestamp, fields, parts.length - 1);
+            }
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Reads a sensor of a session in any storage format
+     * @param session SessionReader: the session
+     * @param sensor String: name of the sensor, see SessionReader.getSensorNames
+     * @return SensorCsv: the sensor's data, or null if the session has none
+     * @throws IOException if the sensor's data can not be read
+     */
+    static SensorCsv read(SessionReader session, String sensor) throws IOException {
+        if (!session.getSensorNames().contains(sensor)) {
+            return null;
+        }
+
+        Builder builder = new Builder();
+        double[] fields = new double[0];
+
+        try (Stream<SensorRecord> records = session.records(sensor)) {
+            Iterator<SensorRecord> iterator = records.iterator();
+            while (iterator.hasNext()) {
+                SensorRecord record = iterator.next();
+                if (fields.length < record.fieldCount()) {
+                    fields = new double[record.fieldCount()];
+                }
+                for (int c = 0; c < record.fieldCount(); c++) {
+                    fields[c] = record.value(c);
+                }
+                builder.add(record.timestamp(), fields, record.fieldCount());
+            }
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+
+        return builder.build();
+    }
+
+    private static double parseOrNaN(String field) {
+        try {
+            return Double.parseDouble(field);
+        } catch (NumberFormatException ex) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Collects records into growing columns, with as many columns as the first record has fields
+     */
+    private static final class Builder {
+
+        private long[] timestamps = new long[1024];
+        private double[][] columns = new double[0][];
+        private int size = 0;
+
+        void add(long timestamp, double[] fields, int fieldCount) {
+            if (size == 0) {
+                columns = new double[fieldCount][timestamps.length];
+            }
+            if (size == timestamps.length) {
+                timestamps = Arrays.copyOf(timestamps, size * 2);
+                for (int c = 0; c < columns.length; c++) {
+                    columns[c] = Arrays.copyOf(columns[c], size * 2);
+                }
+            }
+
+            timestamps[size] = timestamp;
+            for (int c = 0; c < columns.length; c++) {
+                columns[c][size] = c < fieldCount ? fields[c] : Double.NaN;
+            }
+            size++;
+        }
+
+        SensorCsv build() {
+            return new SensorCsv(timestamps, columns, size);
+        }
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp.tools;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * One record of a sensor stream from a SessionReader: a millisecond timestamp and the sensor's fields as doubles
+ * Fields that are not numeric (e.g. battery status) read as NaN
+ *
+ * Records are reused: each stream, or each part of a parallel stream, moves a single record from line to line,
+ * so that reading allocates nothing per record. Read what is needed within the stream operation, e.g.
+ *   reader.records("Accelerometer").mapToDouble(r -> r.value(0)).summaryStatistics()
+ * and copy a record before keeping it
+ */
+public final class SensorRecord {
+
+    // Exact powers of ten, for parsing decimals without rounding error, see parseDouble
+    private static final double[] POWERS_OF_TEN = new double[23];
+    // Largest mantissa that a double holds exactly
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private long timestamp;
+    private double[] values = new double[8];
+    private int fieldCount;
+
+    SensorRecord() {
+    }
+
+    /**
+     * @return long: the record's timestamp in milliseconds
+     */
+    public long timestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return int: the number of fields after the timestamp
+     */
+    public int fieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * @param field int: index of the field, 0 for the first field after the timestamp
+     * @return double: the field's value, NaN if it is not numeric or the record has no such field
+     */
+    public double value(int field) {
+        return field < fieldCount ? values[field] : Double.NaN;
+    }
+
+    /**
+     * Copies this record, e.g. to keep it after the stream operation
+     * @return SensorRecord: the copy
+     */
+    public SensorRecord copy() {
+        SensorRecord copy = new SensorRecord();
+        copy.set(this);
+        return copy;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder().append(timestamp);
+        for (int i = 0; i < fieldCount; i++) {
+            builder.append(',').append(values[i]);
+        }
+        return builder.toString();
+    }
+
+    void set(SensorRecord other) {
+        timestamp = other.timestamp;
+        fieldCount = other.fieldCount;
+        if (values.length < fieldCount) {
+            values = new double[other.values.length];
+        }
+        System.arraycopy(other.values, 0, values, 0, fieldCount);
+    }
+
+    void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    void setFieldCount(int fieldCount) {
+        if (values.length < fieldCount) {
+            values = Arrays.copyOf(values, Math.max(fieldCount, values.length * 2));
+        }
+        this.fieldCount = fieldCount;
+    }
+
+    void setValue(int field, double value) {
+        values[field] = value;
+    }
+
+    /**
+     * Parses a CSV line of timestamp and fields from a buffer, without allocating
+     * @param buffer ByteBuffer: the buffer holding the line
+     * @param start int: index of the line's first byte
+     * @param end int: index after the line's last byte, excluding the line break
+     * @return boolean: true if the line starts with a timestamp, false to skip it
+     */
+    boolean parse(ByteBuffer buffer, int start, int end) {
+        int comma = indexOf(buffer, start, end);
+        if (!parseTimestamp(buffer, start, comma)) {
+            return false;
+        }
+
+        int count = 0;
+        int position = comma + 1;
+        while (position <= end && comma < end) {
+            comma = indexOf(buffer, position, end);
+            setFieldCount(count + 1);
+            values[count++] = parseDouble(buffer, position, comma);
+            position = comma + 1;
+        }
+        fieldCount = count;
+        return true;
+    }
+
+    private boolean parseTimestamp(ByteBuffer buffer, int start, int end) {
+        if (start >= end) {
+            return false;
+        }
+
+        boolean negative = buffer.get(start) == '-';
+        long result = 0;
+        for (int i = negative ? start + 1 : start; i < end; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return false;
+            }
+            result = result * 10 + digit;
+        }
+        timestamp = negative ? -result : result;
+        return true;
+    }
+
+    /**
+     * Parses a decimal, e.g. -9.80665 or 1.5E-4, as Double.parseDouble would
+     * Mantissas of up to 15 digits with small exponents are exact when scaled by an exact power of ten,
+     * which covers everything SensingKit writes. Anything else falls back to Double.parseDouble
+     */
+    private static double parseDouble(ByteBuffer buffer, int start, int end) {
+        int i = start;
+        while (i < end && buffer.get(i) == ' ') {
+            i++;
+        }
+        if (i == end) {
+            return Double.NaN;
+        }
+
+        boolean negative = false;
+        byte first = buffer.get(i);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean seenDigit = false;
+        boolean seenPoint = false;
+
+        for (; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b >= '0' && b <= '9') {
+                seenDigit = true;
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (b - '0');
+                    if (mantissa > 0) {
+                        digits++;
+                    }
+                    if (seenPoint) {
+                        exponent--;
+                    }
+                } else if (!seenPoint) {
+                    exponent++;
+                }
+            } else if (b == '.' && !seenPoint) {
+                seenPoint = true;
+            } else {
+                break;
+            }
+        }
+
+        if (!seenDigit) {
+            // Text such as a battery status is NaN without the cost of a failed parse, NaN and Infinity are parsed
+            return i < end && (buffer.get(i) == 'N' || buffer.get(i) == 'I') ? slowParse(buffer, start, end) : Double.NaN;
+        }
+
+        if (i < end) {
+            byte b = buffer.get(i);
+            if (b != 'E' && b != 'e') {
+                return slowParse(buffer, start, end);
+            }
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+                negativeExponent = buffer.get(i) == '-';
+                i++;
+            }
+            int value = 0;
+            int exponentStart = i;
+            for (; i < end; i++) {
+                int digit = buffer.get(i) - '0';
+                if (digit < 0 || digit > 9 || value > 10000) {
+                    return slowParse(buffer, start, end);
+                }
+                value = value * 10 + digit;
+            }
+            if (i == exponentStart) {
+                return slowParse(buffer, start, end);
+            }
+            exponent += negativeExponent ? -value : value;
+        }
+
+        double result;
+        if (mantissa < MAX_EXACT_MANTISSA && exponent >= -22 && exponent <= 22) {
+            // Exact mantissa and power of ten, so a single correctly rounded operation
+            result = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+        } else {
+            return slowParse(buffer, start, end);
+        }
+        return negative ? -result : result;
+    }
+
+    private static double slowParse(ByteBuffer buffer, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(start + i);
+        }
+
+        try {
+            return Double.parseDouble(new String(bytes, StandardCharsets.US_ASCII).trim());
+        } catch (NumberFormatException ex) {
+            return Double.NaN;
+        }
+    }
+
+    private static int indexOf(ByteBuffer buffer, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (buffer.get(i) == ',') {
+                return i;
+            }
+        }
+        return end;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp.tools;
+
+import com.example.android.mobilesensingapp.format.SessionLogReader;
+import com.example.android.mobilesensingapp.format.SessionLogWriter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+
+/**
+ * Splits a session log back into one CSV file per sensor, named and laid out as the app writes them in CSV format,
+ * so that existing analysis of per sensor files works unchanged
+ */
+final class SessionLogSplitter {
+
+    private SessionLogSplitter() {
+    }
+
+    /**
+     * Splits a session log, creating a CSV file for each sensor with at least one record
+     * @param log File: the session log, or a session folder containing one
+     * @param outFolder File: folder to write the CSV files to, created if required
+     * @return long: number of records written
+     * @throws IOException if the log can not be read or a file written
+     */
+    static long split(File log, File outFolder) throws IOException {
+        if (log.isDirectory()) {
+            log = new File(log, SessionLogWriter.FILENAME);
+        }
+        Files.createDirectories(outFolder.toPath());
+
+        OutputStream[] outputs = null;
+        long records = 0;
+
+        try (SessionLogReader reader = new SessionLogReader(new BufferedInputStream(Files.newInputStream(log.toPath())))) {
+            outputs = new OutputStream[reader.getStreamNames().size()];
+            byte[] payload = new byte[0xFFFF];
+
+            while (reader.next()) {
+                int stream = reader.getStream();
+                if (outputs[stream] == null) {
+                    File csv = new File(outFolder, reader.getStreamNames().get(stream) + ".csv");
+                    outputs[stream] = new BufferedOutputStream(Files.newOutputStream(csv.toPath()), 1 << 16);
+                }
+
+                int length = reader.getPayload(payload);
+                outputs[stream].write(payload, 0, length);
+                outputs[stream].write('\n');
+                records++;
+            }
+        } finally {
+            if (outputs != null) {
+                for (OutputStream output : outputs) {
+                    if (output != null) {
+                        output.close();
+                    }
+                }
+            }
+        }
+
+        return records;
+    }
+}
@@ -0,0 +1,381 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp.tools;
+
+import com.example.android.mobilesensingapp.format.CompressedSeriesReader;
+import com.example.android.mobilesensingapp.format.CompressedSeriesWriter;
+import com.example.android.mobilesensingapp.format.RunLengthCsvReader;
+import com.example.android.mobilesensingapp.format.SessionLogReader;
+import com.example.android.mobilesensingapp.format.SessionLogWriter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.DoubleStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reads the sensor data of a recorded session folder as streams of SensorRecords, e.g.
+ *   try (Stream records = SessionReader.open(folder).records("Accelerometer")) {
+ *       DoubleSummaryStatistics x = records.parallel().mapToDouble(r -> r.value(0)).summaryStatistics();
+ *   }
+ * Reads every storage format the app writes: CSV files (with change suppression runs expanded), compressed files,
+ * and the single session log. CSV files are read through memory mapped buffers and split at line boundaries, so
+ * parallel streams use every core. Compressed files and the session log can only be read in order, so their
+ * streams do not split
+ * Records are reused, see SensorRecord. Sensors can also be read as CSV lines, see lines. Streams hold the sensor's
+ * file open until closed
+ */
+public final class SessionReader {
+
+    // Files in a session folder that are not sensor data
+    private static final List<String> SESSION_FILES = Arrays.asList("Session Events", "Session Index", "Session Quality");
+
+    private final Map<String, File> sensorFiles = new LinkedHashMap<>();
+    private final File sessionLog;
+    private final List<String> logSensors;
+
+    private SessionReader(File sessionLog, List<String> logSensors) {
+        this.sessionLog = sessionLog;
+        this.logSensors = logSensors;
+    }
+
+    /**
+     * Opens a session folder, listing its sensors
+     * @param sessionFolder File: the session folder
+     * @return SessionReader: the reader
+     * @throws IOException if the folder or its session log can not be read
+     */
+    public static SessionReader open(File sessionFolder) throws IOException {
+        File[] files = sessionFolder.listFiles();
+        if (files == null) {
+            throw new IOException("Not a session folder: " + sessionFolder);
+        }
+        Arrays.sort(files);
+
+        File log = new File(sessionFolder, SessionLogWriter.FILENAME);
+        List<String> logSensors = Collections.emptyList();
+        if (log.isFile()) {
+            try (SessionLogReader reader = new SessionLogReader(Files.newInputStream(log.toPath()))) {
+                logSensors = reader.getStreamNames();
+            }
+        }
+
+        SessionReader sessionReader = new SessionReader(log.isFile() ? log : null, logSensors);
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(".csv") || name.endsWith(CompressedSeriesWriter.EXTENSION)) {
+                String sensor = name.substring(0, name.lastIndexOf('.'));
+                if (!SESSION_FILES.contains(sensor)) {
+                    sessionReader.sensorFiles.put(sensor, file);
+                }
+            }
+        }
+        return sessionReader;
+    }
+
+    /**
+     * @return List: the name of every sensor with data in the session, as used in its file names
+     */
+    public List<String> getSensorNames() {
+        List<String> names = new ArrayList<>(sensorFiles.keySet());
+        for (String sensor : logSensors) {
+            if (!names.contains(sensor)) {
+                names.add(sensor);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * @param sensor String: name of the sensor, see getSensorNames
+     * @return File: the sensor's CSV or compressed file, or null if its data is held in the session log
+     */
+    File getSensorFile(String sensor) {
+        return sensorFiles.get(sensor);
+    }
+
+    /**
+     * Streams a sensor's records in timestamp order, call parallel() to read large CSV files on every core
+     * @param sensor String: name of the sensor, see getSensorNames
+     * @return Stream: the records, to be closed after use
+     * @throws IOException if the sensor's file can not be opened
+     */
+    public Stream<SensorRecord> records(String sensor) throws IOException {
+        File file = sensorFiles.get(sensor);
+
+        if (file != null && file.getName().endsWith(".csv")) {
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            return stream(new CsvRecordSpliterator(channel, 0, channel.size()), channel);
+        }
+        if (file != null) {
+            CompressedSeriesReader reader = new CompressedSeriesReader(
+                    new BufferedInputStream(Files.newInputStream(file.toPath()), 1 << 16));
+            return stream(new CompressedRecordSpliterator(reader), reader);
+        }
+
+        int stream = logSensors.indexOf(sensor);
+        if (stream < 0) {
+            throw new IOException("No data for sensor " + sensor);
+        }
+        SessionLogReader reader = new SessionLogReader(
+                new BufferedInputStream(Files.newInputStream(sessionLog.toPath()), 1 << 16));
+        return stream(new SessionLogRecordSpliterator(reader, stream), reader);
+    }
+
+    /**
+     * Streams a sensor's timestamps
+     * @param sensor String: name of the sensor
+     * @return LongStream: the timestamps in milliseconds, to be closed after use
+     * @throws IOException if the sensor's file can not be opened
+     */
+    public LongStream timestamps(String sensor) throws IOException {
+        return records(sensor).mapToLong(SensorRecord::timestamp);
+    }
+
+    /**
+     * Streams one field of a sensor's records
+     * @param sensor String: name of the sensor
+     * @param field int: index of the field, 0 for the first field after the timestamp
+     * @return DoubleStream: the field's values, NaN where not numeric, to be closed after use
+     * @throws IOException if the sensor's file can not be opened
+     */
+    public DoubleStream values(String sensor, int field) throws IOException {
+        return records(sensor).mapToDouble(record -> record.value(field));
+    }
+
+    /**
+     * Streams a sensor's records as CSV lines of timestamp and fields, as the app writes them in CSV format, with
+     * change suppression runs expanded. Unlike records, text fields such as battery status are kept as written
+     * @param sensor String: name of the sensor, see getSensorNames
+     * @return Stream: the lines, without line breaks, to be closed after use
+     * @throws IOException if the sensor's file can not be opened
+     */
+    public Stream<String> lines(String sensor) throws IOException {
+        File file = sensorFiles.get(sensor);
+
+        if (file != null && file.getName().endsWith(".csv")) {
+            BufferedReader reader = new RunLengthCsvReader(Files.newBufferedReader(file.toPath(), StandardCharsets.US_ASCII));
+            return reader.lines().onClose(closer(reader));
+        }
+        if (file != null) {
+            CompressedSeriesReader reader = new CompressedSeriesReader(
+                    new BufferedInputStream(Files.newInputStream(file.toPath()), 1 << 16));
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(new CompressedLineIterator(reader),
+                    Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(closer(reader));
+        }
+
+        int stream = logSensors.indexOf(sensor);
+        if (stream < 0) {
+            throw new IOException("No data for sensor " + sensor);
+        }
+        SessionLogReader log = new SessionLogReader(
+                new BufferedInputStream(Files.newInputStream(sessionLog.toPath()), 1 << 16));
+        BufferedReader reader = new RunLengthCsvReader(new SessionLogStreamReader(log, stream));
+        return reader.lines().onClose(closer(reader));
+    }
+
+    private static Stream<SensorRecord> stream(Spliterator<SensorRecord> spliterator, Closeable source) {
+        return StreamSupport.stream(spliterator, false).onClose(closer(source));
+    }
+
+    private static Runnable closer(Closeable source) {
+        return () -> {
+            try {
+                source.close();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        };
+    }
+
+    /**
+     * Records of one sensor's stream in the session log, read in order
+     */
+    private static final class SessionLogRecordSpliterator extends LineRecordSpliterator {
+
+        private final SessionLogReader reader;
+        private final int stream;
+        private final byte[] payload = new byte[0xFFFF];
+        private final ByteBuffer payloadBuffer = ByteBuffer.wrap(payload);
+
+        SessionLogRecordSpliterator(SessionLogReader reader, int stream) {
+            this.reader = reader;
+            this.stream = stream;
+        }
+
+        @Override
+        boolean nextLine() throws IOException {
+            while (reader.next()) {
+                if (reader.getStream() == stream) {
+                    lineBuffer = payloadBuffer;
+                    lineStart = 0;
+                    lineEnd = reader.getPayload(payload);
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Records of a file in the compressed storage format, read in order
+     */
+    private static final class CompressedRecordSpliterator implements Spliterator<SensorRecord> {
+
+        private final CompressedSeriesReader reader;
+        private final SensorRecord record = new SensorRecord();
+
+        CompressedRecordSpliterator(CompressedSeriesReader reader) {
+            this.reader = reader;
+            record.setFieldCount(reader.getColumnCount());
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super SensorRecord> action) {
+            try {
+                if (!reader.next()) {
+                    return false;
+                }
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+
+            record.setTimestamp(reader.getTimestamp());
+            for (int c = 0; c < record.fieldCount(); c++) {
+                record.setValue(c, reader.getValue(c));
+            }
+            action.accept(record);
+            return true;
+        }
+
+        @Override
+        public Spliterator<SensorRecord> trySplit() {
+            return null;
+        }
+
+        @Override
+        public long estimateSize() {
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | NONNULL;
+        }
+    }
+
+    /**
+     * Lines of a file in the compressed storage format, each record formatted as timestamp,fields
+     */
+    private static final class CompressedLineIterator implements Iterator<String> {
+
+        private final CompressedSeriesReader reader;
+        private final StringBuilder line = new StringBuilder();
+        private boolean ready = false;
+        private boolean ended = false;
+
+        CompressedLineIterator(CompressedSeriesReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (!ready && !ended) {
+                try {
+                    ended = !reader.next();
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+                ready = !ended;
+            }
+            return ready;
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            ready = false;
+
+            line.setLength(0);
+            line.append(reader.getTimestamp());
+            for (int c = 0; c < reader.getColumnCount(); c++) {
+                line.append(',').append(reader.getValue(c));
+            }
+            return line.toString();
+        }
+    }
+
+    /**
+     * Text of one sensor's stream in the session log, a line per record, for reading through RunLengthCsvReader
+     */
+    private static final class SessionLogStreamReader extends Reader {
+
+        private final SessionLogReader reader;
+        private final int stream;
+        private String line = "";
+        private int position = 0;
+
+        SessionLogStreamReader(SessionLogReader reader, int stream) {
+            this.reader = reader;
+            this.stream = stream;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+
+            while (position == line.length()) {
+                if (!reader.next()) {
+                    return -1;
+                }
+                if (reader.getStream() == stream) {
+                    line = reader.getPayload() + "\n";
+                    position = 0;
+                }
+            }
+
+            int count = Math.min(length, line.length() - position);
+            line.getChars(position, position + count, buffer, offset);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
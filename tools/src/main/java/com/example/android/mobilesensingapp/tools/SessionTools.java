@@ -0,0 +1,148 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp.tools;
+
+import com.example.android.mobilesensingapp.format.RunLengthCsvReader;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.DoubleSummaryStatistics;
+import java.util.List;
+import java.util.LongSummaryStatistics;
+import java.util.stream.DoubleStream;
+import java.util.stream.LongStream;
+
+/**
+ * Command line entry point for the offline session tools
+ */
+public final class SessionTools {
+
+    private static final String USAGE = "Usage:\n"
+            + "  tools align <sessionA> <sessionB> <outFolder> [maxOffsetSeconds]\n"
+            + "  tools align-cohort <pairs.csv> <outFolder> [maxOffsetSeconds]\n"
+            + "      pairs.csv lines are name,sessionA,sessionB\n"
+            + "  tools decode <sensor.gor> <out.csv>\n"
+            + "  tools benchmark-codec <session>\n"
+            + "  tools split <session|Session.sklog> [outFolder]\n"
+            + "  tools expand <sensor.csv> <out.csv>\n"
+            + "  tools convert <outFolder> <session>...\n"
+            + "  tools summary <session>\n";
+
+    private SessionTools() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.print(USAGE);
+            System.exit(1);
+        }
+
+        long start = System.nanoTime();
+
+        switch (args[0]) {
+            case "align":
+                requireArguments(args, 4);
+                System.out.println(ClockAligner.align(new File(args[1]), new File(args[2]), new File(args[3]),
+                        maxOffsetMillis(args, 4)));
+                break;
+            case "align-cohort":
+                requireArguments(args, 3);
+                ClockAligner.alignCohort(new File(args[1]), new File(args[2]), maxOffsetMillis(args, 3));
+                break;
+            case "decode":
+                requireArguments(args, 3);
+                try (Writer out = Files.newBufferedWriter(new File(args[2]).toPath(), StandardCharsets.US_ASCII)) {
+                    CodecBenchmark.decodeToCsv(new File(args[1]), out);
+                }
+                break;
+            case "benchmark-codec":
+                requireArguments(args, 2);
+                CodecBenchmark.run(new File(args[1]));
+                break;
+            case "split":
+                requireArguments(args, 2);
+                File log = new File(args[1]);
+                File outFolder = args.length > 2 ? new File(args[2])
+                        : log.isDirectory() ? log : log.getAbsoluteFile().getParentFile();
+                System.out.println(SessionLogSplitter.split(log, outFolder) + " records");
+                break;
+            case "expand":
+                requireArguments(args, 3);
+                expand(new File(args[1]), new File(args[2]));
+                break;
+            case "convert":
+                requireArguments(args, 3);
+                List<File> sessions = new ArrayList<>();
+                for (int i = 2; i < args.length; i++) {
+                    sessions.add(new File(args[i]));
+                }
+                System.out.println(ColumnarConverter.convert(sessions, new File(args[1])) + " rows");
+                break;
+            case "summary":
+                requireArguments(args, 2);
+                summarise(new File(args[1]));
+                break;
+            default:
+                System.err.print(USAGE);
+                System.exit(1);
+        }
+
+        System.out.printf("Done in %.2f s%n", (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Rewrites a sensor CSV file saved with change suppression at full resolution, with every run record expanded
+     */
+    private static void expand(File in, File out) throws IOException {
+        try (BufferedReader reader = new RunLengthCsvReader(Files.newBufferedReader(in.toPath(), StandardCharsets.US_ASCII));
+             Writer writer = Files.newBufferedWriter(out.toPath(), StandardCharsets.US_ASCII)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        }
+    }
+
+    /**
+     * Prints each sensor's record count, time range and mean of its first field, read in parallel by SessionReader
+     */
+    private static void summarise(File session) throws IOException {
+        SessionReader reader = SessionReader.open(session);
+        for (String sensor : reader.getSensorNames()) {
+            LongSummaryStatistics timestamps;
+            try (LongStream stream = reader.timestamps(sensor)) {
+                timestamps = stream.parallel().summaryStatistics();
+            }
+            DoubleSummaryStatistics values;
+            try (DoubleStream stream = reader.values(sensor, 0)) {
+                values = stream.parallel().filter(value -> !Double.isNaN(value)).summaryStatistics();
+            }
+
+            System.out.printf("%s: %d records, %d to %d, mean %.4f%n", sensor, timestamps.getCount(),
+                    timestamps.getMin(), timestamps.getMax(), values.getAverage());
+        }
+    }
+
+    private static void requireArguments(String[] args, int count) {
+        if (args.length < count) {
+            System.err.print(USAGE);
+            System.exit(1);
+        }
+    }
+
+    private static long maxOffsetMillis(String[] args, int index) {
+        return args.length > index ? Long.parseLong(args[index]) * 1000 : ClockAligner.DEFAULT_MAX_OFFSET_MILLIS;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp.tools;
+
+import com.example.android.mobilesensingapp.format.SessionLogWriter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Conversion of sessions to the columnar format, whatever storage format their sensors were saved in
+ */
+public class ColumnarConverterTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void convert_convertsSensorsOfFilesAndSessionLogButNotSessionFiles() throws IOException {
+        File session = temp.newFolder("2018-01-01_12.00.00");
+        write(new File(session, "Light.csv"), "1000,12.5\n2000,13.5\n");
+        write(new File(session, "Session Events.csv"), "1000,start,\n3000,stop,\n");
+        write(new File(session, "Session Quality.csv"), "Light,2,0,0\n");
+        write(new File(session, "Session Index.csv"), "Light,1000,2000\n");
+        try (OutputStream out = Files.newOutputStream(new File(session, SessionLogWriter.FILENAME).toPath());
+             SessionLogWriter writer = new SessionLogWriter(out, Collections.singletonList("Accelerometer"), 1000)) {
+            for (String record : new String[] {"1000,0.5,1.5,9.8", "R,1040,2", "1060,0.6,1.5,9.8"}) {
+                byte[] payload = record.getBytes(StandardCharsets.UTF_8);
+                writer.append(0, payload, 0, payload.length);
+            }
+        }
+        File out = temp.newFolder("out");
+
+        assertEquals(6, ColumnarConverter.convert(Collections.singletonList(session), out));
+
+        String[] converted = new File(out, session.getName()).list();
+        Arrays.sort(converted);
+        assertArrayEquals(new String[] {"Accelerometer.skc", "Light.skc"}, converted);
+        // Run records of the session log are expanded, as those of CSV files are
+        assertEquals(4, rowCount(new File(out, session.getName() + "/Accelerometer.skc"), 4));
+    }
+
+    /**
+     * Reads the row count of a converted file's first chunk
+     */
+    private static int rowCount(File file, int columns) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.position(8);
+        assertEquals(columns, buffer.getInt());
+        for (int c = 0; c < columns; c++) {
+            // Type, then the name
+            buffer.getInt();
+            int nameLength = buffer.getInt();
+            buffer.position(buffer.position() + nameLength);
+        }
+        return buffer.getInt();
+    }
+
+    private static void write(File file, String text) throws IOException {
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+    }
+}
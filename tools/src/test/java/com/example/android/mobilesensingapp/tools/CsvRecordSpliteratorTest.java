@@ -0,0 +1,185 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp.tools;
+
+import com.example.android.mobilesensingapp.format.RunLengthCsvReader;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Parity of CsvRecordSpliterator, split and unsplit, with RunLengthCsvReader, on files dense with run records
+ */
+public class CsvRecordSpliteratorTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void split_matchesRunLengthCsvReader() throws IOException {
+        File csv = writeSensor("Light.csv", "\n", 8 * CsvRecordSpliterator.MIN_SPLIT_BYTES);
+        List<String> expected = readExpanded(csv);
+
+        try (FileChannel channel = FileChannel.open(csv.toPath(), StandardOpenOption.READ)) {
+            List<Spliterator<SensorRecord>> parts = splitFully(new CsvRecordSpliterator(channel, 0, channel.size()));
+            assertTrue("Expected the file to be split, got " + parts.size() + " parts", parts.size() >= 4);
+
+            List<String> actual = new ArrayList<>(expected.size());
+            for (Spliterator<SensorRecord> part : parts) {
+                part.forEachRemaining(record -> actual.add(record.toString()));
+            }
+            assertEquals(expected, actual);
+        }
+    }
+
+    @Test
+    public void parallelStream_matchesRunLengthCsvReader() throws IOException {
+        File session = temp.newFolder("session");
+        File csv = writeSensor("session/Light.csv", "\r\n", 4 * CsvRecordSpliterator.MIN_SPLIT_BYTES);
+        List<String> expected = readExpanded(csv);
+
+        try (Stream<SensorRecord> records = SessionReader.open(session).records("Light")) {
+            assertEquals(expected, records.parallel().map(SensorRecord::toString).collect(Collectors.toList()));
+        }
+        try (Stream<SensorRecord> records = SessionReader.open(session).records("Light")) {
+            assertEquals(expected, records.map(SensorRecord::toString).collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    public void runAtStartOfFile_isSkipped() throws IOException {
+        File session = temp.newFolder("session");
+        Files.write(new File(session, "Light.csv").toPath(),
+                "R,900,1,5\n1000,2.5\nR,1100,2,50;50\n".getBytes(StandardCharsets.US_ASCII));
+
+        try (Stream<SensorRecord> records = SessionReader.open(session).records("Light")) {
+            List<String> actual = records.map(SensorRecord::toString).collect(Collectors.toList());
+            List<String> expected = new ArrayList<>();
+            expected.add("1000,2.5");
+            expected.add("1050,2.5");
+            expected.add("1100,2.5");
+            assertEquals(expected, actual);
+        }
+    }
+
+    @Test
+    public void runSplitByFlush_matchesRunLengthCsvReader() throws IOException {
+        File session = temp.newFolder("session");
+        File csv = new File(session, "Light.csv");
+        Files.write(csv.toPath(), ("1000,2.5\n" + RunLengthCsvReader.formatRun(3000, 2, "1000;1000") + "\n"
+                + RunLengthCsvReader.formatRun(5000, 2, "1000;1000") + "\n").getBytes(StandardCharsets.US_ASCII));
+
+        try (Stream<SensorRecord> records = SessionReader.open(session).records("Light")) {
+            List<String> actual = records.map(SensorRecord::toString).collect(Collectors.toList());
+            assertEquals(readExpanded(csv), actual);
+            assertEquals("5000,2.5", actual.get(4));
+        }
+    }
+
+    /**
+     * Writes a sensor file of about the given size in which every other line is a run record, some without deltas as
+     * written by earlier versions, so that most split points fall on a run
+     */
+    private File writeSensor(String name, String lineBreak, long bytes) throws IOException {
+        File file = new File(temp.getRoot(), name);
+        Random random = new Random(1);
+        long timestamp = 1514808000000L;
+        long written = 0;
+
+        try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.US_ASCII)) {
+            while (written < bytes) {
+                String line = String.format(Locale.US, "%d,%f,%f", timestamp, random.nextFloat() * 1000, -random.nextFloat());
+                written += write(writer, line, lineBreak);
+
+                int repeats = 1 + random.nextInt(4);
+                StringBuilder deltas = new StringBuilder();
+                for (int i = 0; i < repeats; i++) {
+                    long delta = 1 + random.nextInt(300);
+                    timestamp += delta;
+                    deltas.append(i > 0 ? ";" : "").append(delta);
+                }
+                String run = random.nextInt(5) == 0
+                        ? RunLengthCsvReader.RUN_MARKER + "," + timestamp + "," + repeats
+                        : RunLengthCsvReader.formatRun(timestamp, repeats, deltas);
+                written += write(writer, run, lineBreak);
+                timestamp += 1 + random.nextInt(300);
+            }
+        }
+        return file;
+    }
+
+    private static int write(BufferedWriter writer, String line, String lineBreak) throws IOException {
+        writer.write(line);
+        writer.write(lineBreak);
+        return line.length() + lineBreak.length();
+    }
+
+    /**
+     * Reads a file through RunLengthCsvReader, formatting each line as SensorRecord.toString does
+     */
+    private static List<String> readExpanded(File csv) throws IOException {
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new RunLengthCsvReader(Files.newBufferedReader(csv.toPath(), StandardCharsets.US_ASCII))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(",");
+                StringBuilder record = new StringBuilder(fields[0]);
+                for (int i = 1; i < fields.length; i++) {
+                    record.append(',').append(Double.parseDouble(fields[i]));
+                }
+                lines.add(record.toString());
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Splits a spliterator until no part splits further, returning the parts in encounter order
+     */
+    private static List<Spliterator<SensorRecord>> splitFully(Spliterator<SensorRecord> spliterator) {
+        List<Spliterator<SensorRecord>> parts = new ArrayList<>();
+        Deque<Spliterator<SensorRecord>> pending = new ArrayDeque<>();
+        pending.push(spliterator);
+
+        while (!pending.isEmpty()) {
+            Spliterator<SensorRecord> part = pending.pop();
+            Spliterator<SensorRecord> prefix = part.trySplit();
+            if (prefix == null) {
+                parts.add(part);
+            } else {
+                // The prefix comes first, so is split and collected before the rest
+                pending.push(part);
+                pending.push(prefix);
+            }
+        }
+        return parts;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp.tools;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Parity of SensorRecord's allocation free parsing with Double.parseDouble, bit for bit
+ */
+public class SensorRecordTest {
+
+    private static final String[] EDGE_CASES = {
+            "0", "-0", "0.000000", "-0.000000", "+1.5", "1.", ".5", "-.5", "00012.5000", "9.80665", "-9.806650",
+            "0.1", "0.2", "0.3", "1e22", "1e23", "1E-22", "1e-23", "1.5E4", "1.5e+4", "2.5e-4", "1e400", "1e-400",
+            "4.9E-324", "1.7976931348623157E308", "9007199254740993", "9007199254740992.5", "123456789012345678",
+            "1234567890123456789012", "0.000000000000000000001", "3.4028234663852886E38", "1.4E-45",
+            "NaN", "Infinity", "-Infinity", " 1.5", "  -2", "1d", "1f", "1.5x", "1e", "1e+", "--1", "-", ".", "",
+            "Charging", "Good", "AC", "e5", "1.2.3"};
+
+    @Test
+    public void parse_edgeCasesMatchDoubleParseDouble() {
+        for (String field : EDGE_CASES) {
+            assertParity(field);
+        }
+    }
+
+    @Test
+    public void parse_sensingKitFormatsMatchDoubleParseDouble() {
+        Random random = new Random(42);
+        for (int i = 0; i < 50000; i++) {
+            float value = (float) (random.nextGaussian() * Math.pow(10, random.nextInt(9) - 4));
+            // As SensingKit writes floats, and as the tools and Float.toString write them
+            assertParity(String.format(Locale.US, "%f", value));
+            assertParity(Float.toString(value));
+            assertParity(Double.toString(value));
+        }
+    }
+
+    @Test
+    public void parse_randomDoublesMatchDoubleParseDouble() {
+        Random random = new Random(7);
+        for (int i = 0; i < 50000; i++) {
+            double value = Double.longBitsToDouble(random.nextLong());
+            assertParity(Double.toString(value));
+            assertParity(String.format(Locale.US, "%." + random.nextInt(20) + "e", value));
+            assertParity(String.format(Locale.US, "%." + random.nextInt(18) + "f", random.nextDouble() * 1e6));
+        }
+    }
+
+    @Test
+    public void parse_readsTimestampAndFields() {
+        SensorRecord record = new SensorRecord();
+
+        assertTrue(parse(record, "1514808000000,0.950000,250,3900,AC,Charging,Good"));
+        assertEquals(1514808000000L, record.timestamp());
+        assertEquals(6, record.fieldCount());
+        assertEquals(0.95, record.value(0), 0);
+        assertEquals(3900, record.value(2), 0);
+        assertTrue(Double.isNaN(record.value(3)));
+        assertTrue(Double.isNaN(record.value(6)));
+
+        assertTrue(parse(record, "-5"));
+        assertEquals(-5, record.timestamp());
+        assertEquals(0, record.fieldCount());
+
+        assertTrue(parse(record, "1000,,2"));
+        assertEquals(2, record.fieldCount());
+        assertTrue(Double.isNaN(record.value(0)));
+
+        assertFalse(parse(record, "timestamp,x,y,z"));
+        assertFalse(parse(record, ""));
+        assertFalse(parse(record, ",1"));
+    }
+
+    private static void assertParity(String field) {
+        SensorRecord record = new SensorRecord();
+        assertTrue(field, parse(record, "1000," + field));
+
+        double expected;
+        try {
+            expected = Double.parseDouble(field.trim());
+        } catch (NumberFormatException ex) {
+            expected = Double.NaN;
+        }
+        assertEquals(field, Double.doubleToLongBits(expected), Double.doubleToLongBits(record.value(0)));
+    }
+
+    private static boolean parse(SensorRecord record, String line) {
+        // Offset within the buffer, as lines are parsed in place in larger buffers
+        byte[] bytes = ("xx" + line + "\n").getBytes(StandardCharsets.US_ASCII);
+        return record.parse(ByteBuffer.wrap(bytes), 2, bytes.length - 1);
+    }
+}
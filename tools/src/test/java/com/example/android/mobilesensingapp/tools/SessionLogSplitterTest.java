@@ -0,0 +1,84 @@
+/*
+ *  Alex Franklin, aajfranklin@gmail.com
+ *
+ *  This class is part of a continuous sensing application for Android
+ *  For more information, visit https://github.com/aajfranklin/Mobile-Sensing-Android
+ *
+ */
+
+package com.example.android.mobilesensingapp.tools;
+
+import com.example.android.mobilesensingapp.format.SessionLogWriter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Splitting a session log back into the per sensor CSV files the app writes in CSV format
+ */
+public class SessionLogSplitterTest {
+
+    private static final List<String> STREAMS = Arrays.asList("Accelerometer", "Battery", "Light");
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void split_writesOneFilePerSensorWithRecords() throws IOException {
+        File session = temp.newFolder("session");
+        writeLog(new File(session, SessionLogWriter.FILENAME), new String[][] {
+                {"0", "1000,0.100000,0.200000,9.810000"},
+                {"1", "1000,0.95,250,3900,2,2,2"},
+                {"0", "1020,0.110000,0.210000,9.800000"},
+                {"1", "R,30000,5"},
+                {"0", "1040,0.120000,0.220000,9.790000"}});
+        File out = new File(temp.getRoot(), "out");
+
+        // Accepts the session folder as well as the log itself
+        assertEquals(5, SessionLogSplitter.split(session, out));
+
+        assertEquals("1000,0.100000,0.200000,9.810000\n1020,0.110000,0.210000,9.800000\n"
+                + "1040,0.120000,0.220000,9.790000\n", read(new File(out, "Accelerometer.csv")));
+        // Run records are kept as they are, for RunLengthCsvReader to expand
+        assertEquals("1000,0.95,250,3900,2,2,2\nR,30000,5\n", read(new File(out, "Battery.csv")));
+        assertFalse(new File(out, "Light.csv").exists());
+    }
+
+    @Test
+    public void split_truncatedLogKeepsWholeRecords() throws IOException {
+        File log = temp.newFile(SessionLogWriter.FILENAME);
+        writeLog(log, new String[][] {{"2", "1000,12.0"}, {"2", "2000,13.0"}});
+        byte[] bytes = Files.readAllBytes(log.toPath());
+        Files.write(log.toPath(), Arrays.copyOf(bytes, bytes.length - 3));
+        File out = new File(temp.getRoot(), "out");
+
+        assertEquals(1, SessionLogSplitter.split(log, out));
+        assertEquals("1000,12.0\n", read(new File(out, "Light.csv")));
+    }
+
+    private static void writeLog(File file, String[][] records) throws IOException {
+        try (OutputStream out = Files.newOutputStream(file.toPath());
+             SessionLogWriter writer = new SessionLogWriter(out, STREAMS, 1000)) {
+            for (String[] record : records) {
+                byte[] payload = record[1].getBytes(StandardCharsets.UTF_8);
+                writer.append(Integer.parseInt(record[0]), payload, 0, payload.length);
+            }
+        }
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+}